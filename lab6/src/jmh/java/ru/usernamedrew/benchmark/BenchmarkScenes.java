@@ -0,0 +1,41 @@
+package ru.usernamedrew.benchmark;
+
+import ru.usernamedrew.model.Light;
+import ru.usernamedrew.model.Point3D;
+import ru.usernamedrew.model.Polyhedron;
+import ru.usernamedrew.model.RevolutionSurfaceFactory;
+import ru.usernamedrew.model.SurfaceFactory;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+
+// Общие тестовые сцены для бенчмарков: та же геометрия, что строится из интерфейса
+public final class BenchmarkScenes {
+
+    private BenchmarkScenes() {
+    }
+
+    // Поверхность sin(x) * cos(y) на сетке n x n
+    public static Polyhedron surface(int n) {
+        Polyhedron surface = SurfaceFactory.createSurface(SurfaceFactory::sinCosSurface, -3, 3, -3, 3, n, n);
+        surface.recalculateNormals();
+        return surface;
+    }
+
+    // Сфера вращения: points точек образующей, divisions разбиений по углу
+    public static Polyhedron sphere(int points, int divisions) {
+        List<Point3D> generatrix = RevolutionSurfaceFactory.createSphereGeneratrix(1.0, points);
+        Polyhedron sphere = RevolutionSurfaceFactory.createRevolutionSurface(generatrix, RevolutionSurfaceFactory.Axis.Y, divisions);
+        sphere.recalculateNormals();
+        return sphere;
+    }
+
+    // Освещение по умолчанию из MainFrame: окружающий + направленный белый свет
+    public static List<Light> defaultLights() {
+        List<Light> lights = new ArrayList<>();
+        lights.add(new Light(Color.WHITE, 0.3));
+        lights.add(new Light(new Point3D(-1, -1, -1).normalize(), Color.WHITE, 0.8));
+        return lights;
+    }
+}
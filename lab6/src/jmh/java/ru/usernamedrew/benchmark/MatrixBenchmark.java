@@ -0,0 +1,86 @@
+package ru.usernamedrew.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import ru.usernamedrew.model.Point3D;
+import ru.usernamedrew.util.AffineTransform;
+import ru.usernamedrew.util.Matrix4;
+
+import java.util.concurrent.TimeUnit;
+
+// Сравнение прежних матриц double[][] с плоской Matrix4: умножение и преобразование массива точек
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class MatrixBenchmark {
+
+    @Param({"1024", "65536"})
+    public int points;
+
+    private double[][] legacyA, legacyB;
+    private Matrix4 a, b, dest;
+
+    private Point3D[] legacyPoints;
+    private double[] positions, transformed;
+
+    @Setup
+    public void setup() {
+        a = AffineTransform.multiplyMatrices(
+                AffineTransform.createRotationYMatrix(Math.toRadians(30)),
+                AffineTransform.createTranslationMatrix(1, 2, 3));
+        b = AffineTransform.createScalingMatrix(2, 0.5, 1.5);
+        dest = new Matrix4();
+        legacyA = a.toArray();
+        legacyB = b.toArray();
+
+        legacyPoints = new Point3D[points];
+        positions = new double[points * 3];
+        transformed = new double[points * 3];
+        for (int i = 0; i < points; i++) {
+            double x = Math.sin(i), y = Math.cos(i), z = i * 1e-3;
+            legacyPoints[i] = new Point3D(x, y, z);
+            positions[i * 3] = x;
+            positions[i * 3 + 1] = y;
+            positions[i * 3 + 2] = z;
+        }
+    }
+
+    @Benchmark
+    public double[][] multiplyLegacy() {
+        return multiply(legacyA, legacyB);
+    }
+
+    @Benchmark
+    public Matrix4 multiplyInto() {
+        return Matrix4.multiply(a, b, dest);
+    }
+
+    @Benchmark
+    public void transformLegacy(Blackhole blackhole) {
+        for (Point3D point : legacyPoints) {
+            blackhole.consume(point.transform(legacyA));
+        }
+    }
+
+    @Benchmark
+    public double[] transformPoints() {
+        a.transformPoints(positions, transformed, points);
+        return transformed;
+    }
+
+    // Умножение в прежнем виде: новый массив массивов на каждый вызов
+    private static double[][] multiply(double[][] a, double[][] b) {
+        double[][] result = new double[4][4];
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 4; j++) {
+                for (int k = 0; k < 4; k++) {
+                    result[i][j] += a[i][k] * b[k][j];
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,58 @@
+package ru.usernamedrew.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import ru.usernamedrew.model.MeshSimplifier;
+import ru.usernamedrew.model.Polyhedron;
+import ru.usernamedrew.util.AffineTransform;
+import ru.usernamedrew.util.Matrix4;
+
+import java.util.concurrent.TimeUnit;
+
+// Преобразование модели и пересчет нормалей вершин на сетках разного размера
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class PolyhedronBenchmark {
+
+    // Сетка n x n четырехугольников
+    @Param({"16", "32", "64"})
+    public int size;
+
+    private Polyhedron surface;
+    private Matrix4 matrix;
+
+    @Setup
+    public void setup() {
+        surface = BenchmarkScenes.surface(size);
+        matrix = AffineTransform.multiplyMatrices(
+                AffineTransform.createRotationYMatrix(Math.toRadians(1)),
+                AffineTransform.createTranslationMatrix(0.01, 0, 0));
+    }
+
+    @Benchmark
+    public Polyhedron transform() {
+        return surface.transform(matrix);
+    }
+
+    // Преобразование на месте, без копирования модели
+    @Benchmark
+    public Polyhedron applyTransform() {
+        surface.applyTransform(matrix);
+        return surface;
+    }
+
+    @Benchmark
+    public Polyhedron computeVertexNormals() {
+        surface.computeVertexNormals();
+        return surface;
+    }
+
+    // Упрощение по квадрикам до четверти треугольников
+    @Benchmark
+    public Polyhedron simplify() {
+        return MeshSimplifier.simplify(surface, size * size / 2);
+    }
+}
@@ -0,0 +1,63 @@
+package ru.usernamedrew.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import ru.usernamedrew.model.Polyhedron;
+import ru.usernamedrew.util.PolyhedronIO;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Сохранение и загрузка OBJ-файла, заранее сохраненного через PolyhedronIO
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class PolyhedronIOBenchmark {
+
+    @Param({"16", "64", "128", "512"})
+    public int size;
+
+    private Polyhedron surface;
+    private Path file;
+    private Path output;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        surface = BenchmarkScenes.surface(size);
+        file = Files.createTempFile("lab6-benchmark-" + size + "-", ".obj");
+        output = Files.createTempFile("lab6-benchmark-out-" + size + "-", ".obj");
+        PolyhedronIO.saveToFile(surface, file.toString());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(output);
+    }
+
+    @Benchmark
+    public Path saveToFile() throws IOException {
+        PolyhedronIO.saveToFile(surface, output.toString());
+        return output;
+    }
+
+    @Benchmark
+    public Polyhedron loadFromFile() throws IOException {
+        return PolyhedronIO.loadFromFile(file.toString());
+    }
+
+    // Последовательный и параллельный разбор по кускам одного и того же файла
+    @Benchmark
+    public Polyhedron loadSequential() throws IOException {
+        return PolyhedronIO.load(file.toString(), false).polyhedron();
+    }
+
+    @Benchmark
+    public Polyhedron loadParallel() throws IOException {
+        return PolyhedronIO.load(file.toString(), true).polyhedron();
+    }
+}
@@ -0,0 +1,60 @@
+package ru.usernamedrew.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import ru.usernamedrew.model.Camera;
+import ru.usernamedrew.model.Point3D;
+import ru.usernamedrew.model.Polyhedron;
+import ru.usernamedrew.util.AffineTransform;
+import ru.usernamedrew.util.ProjectionTransformer;
+import ru.usernamedrew.util.ZBuffer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Полный кадр z-буфера (очистка + renderScene) для каждого режима освещения
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class RenderBenchmark {
+    private static final int WIDTH = 1024;
+    private static final int HEIGHT = 768;
+
+    @Param({"DEFAULT", "GOURAUD_LAMBERT", "PHONG_TOON"})
+    public ZBuffer.ShadingMode shadingMode;
+
+    @Param({"16", "64"})
+    public int divisions;
+
+    private ZBuffer zBuffer;
+    private ProjectionTransformer projector;
+    private List<Polyhedron> scene;
+
+    @Setup
+    public void setup() {
+        Camera camera = new Camera(new Point3D(0, 0, 5), -90, 0);
+        camera.setAspect((double) WIDTH / HEIGHT);
+
+        zBuffer = new ZBuffer(WIDTH, HEIGHT);
+        zBuffer.setShadingMode(shadingMode);
+        zBuffer.setCamera(camera);
+        zBuffer.setLights(BenchmarkScenes.defaultLights());
+        projector = new ProjectionTransformer(camera, 200, WIDTH / 2, HEIGHT / 2);
+
+        // Сфера перед поверхностью: есть и перекрытия, и крупные треугольники
+        scene = new ArrayList<>();
+        scene.add(BenchmarkScenes.sphere(divisions / 2 + 2, divisions));
+        scene.add(BenchmarkScenes.surface(divisions)
+                .transform(AffineTransform.createTranslationMatrix(0, 0, -2)));
+    }
+
+    @Benchmark
+    public ZBuffer renderScene() {
+        zBuffer.clear();
+        zBuffer.renderScene(scene, projector);
+        return zBuffer;
+    }
+}
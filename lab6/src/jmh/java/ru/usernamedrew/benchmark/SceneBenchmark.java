@@ -0,0 +1,96 @@
+package ru.usernamedrew.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import ru.usernamedrew.model.Camera;
+import ru.usernamedrew.model.Point3D;
+import ru.usernamedrew.model.Polyhedron;
+import ru.usernamedrew.util.AffineTransform;
+import ru.usernamedrew.util.ProjectionTransformer;
+import ru.usernamedrew.util.SceneBvh;
+import ru.usernamedrew.util.ZBuffer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Большая сцена из сфер, из которой камера видит лишь малую часть: кадр по списку и по иерархии,
+// кадр с уровнями детализации, выбор объекта лучом
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class SceneBenchmark {
+    private static final int WIDTH = 1024;
+    private static final int HEIGHT = 768;
+
+    @Param({"1000", "10000"})
+    public int objects;
+
+    private ZBuffer zBuffer;
+    private ZBuffer lodZBuffer;
+    private ProjectionTransformer projector;
+    private List<Polyhedron> scene;
+    private SceneBvh sceneBvh;
+    private int pickIndex;
+
+    @Setup
+    public void setup() {
+        Camera camera = new Camera(new Point3D(0, 2, 0), -90, -5);
+        camera.setAspect((double) WIDTH / HEIGHT);
+        camera.setFar(30);
+
+        zBuffer = new ZBuffer(WIDTH, HEIGHT);
+        zBuffer.setCamera(camera);
+        zBuffer.setLights(BenchmarkScenes.defaultLights());
+        projector = new ProjectionTransformer(camera, 200, WIDTH / 2, HEIGHT / 2);
+
+        lodZBuffer = new ZBuffer(WIDTH, HEIGHT);
+        lodZBuffer.setCamera(camera);
+        lodZBuffer.setLights(BenchmarkScenes.defaultLights());
+        lodZBuffer.setLevelOfDetail(true);
+
+        // Копии одной сферы разбросаны по квадрату 400 x 400
+        Random random = new Random(1);
+        Polyhedron sphere = BenchmarkScenes.sphere(12, 16);
+        sphere.getLodChain(); // уровни строятся один раз и достаются копиям
+        scene = new ArrayList<>();
+        sceneBvh = new SceneBvh();
+        for (int i = 0; i < objects; i++) {
+            Polyhedron copy = sphere.copy();
+            copy.compose(AffineTransform.createTranslationMatrix(
+                    random.nextDouble() * 400 - 200, random.nextDouble() * 20 - 10, random.nextDouble() * 400 - 200));
+            scene.add(copy);
+            sceneBvh.add(copy);
+        }
+    }
+
+    @Benchmark
+    public ZBuffer renderList() {
+        zBuffer.clear();
+        zBuffer.renderScene(scene, projector);
+        return zBuffer;
+    }
+
+    @Benchmark
+    public ZBuffer renderBvh() {
+        zBuffer.clear();
+        zBuffer.renderScene(sceneBvh, projector);
+        return zBuffer;
+    }
+
+    @Benchmark
+    public ZBuffer renderBvhLod() {
+        lodZBuffer.clear();
+        lodZBuffer.renderScene(sceneBvh, projector);
+        return lodZBuffer;
+    }
+
+    @Benchmark
+    public Polyhedron pick() {
+        pickIndex = (pickIndex + 7919) % (WIDTH * HEIGHT);
+        return sceneBvh.pick(projector.createPickRay(pickIndex % WIDTH, pickIndex / WIDTH));
+    }
+}
@@ -0,0 +1,48 @@
+package ru.usernamedrew.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import ru.usernamedrew.model.Point3D;
+import ru.usernamedrew.model.Polyhedron;
+import ru.usernamedrew.model.RevolutionSurfaceFactory;
+import ru.usernamedrew.model.SurfaceFactory;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Построение поверхности по функции и фигуры вращения при разной детализации
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class SurfaceBenchmark {
+
+    // Число разбиений сетки по каждой оси и по углу вращения
+    @Param({"16", "64", "256"})
+    public int divisions;
+
+    private List<Point3D> generatrix;
+
+    @Setup
+    public void setup() {
+        generatrix = RevolutionSurfaceFactory.createSphereGeneratrix(1.0, divisions / 2 + 2);
+    }
+
+    @Benchmark
+    public Polyhedron createSurface() {
+        return SurfaceFactory.createSurface(SurfaceFactory::sinCosSurface, -3, 3, -3, 3, divisions, divisions);
+    }
+
+    // Базовая сетка 8 x 8, самые мелкие ячейки совпадают с ячейками createSurface
+    @Benchmark
+    public Polyhedron createAdaptiveSurface() {
+        return SurfaceFactory.createAdaptiveSurface(SurfaceFactory::sinCosSurface, -3, 3, -3, 3, 8, 8,
+                1e-3, Integer.numberOfTrailingZeros(divisions / 8));
+    }
+
+    @Benchmark
+    public Polyhedron createRevolutionSurface() {
+        return RevolutionSurfaceFactory.createRevolutionSurface(generatrix, RevolutionSurfaceFactory.Axis.Y, divisions);
+    }
+}
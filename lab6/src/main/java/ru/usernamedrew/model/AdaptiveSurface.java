@@ -0,0 +1,284 @@
+package ru.usernamedrew.model;
+
+import java.util.Arrays;
+import java.util.function.DoubleBinaryOperator;
+
+// Адаптивное разбиение поверхности z = f(x, y): каждая ячейка базовой сетки nx x ny делится квадродеревом,
+// пока функция отклоняется от билинейного лоскута ячейки больше допуска (но не глубже maxDepth).
+// Вершины лежат на общей решетке (nx << maxDepth) x (ny << maxDepth) и делятся между соседними ячейками.
+// Лист без более мелких соседей - один четырехугольник; лист, на ребрах которого лежат вершины мелких
+// соседей (T-узлы), - веер треугольников из центра через все эти вершины, поэтому трещин между уровнями нет
+class AdaptiveSurface {
+    private final DoubleBinaryOperator function;
+    private final double x0, x1, y0, y1;
+    private final int nx, ny;
+    private final double tolerance;
+    private final int maxDepth;
+    private final double stepX, stepY; // шаг решетки
+    private final long rowSize;
+
+    private final LatticeIndex index = new LatticeIndex();
+    private double[] positions = new double[3 * 1024];
+    private int vertexCount;
+
+    // Листья: координаты левого нижнего угла на решетке и размер
+    private int[] leaves = new int[3 * 256];
+    private int leafCount;
+
+    private int[] faceIndices = new int[4 * 256];
+    private int[] faceOffsets = new int[257];
+    private int faceCount;
+
+    // Вершины границы текущего листа по порядку обхода
+    private int[] boundary = new int[16];
+    private int boundaryCount;
+
+    AdaptiveSurface(DoubleBinaryOperator function, double x0, double x1, double y0, double y1,
+                    int nx, int ny, double tolerance, int maxDepth) {
+        this.function = function;
+        this.x0 = x0;
+        this.x1 = x1;
+        this.y0 = y0;
+        this.y1 = y1;
+        this.nx = nx;
+        this.ny = ny;
+        this.tolerance = tolerance;
+        this.maxDepth = maxDepth;
+        this.stepX = (x1 - x0) / ((long) nx << maxDepth);
+        this.stepY = (y1 - y0) / ((long) ny << maxDepth);
+        this.rowSize = ((long) ny << maxDepth) + 1;
+    }
+
+    Polyhedron build() {
+        int cell = 1 << maxDepth;
+        for (int i = 0; i < nx; i++) {
+            for (int j = 0; j < ny; j++) {
+                int u = i * cell, v = j * cell;
+                subdivide(u, v, cell, vertex(u, v), vertex(u + cell, v), vertex(u + cell, v + cell), vertex(u, v + cell));
+            }
+        }
+
+        // Грани строятся, когда известны все вершины: только тогда видно, какие ребра разбиты соседями
+        for (int l = 0; l < leafCount; l++) {
+            int u = leaves[l * 3], v = leaves[l * 3 + 1], size = leaves[l * 3 + 2];
+            boundaryCount = 0;
+            collectEdge(u, v, u + size, v);
+            collectEdge(u + size, v, u + size, v + size);
+            collectEdge(u + size, v + size, u, v + size);
+            collectEdge(u, v + size, u, v);
+            if (boundaryCount == 4) {
+                addFace(boundary[0], boundary[1], boundary[2], boundary[3]);
+            } else {
+                int center = addVertex(u + size / 2.0, v + size / 2.0);
+                for (int k = 0; k < boundaryCount; k++) {
+                    addFace(center, boundary[k], boundary[(k + 1) % boundaryCount], -1);
+                }
+            }
+        }
+
+        double[] normals = computeNormals();
+        return Polyhedron.fromIndexedMesh(positions, normals, vertexCount,
+                Arrays.copyOf(faceIndices, faceOffsets[faceCount]), Arrays.copyOf(faceOffsets, faceCount + 1), faceCount);
+    }
+
+    // Углы ячейки уже есть; середины ребер и центр сравниваются с билинейной интерполяцией углов
+    private void subdivide(int u, int v, int size, int c00, int c10, int c11, int c01) {
+        if (size > 1) {
+            int half = size / 2;
+            double z00 = z(c00), z10 = z(c10), z11 = z(c11), z01 = z(c01);
+            double zBottom = eval(u + half, v), zRight = eval(u + size, v + half);
+            double zTop = eval(u + half, v + size), zLeft = eval(u, v + half);
+            double zCenter = eval(u + half, v + half);
+
+            double error = Math.max(
+                    Math.max(Math.abs(zBottom - (z00 + z10) / 2), Math.abs(zRight - (z10 + z11) / 2)),
+                    Math.max(Math.abs(zTop - (z01 + z11) / 2), Math.abs(zLeft - (z00 + z01) / 2)));
+            error = Math.max(error, Math.abs(zCenter - (z00 + z10 + z11 + z01) / 4));
+            // Четырехугольник рисуется двумя треугольниками по диагонали c00 - c11, центр сверяется и с ней
+            error = Math.max(error, Math.abs(zCenter - (z00 + z11) / 2));
+
+            if (error > tolerance) {
+                int bottom = vertex(u + half, v, zBottom), right = vertex(u + size, v + half, zRight);
+                int top = vertex(u + half, v + size, zTop), left = vertex(u, v + half, zLeft);
+                int center = vertex(u + half, v + half, zCenter);
+                subdivide(u, v, half, c00, bottom, center, left);
+                subdivide(u + half, v, half, bottom, c10, right, center);
+                subdivide(u + half, v + half, half, center, right, c11, top);
+                subdivide(u, v + half, half, left, center, top, c01);
+                return;
+            }
+        }
+
+        leaves = ensure(leaves, leafCount * 3 + 3);
+        leaves[leafCount * 3] = u;
+        leaves[leafCount * 3 + 1] = v;
+        leaves[leafCount * 3 + 2] = size;
+        leafCount++;
+    }
+
+    // Вершины ребра от a (включительно) до b (не включая) по порядку обхода. Середина ребра есть в решетке,
+    // только если соседняя ячейка была разбита, поэтому спускаться дальше нужно лишь при найденной середине
+    private void collectEdge(int ua, int va, int ub, int vb) {
+        addBoundary(index.get(key(ua, va)));
+        collectInterior(ua, va, ub, vb);
+    }
+
+    private void collectInterior(int ua, int va, int ub, int vb) {
+        int length = Math.abs(ub - ua) + Math.abs(vb - va);
+        if (length < 2) return;
+
+        int um = (ua + ub) / 2, vm = (va + vb) / 2;
+        int mid = index.get(key(um, vm));
+        if (mid < 0) return;
+
+        collectInterior(ua, va, um, vm);
+        addBoundary(mid);
+        collectInterior(um, vm, ub, vb);
+    }
+
+    private void addBoundary(int vertex) {
+        boundary = ensure(boundary, boundaryCount + 1);
+        boundary[boundaryCount++] = vertex;
+    }
+
+    // Нормали по центральным разностям с шагом решетки (на границе области - односторонним)
+    private double[] computeNormals() {
+        double[] normals = new double[positions.length];
+        for (int i3 = 0; i3 < vertexCount * 3; i3 += 3) {
+            double x = positions[i3], y = positions[i3 + 1];
+            double xLo = clamp(x - stepX, x0, x1), xHi = clamp(x + stepX, x0, x1);
+            double yLo = clamp(y - stepY, y0, y1), yHi = clamp(y + stepY, y0, y1);
+            double ax = xHi - xLo, az = function.applyAsDouble(xHi, y) - function.applyAsDouble(xLo, y);
+            double by = yHi - yLo, bz = function.applyAsDouble(x, yHi) - function.applyAsDouble(x, yLo);
+
+            // (ax, 0, az) x (0, by, bz)
+            double nx = -az * by, ny = -ax * bz, nz = ax * by;
+            double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+            if (length > 0) {
+                normals[i3] = nx / length;
+                normals[i3 + 1] = ny / length;
+                normals[i3 + 2] = nz / length;
+            }
+        }
+        return normals;
+    }
+
+    private int vertex(int u, int v) {
+        int existing = index.get(key(u, v));
+        return existing >= 0 ? existing : vertex(u, v, eval(u, v));
+    }
+
+    private int vertex(int u, int v, double z) {
+        long key = key(u, v);
+        int existing = index.get(key);
+        if (existing >= 0) return existing;
+
+        int created = addVertex(u, v, z);
+        index.put(key, created);
+        return created;
+    }
+
+    // Центр листа с T-узлами: внутри ячейки, с соседями не делится
+    private int addVertex(double u, double v) {
+        return addVertex(u, v, function.applyAsDouble(x(u), y(v)));
+    }
+
+    private int addVertex(double u, double v, double z) {
+        if (positions.length < vertexCount * 3 + 3) {
+            positions = Arrays.copyOf(positions, positions.length * 2);
+        }
+        positions[vertexCount * 3] = x(u);
+        positions[vertexCount * 3 + 1] = y(v);
+        positions[vertexCount * 3 + 2] = z;
+        return vertexCount++;
+    }
+
+    // d < 0 - треугольник
+    private void addFace(int a, int b, int c, int d) {
+        int start = faceOffsets[faceCount];
+        int end = start + (d < 0 ? 3 : 4);
+        faceIndices = ensure(faceIndices, end);
+        faceOffsets = ensure(faceOffsets, faceCount + 2);
+        faceIndices[start] = a;
+        faceIndices[start + 1] = b;
+        faceIndices[start + 2] = c;
+        if (d >= 0) faceIndices[start + 3] = d;
+        faceOffsets[++faceCount] = end;
+    }
+
+    private double eval(int u, int v) {
+        return function.applyAsDouble(x(u), y(v));
+    }
+
+    private double x(double u) {
+        return x0 + u * stepX;
+    }
+
+    private double y(double v) {
+        return y0 + v * stepY;
+    }
+
+    private double z(int vertex) {
+        return positions[vertex * 3 + 2];
+    }
+
+    private long key(int u, int v) {
+        return u * rowSize + v;
+    }
+
+    private static double clamp(double value, double a, double b) {
+        return Math.max(Math.min(a, b), Math.min(Math.max(a, b), value));
+    }
+
+    private static int[] ensure(int[] array, int size) {
+        return array.length >= size ? array : Arrays.copyOf(array, Math.max(size, array.length * 2));
+    }
+
+    // Открытая адресация long -> int без упаковки ключей
+    private static class LatticeIndex {
+        private long[] keys = new long[1024];
+        private int[] values = new int[1024];
+        private int size;
+
+        LatticeIndex() {
+            Arrays.fill(values, -1);
+        }
+
+        int get(long key) {
+            int mask = keys.length - 1;
+            for (int slot = hash(key) & mask; values[slot] >= 0; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) return values[slot];
+            }
+            return -1;
+        }
+
+        void put(long key, int value) {
+            if ((size + 1) * 2 > keys.length) grow();
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            while (values[slot] >= 0) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = value;
+            size++;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new int[oldValues.length * 2];
+            Arrays.fill(values, -1);
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] >= 0) put(oldKeys[i], oldValues[i]);
+            }
+        }
+
+        private static int hash(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
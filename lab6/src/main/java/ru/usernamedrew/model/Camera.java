@@ -1,5 +1,7 @@
 package ru.usernamedrew.model;
 
+import ru.usernamedrew.util.Matrix4;
+
 public class Camera {
     private Point3D position;
 
@@ -15,6 +17,14 @@ public class Camera {
     private double near = 0.1;
     private double far = 1000.0;
 
+    // Матрицы пересчитываются только после изменения камеры
+    private final Matrix4 viewMatrix = new Matrix4();
+    private final Matrix4 perspectiveMatrix = new Matrix4();
+    private final Matrix4 viewProjectionMatrix = new Matrix4();
+    private boolean viewDirty = true;
+    private boolean perspectiveDirty = true;
+    private boolean viewProjectionDirty = true;
+
     public Camera(Point3D position, double yaw, double pitch) {
         this.position = position;
         this.yaw = yaw;
@@ -32,6 +42,7 @@ public class Camera {
 
     public void setPosition(Point3D position) {
         this.position = position;
+        invalidateView();
     }
 
     public Point3D getUp() {
@@ -40,22 +51,43 @@ public class Camera {
 
     public void setUp(Point3D up) {
         this.up = up;
+        invalidateView();
+    }
+
+    public double getFov() {
+        return fov;
+    }
+
+    public double getAspect() {
+        return aspect;
+    }
+
+    public double getNear() {
+        return near;
+    }
+
+    public double getFar() {
+        return far;
     }
 
     public void setFov(double fov) {
         this.fov = fov;
+        invalidatePerspective();
     }
 
     public void setAspect(double aspect) {
         this.aspect = aspect;
+        invalidatePerspective();
     }
 
     public void setNear(double near) {
         this.near = near;
+        invalidatePerspective();
     }
 
     public void setFar(double far) {
         this.far = far;
+        invalidatePerspective();
     }
 
     public void updateVectors() {
@@ -74,43 +106,76 @@ public class Camera {
         right = direction.cross(worldUp).normalize();
 
         up = right.cross(direction).normalize();
+        invalidateView();
+    }
+
+    // Возвращаемые матрицы общие для всех вызывающих, изменять их нельзя
+    public Matrix4 getViewMatrix() {
+        if (viewDirty) {
+            viewMatrix.set(
+                    right.x(), right.y(), right.z(), -right.dot(position),
+                    up.x(),    up.y(),    up.z(),    -up.dot(position),
+                    -direction.x(), -direction.y(), -direction.z(), direction.dot(position),
+                    0, 0, 0, 1
+            );
+            viewDirty = false;
+        }
+        return viewMatrix;
     }
 
-    public double[][] getViewMatrix() {
-        return new double[][]{
-                { right.x(), right.y(), right.z(), -right.dot(position) },
-                { up.x(),    up.y(),    up.z(),    -up.dot(position) },
-                { -direction.x(), -direction.y(), -direction.z(), direction.dot(position) },
-                { 0, 0, 0, 1 }
-        };
+    public Matrix4 getPerspectiveMatrix() {
+        if (perspectiveDirty) {
+            double f = 1.0 / Math.tan(fov / 2.0);
+            double nf = 1.0 / (near - far);
+
+            perspectiveMatrix.set(
+                    f / aspect, 0, 0, 0,
+                    0, f, 0, 0,
+                    0, 0, (far + near) * nf, -1,
+                    0, 0, (2 * far * near) * nf, 0
+            );
+            perspectiveDirty = false;
+        }
+        return perspectiveMatrix;
+    }
+
+    // Произведение перспективы и вида: мир сразу в пространство отсечения
+    public Matrix4 getViewProjectionMatrix() {
+        if (viewProjectionDirty) {
+            Matrix4.multiply(getPerspectiveMatrix(), getViewMatrix(), viewProjectionMatrix);
+            viewProjectionDirty = false;
+        }
+        return viewProjectionMatrix;
     }
 
-    public double[][] getPerspectiveMatrix() {
-        double f = 1.0 / Math.tan(fov / 2.0);
-        double nf = 1.0 / (near - far);
+    private void invalidateView() {
+        viewDirty = true;
+        viewProjectionDirty = true;
+    }
 
-        return new double[][]{
-                { f / aspect, 0, 0, 0 },
-                { 0, f, 0, 0 },
-                { 0, 0, (far + near) * nf, -1 },
-                { 0, 0, (2 * far * near) * nf, 0 }
-        };
+    private void invalidatePerspective() {
+        perspectiveDirty = true;
+        viewProjectionDirty = true;
     }
 
     public void move(Point3D delta) {
         position = position.add(delta);
+        invalidateView();
     }
 
     public void moveForward(double amount) {
         position = position.add(direction.multiply(amount));
+        invalidateView();
     }
 
     public void moveRight(double amount) {
         position = position.add(right.multiply(amount));
+        invalidateView();
     }
 
     public void moveUp(double amount) {
         position = position.add(up.multiply(amount));
+        invalidateView();
     }
 
     public void rotate(double dyaw, double dpitch) {
@@ -1,46 +1,80 @@
 package ru.usernamedrew.model;
 
 import ru.usernamedrew.util.AffineTransform;
+import ru.usernamedrew.util.Matrix4;
 
 import java.util.ArrayList;
 import java.util.List;
 
 public class Face {
-    private final List<Point3D> vertices;
-    private final List<Integer> verticesIndices;
+    private List<Point3D> vertices;
+    private List<Integer> verticesIndices;
     private Point3D normal; // Добавляем нормаль грани
 
+    // Грань индексированной сетки: списки вершин и индексов создаются при первом обращении,
+    // нормаль хранится в массиве нормалей граней многогранника
+    private final Polyhedron mesh;
+    private final int faceNumber;
+
     public Face() {
         vertices = new ArrayList<>();
         verticesIndices = new ArrayList<>();
+        mesh = null;
+        faceNumber = -1;
     }
 
     public Face(List<Point3D> vertices) {
         this.vertices = vertices;
         verticesIndices = new ArrayList<>();
+        mesh = null;
+        faceNumber = -1;
         computeRawNormal(); // Вычисляем нормаль при создании
     }
 
+    // Грань индексированной сетки: вершины и индексы - представления над буферами многогранника
+    Face(Polyhedron mesh, int faceNumber) {
+        this.mesh = mesh;
+        this.faceNumber = faceNumber;
+    }
+
     public List<Point3D> getVertices() {
+        if (vertices == null) {
+            vertices = mesh.faceVertices(faceNumber);
+        }
         return vertices;
     }
 
     public List<Integer> getVerticesIndices() {
+        if (verticesIndices == null) {
+            verticesIndices = mesh.faceVertexIndices(faceNumber);
+        }
         return verticesIndices;
     }
 
     public Point3D getNormal() {
-        return normal;
+        return (mesh != null) ? mesh.getFaceNormal(faceNumber) : normal;
+    }
+
+    void setNormal(Point3D normal) {
+        if (mesh != null) {
+            mesh.setFaceNormal(faceNumber, normal.x(), normal.y(), normal.z());
+        } else {
+            this.normal = normal;
+        }
     }
 
     public void addVertex(Point3D vertex) {
-        vertices.add(vertex);
+        getVertices().add(vertex);
         if (vertices.size() >= 3) {
             computeRawNormal(); // Пересчитываем нормаль при добавлении вершин
         }
     }
 
     public void computeRawNormal() {
+        if (mesh != null) {
+            mesh.computeFaceNormal(faceNumber);
+            return;
+        }
         if (vertices.size() < 3) {
             normal = new Point3D(0, 0, 1);
             return;
@@ -72,16 +106,17 @@ public class Face {
     }
 
     public void addVertexIndice(int vertexIndex) {
-        verticesIndices.add(vertexIndex);
+        getVerticesIndices().add(vertexIndex);
     }
 
     // Вычисление нормали грани
     public void orientNormal(Point3D objectCenter) {
-        if (normal == null) {
+        if (getNormal() == null) {
             computeRawNormal(); // На всякий случай
         }
+        Point3D normal = getNormal();
 
-        Point3D faceCenter = AffineTransform.getCenter(vertices);
+        Point3D faceCenter = AffineTransform.getCenter(getVertices());
 
         Point3D centerToFace = faceCenter.subtract(objectCenter);
 
@@ -89,7 +124,7 @@ public class Face {
         double dot = normal.dot(centerToFace);
 
         if (dot < 0) {
-            normal = new Point3D(-normal.x(), -normal.y(), -normal.z());
+            setNormal(new Point3D(-normal.x(), -normal.y(), -normal.z()));
         }
     }
 
@@ -97,20 +132,21 @@ public class Face {
     public Face copy() {
         Face face = new Face();
 
-        face.vertices.addAll(vertices);
-        face.verticesIndices.addAll(verticesIndices);
-        face.normal = normal; // Копируем нормаль
+        face.vertices.addAll(getVertices());
+        face.verticesIndices.addAll(getVerticesIndices());
+        face.normal = getNormal(); // Копируем нормаль
 
         return face;
     }
 
-    public Face transform(double[][] matrix) {
-        Face face = new Face();
-
-        for (Point3D vertex : vertices) {
-            face.addVertex(vertex.transform(matrix));
+    public Face transform(Matrix4 matrix) {
+        // Вершины собираются заранее, чтобы нормаль считалась один раз, а не на каждой добавленной вершине
+        List<Point3D> transformed = new ArrayList<>(getVertices().size());
+        for (Point3D vertex : getVertices()) {
+            transformed.add(vertex.transform(matrix));
         }
-        face.verticesIndices.addAll(verticesIndices);
+        Face face = new Face(transformed);
+        face.verticesIndices.addAll(getVerticesIndices());
 
         return face;
     }
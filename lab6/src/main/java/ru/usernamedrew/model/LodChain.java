@@ -0,0 +1,164 @@
+package ru.usernamedrew.model;
+
+import ru.usernamedrew.util.Matrix4;
+import ru.usernamedrew.util.ProjectionTransformer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Цепочка уровней детализации многогранника: уровень 0 - сам многогранник, каждый следующий -
+// упрощение по квадрикам примерно вдвое меньше треугольников, пока их больше MIN_TRIANGLES.
+// У уровня есть оценка отклонения от исходной поверхности; на кадр выбирается самый грубый уровень,
+// чье отклонение на экране не больше tolerance пикселей. К более грубому уровню переход происходит только
+// с запасом HYSTERESIS, поэтому объект на границе двух уровней не переключается каждый кадр
+public class LodChain {
+    private static final int MIN_TRIANGLES = 32;
+    private static final double HYSTERESIS = 0.7;
+    // Оценка отклонения - среднеквадратичная, наибольшее обычно в 2-3 раза больше
+    public static final double DEFAULT_TOLERANCE = 0.5;
+
+    // Цепочки строятся по одной в фоновом потоке-демоне: поток интерфейса не ждет упрощения
+    private static final ExecutorService BUILDER = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "lod-builder");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    private final Polyhedron[] levels; // levels[0] не используется: это сам многогранник
+    // Свои виды уровней у каждой копии цепочки: матрица модели и цвет ставятся на вид, а не на общий уровень
+    private final Polyhedron[] views;
+    private final double[] errors;     // отклонение уровня в локальных координатах
+    private final int[] triangleCounts;
+    private final double centerX, centerY, centerZ, radius; // ограничивающий шар в локальных координатах
+    private double tolerance = DEFAULT_TOLERANCE;
+    private int current;
+
+    private LodChain(Polyhedron[] levels, double[] errors, int[] triangleCounts,
+                     double centerX, double centerY, double centerZ, double radius) {
+        this.levels = levels;
+        this.views = new Polyhedron[levels.length];
+        this.errors = errors;
+        this.triangleCounts = triangleCounts;
+        this.centerX = centerX;
+        this.centerY = centerY;
+        this.centerZ = centerZ;
+        this.radius = radius;
+    }
+
+    // Все уровни строятся одним проходом упрощения: очередной уровень - снимок сетки
+    // после того, как число треугольников упало вдвое
+    public static LodChain build(Polyhedron mesh) {
+        List<Polyhedron> levels = new ArrayList<>();
+        List<Double> errors = new ArrayList<>();
+        levels.add(null);
+        errors.add(0.0);
+
+        MeshSimplifier simplifier = new MeshSimplifier(mesh);
+        List<Integer> triangleCounts = new ArrayList<>();
+        triangleCounts.add(simplifier.getTriangleCount());
+        int previous = simplifier.getTriangleCount();
+        while (previous > MIN_TRIANGLES) {
+            simplifier.simplifyTo(Math.max(previous / 2, MIN_TRIANGLES));
+            int count = simplifier.getTriangleCount();
+            // Дальше упрощать нельзя - последний уровень почти не отличается от предыдущего
+            if (count > previous * 3 / 4) break;
+
+            Polyhedron level = simplifier.toPolyhedron();
+            level.getFaceBvh(); // иерархия строится здесь же, в фоне, и достается видам уровня
+            levels.add(level);
+            errors.add(simplifier.getError());
+            triangleCounts.add(count);
+            previous = count;
+        }
+
+        double[] bounds = new double[6];
+        if (mesh.getFaceCount() > 0) {
+            mesh.getFaceBvh().getBounds(bounds, 0);
+        }
+        double dx = bounds[3] - bounds[0], dy = bounds[4] - bounds[1], dz = bounds[5] - bounds[2];
+        return new LodChain(levels.toArray(new Polyhedron[0]),
+                errors.stream().mapToDouble(Double::doubleValue).toArray(),
+                triangleCounts.stream().mapToInt(Integer::intValue).toArray(),
+                (bounds[0] + bounds[3]) / 2, (bounds[1] + bounds[4]) / 2, (bounds[2] + bounds[5]) / 2,
+                Math.sqrt(dx * dx + dy * dy + dz * dz) / 2);
+    }
+
+    // Построение в фоновом потоке; mesh не должен меняться, пока оно идет
+    public static CompletableFuture<LodChain> buildAsync(Polyhedron mesh) {
+        return CompletableFuture.supplyAsync(() -> build(mesh), BUILDER);
+    }
+
+    // Те же уровни со своим выбором уровня - для копии многогранника
+    LodChain copy() {
+        LodChain chain = new LodChain(levels, errors, triangleCounts, centerX, centerY, centerZ, radius);
+        chain.tolerance = tolerance;
+        return chain;
+    }
+
+    public int getLevelCount() {
+        return levels.length;
+    }
+
+    public int getTriangleCount(int level) {
+        return triangleCounts[level];
+    }
+
+    public double getError(int level) {
+        return errors[level];
+    }
+
+    public int getCurrentLevel() {
+        return current;
+    }
+
+    public void setTolerance(double tolerance) {
+        if (!(tolerance > 0)) {
+            throw new IllegalArgumentException("Tolerance must be positive: " + tolerance);
+        }
+        this.tolerance = tolerance;
+    }
+
+    // Уровень для кадра: base - многогранник, которому принадлежит цепочка. Возвращается вид уровня этой
+    // цепочки с матрицей модели и цветом base; его нельзя изменять - массивы вершин и граней общие
+    public Polyhedron select(Polyhedron base, ProjectionTransformer projector) {
+        if (levels.length == 1) return base;
+
+        Matrix4 model = base.getModelMatrix();
+        double pixelsPerUnit;
+        if (!base.hasModelTransform()) {
+            pixelsPerUnit = projector.pixelsPerUnit(new Point3D(centerX, centerY, centerZ), radius);
+        } else if (model.isAffine()) {
+            // Наибольшее растяжение матрицы модели - по длинам столбцов
+            double stretch = 0;
+            for (int j = 0; j < 3; j++) {
+                double x = model.get(0, j), y = model.get(1, j), z = model.get(2, j);
+                stretch = Math.max(stretch, Math.sqrt(x * x + y * y + z * z));
+            }
+            Point3D center = model.transform(new Point3D(centerX, centerY, centerZ));
+            pixelsPerUnit = projector.pixelsPerUnit(center, radius * stretch) * stretch;
+        } else {
+            pixelsPerUnit = Double.POSITIVE_INFINITY;
+        }
+
+        while (current > 0 && !(errors[current] * pixelsPerUnit <= tolerance)) {
+            current--;
+        }
+        while (current + 1 < levels.length && errors[current + 1] * pixelsPerUnit <= tolerance * HYSTERESIS) {
+            current++;
+        }
+        if (current == 0) return base;
+
+        Polyhedron view = views[current];
+        if (view == null) {
+            view = levels[current].sharedView();
+            views[current] = view;
+        }
+        view.setModelMatrix(model);
+        view.setColor(base.getColor());
+        return view;
+    }
+}
@@ -0,0 +1,476 @@
+package ru.usernamedrew.model;
+
+import java.util.Arrays;
+
+// Упрощение сетки стягиванием ребер по квадрикам ошибки (Гарланд - Хекберт).
+// Грани разбиваются веером на треугольники; у каждой вершины копится квадрика - сумма квадратов расстояний
+// до плоскостей смежных треугольников с весом по площади. Ребро стягивается в точку с наименьшей ошибкой,
+// ребра берутся из кучи по возрастанию ошибки. Края открытой сетки удерживаются плоскостями вдоль ребер
+// края с большим весом; стягивание, после которого перевернулся бы треугольник или сетка стала бы
+// немногообразной, пропускается. Упрощать можно последовательно до все меньшего числа треугольников
+public class MeshSimplifier {
+    // Вес плоскостей края относительно плоскостей треугольников
+    private static final double BOUNDARY_WEIGHT = 1000;
+    // Наименьший косинус угла между нормалью треугольника до и после стягивания
+    private static final double MIN_NORMAL_COSINE = 0.2;
+
+    private final double[] positions;
+    private final double[] quadrics; // по 10 чисел на вершину: aa, ab, ac, ad, bb, bc, bd, cc, cd, dd
+    private final double[] weights;  // суммарный вес плоскостей вершины
+    private final boolean[] removed;
+    private final int[] stamps;      // растет при каждом изменении вершины: записи кучи со старым значением устарели
+    private final int vertexCount;
+
+    private final int[] triangles;
+    private final boolean[] dead;
+    private int liveTriangles;
+
+    // Треугольники вершины; мертвые вычищаются при обходе
+    private final int[][] vertexTriangles;
+    private final int[] vertexTriangleCounts;
+
+    // Куча ребер по возрастанию ошибки
+    private double[] heapCosts = new double[64];
+    private int[] heapEdges = new int[64 * 4]; // u, v и их stamps на момент добавления
+    private int heapSize;
+
+    private final int[] marks;
+    private int markStamp;
+    private int[] neighbours = new int[32];
+
+    // Результат последнего computeCollapse
+    private double collapseX, collapseY, collapseZ, collapseCost;
+    private double error;
+
+    MeshSimplifier(Polyhedron mesh) {
+        vertexCount = mesh.getVertexCount();
+        positions = Arrays.copyOf(mesh.getPositions(), vertexCount * 3);
+        quadrics = new double[vertexCount * 10];
+        weights = new double[vertexCount];
+        removed = new boolean[vertexCount];
+        stamps = new int[vertexCount];
+        marks = new int[vertexCount];
+
+        // Веер треугольников от первой вершины грани, как при растеризации
+        int[] faceIndices = mesh.getFaceIndices();
+        int[] faceOffsets = mesh.getFaceOffsets();
+        int triangleCount = 0;
+        for (int f = 0; f < mesh.getFaceCount(); f++) {
+            triangleCount += Math.max(0, faceOffsets[f + 1] - faceOffsets[f] - 2);
+        }
+        int[] fan = new int[triangleCount * 3];
+        int t = 0;
+        for (int f = 0; f < mesh.getFaceCount(); f++) {
+            int first = faceIndices[faceOffsets[f]];
+            for (int k = faceOffsets[f] + 1; k + 1 < faceOffsets[f + 1]; k++) {
+                int b = faceIndices[k], c = faceIndices[k + 1];
+                if (first == b || b == c || c == first) continue;
+                fan[t * 3] = first;
+                fan[t * 3 + 1] = b;
+                fan[t * 3 + 2] = c;
+                t++;
+            }
+        }
+        triangles = Arrays.copyOf(fan, t * 3);
+        dead = new boolean[t];
+        liveTriangles = t;
+
+        vertexTriangleCounts = new int[vertexCount];
+        for (int corner : triangles) {
+            vertexTriangleCounts[corner]++;
+        }
+        vertexTriangles = new int[vertexCount][];
+        for (int v = 0; v < vertexCount; v++) {
+            vertexTriangles[v] = new int[Math.max(4, vertexTriangleCounts[v])];
+            vertexTriangleCounts[v] = 0;
+        }
+        for (int i = 0; i < t; i++) {
+            for (int k = 0; k < 3; k++) {
+                int v = triangles[i * 3 + k];
+                vertexTriangles[v][vertexTriangleCounts[v]++] = i;
+            }
+        }
+
+        for (int i = 0; i < t; i++) {
+            addTrianglePlane(i);
+        }
+
+        // Ребра - отсортированные ключи (меньший номер << 32 | больший); ребро края встречается один раз
+        long[] edges = new long[t * 3];
+        for (int i = 0; i < t; i++) {
+            for (int k = 0; k < 3; k++) {
+                edges[i * 3 + k] = edgeKey(triangles[i * 3 + k], triangles[i * 3 + (k + 1) % 3]);
+            }
+        }
+        long[] sorted = edges.clone();
+        Arrays.sort(sorted);
+        for (int i = 0; i < edges.length; i++) {
+            if (countKey(sorted, edges[i]) == 1) {
+                addBoundaryPlane(i / 3, i % 3);
+            }
+        }
+        for (int i = 0; i < sorted.length; i++) {
+            if (i > 0 && sorted[i] == sorted[i - 1]) continue;
+            pushEdge((int) (sorted[i] >>> 32), (int) sorted[i]);
+        }
+    }
+
+    // Копия mesh примерно из targetTriangles треугольников (меньше не бывает; больше - если дальше
+    // упрощать нельзя без переворота треугольников или разрыва края)
+    public static Polyhedron simplify(Polyhedron mesh, int targetTriangles) {
+        if (targetTriangles < 1) {
+            throw new IllegalArgumentException("Target triangle count must be positive: " + targetTriangles);
+        }
+
+        MeshSimplifier simplifier = new MeshSimplifier(mesh);
+        simplifier.simplifyTo(targetTriangles);
+        Polyhedron result = simplifier.toPolyhedron();
+        result.setColor(mesh.getColor());
+        result.setModelMatrix(mesh.getModelMatrix());
+        return result;
+    }
+
+    int getTriangleCount() {
+        return liveTriangles;
+    }
+
+    // Наибольшее среднеквадратичное (по весам плоскостей) отклонение среди выполненных стягиваний
+    double getError() {
+        return error;
+    }
+
+    void simplifyTo(int targetTriangles) {
+        while (liveTriangles > targetTriangles && heapSize > 0) {
+            int u = heapEdges[0], v = heapEdges[1], stampU = heapEdges[2], stampV = heapEdges[3];
+            popEdge();
+            if (removed[u] || removed[v] || stamps[u] != stampU || stamps[v] != stampV) continue;
+
+            computeCollapse(u, v);
+            if (!canCollapse(u, v, collapseX, collapseY, collapseZ)) continue;
+
+            error = Math.max(error, Math.sqrt(Math.max(0, collapseCost) / Math.max(weights[u] + weights[v], Double.MIN_NORMAL)));
+            collapse(u, v, collapseX, collapseY, collapseZ);
+        }
+    }
+
+    // Сетка из живых треугольников и вершин, на которые они ссылаются
+    Polyhedron toPolyhedron() {
+        // Номера оставшихся вершин растут в том же порядке, что и в исходной сетке
+        int[] remap = new int[vertexCount];
+        Arrays.fill(remap, -1);
+        for (int t = 0; t < dead.length; t++) {
+            if (dead[t]) continue;
+            for (int k = 0; k < 3; k++) {
+                remap[triangles[t * 3 + k]] = 0;
+            }
+        }
+        int count = 0;
+        for (int v = 0; v < vertexCount; v++) {
+            if (remap[v] >= 0) remap[v] = count++;
+        }
+
+        double[] compact = new double[count * 3];
+        for (int v = 0; v < vertexCount; v++) {
+            if (remap[v] >= 0) System.arraycopy(positions, v * 3, compact, remap[v] * 3, 3);
+        }
+        int[] faceIndices = new int[liveTriangles * 3];
+        int[] faceOffsets = new int[liveTriangles + 1];
+        int faceCount = 0;
+        for (int t = 0; t < dead.length; t++) {
+            if (dead[t]) continue;
+            for (int k = 0; k < 3; k++) {
+                faceIndices[faceCount * 3 + k] = remap[triangles[t * 3 + k]];
+            }
+            faceCount++;
+            faceOffsets[faceCount] = faceCount * 3;
+        }
+
+        Polyhedron result = Polyhedron.fromIndexedMesh(compact, null, count, faceIndices, faceOffsets, faceCount);
+        result.computeVertexNormals();
+        return result;
+    }
+
+    private void addTrianglePlane(int t) {
+        int a = triangles[t * 3] * 3, b = triangles[t * 3 + 1] * 3, c = triangles[t * 3 + 2] * 3;
+        double e1x = positions[b] - positions[a], e1y = positions[b + 1] - positions[a + 1], e1z = positions[b + 2] - positions[a + 2];
+        double e2x = positions[c] - positions[a], e2y = positions[c + 1] - positions[a + 1], e2z = positions[c + 2] - positions[a + 2];
+        double nx = e1y * e2z - e1z * e2y, ny = e1z * e2x - e1x * e2z, nz = e1x * e2y - e1y * e2x;
+        double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+        if (length == 0) return;
+
+        nx /= length;
+        ny /= length;
+        nz /= length;
+        double d = -(nx * positions[a] + ny * positions[a + 1] + nz * positions[a + 2]);
+        double area = length / 2;
+        for (int k = 0; k < 3; k++) {
+            addPlane(triangles[t * 3 + k], nx, ny, nz, d, area);
+        }
+    }
+
+    // Плоскость через ребро края перпендикулярно треугольнику: не дает краю уходить в сторону
+    private void addBoundaryPlane(int t, int k) {
+        int a = triangles[t * 3 + k], b = triangles[t * 3 + (k + 1) % 3], c = triangles[t * 3 + (k + 2) % 3];
+        int a3 = a * 3, b3 = b * 3, c3 = c * 3;
+        double ex = positions[b3] - positions[a3], ey = positions[b3 + 1] - positions[a3 + 1], ez = positions[b3 + 2] - positions[a3 + 2];
+        double fx = positions[c3] - positions[a3], fy = positions[c3 + 1] - positions[a3 + 1], fz = positions[c3 + 2] - positions[a3 + 2];
+        double tx = ey * fz - ez * fy, ty = ez * fx - ex * fz, tz = ex * fy - ey * fx; // нормаль треугольника
+        double nx = ey * tz - ez * ty, ny = ez * tx - ex * tz, nz = ex * ty - ey * tx;
+        double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+        if (length == 0) return;
+
+        nx /= length;
+        ny /= length;
+        nz /= length;
+        double d = -(nx * positions[a3] + ny * positions[a3 + 1] + nz * positions[a3 + 2]);
+        double weight = BOUNDARY_WEIGHT * (ex * ex + ey * ey + ez * ez);
+        addPlane(a, nx, ny, nz, d, weight);
+        addPlane(b, nx, ny, nz, d, weight);
+    }
+
+    private void addPlane(int v, double a, double b, double c, double d, double weight) {
+        int q = v * 10;
+        quadrics[q] += weight * a * a;
+        quadrics[q + 1] += weight * a * b;
+        quadrics[q + 2] += weight * a * c;
+        quadrics[q + 3] += weight * a * d;
+        quadrics[q + 4] += weight * b * b;
+        quadrics[q + 5] += weight * b * c;
+        quadrics[q + 6] += weight * b * d;
+        quadrics[q + 7] += weight * c * c;
+        quadrics[q + 8] += weight * c * d;
+        quadrics[q + 9] += weight * d * d;
+        weights[v] += weight;
+    }
+
+    // Точка с наименьшей ошибкой суммы квадрик u и v: решение 3x3, а при вырожденной системе -
+    // лучшая из концов ребра и его середины
+    private void computeCollapse(int u, int v) {
+        int qu = u * 10, qv = v * 10;
+        double aa = quadrics[qu] + quadrics[qv], ab = quadrics[qu + 1] + quadrics[qv + 1];
+        double ac = quadrics[qu + 2] + quadrics[qv + 2], ad = quadrics[qu + 3] + quadrics[qv + 3];
+        double bb = quadrics[qu + 4] + quadrics[qv + 4], bc = quadrics[qu + 5] + quadrics[qv + 5];
+        double bd = quadrics[qu + 6] + quadrics[qv + 6], cc = quadrics[qu + 7] + quadrics[qv + 7];
+        double cd = quadrics[qu + 8] + quadrics[qv + 8], dd = quadrics[qu + 9] + quadrics[qv + 9];
+
+        double c00 = bb * cc - bc * bc, c01 = ac * bc - ab * cc, c02 = ab * bc - ac * bb;
+        double det = aa * c00 + ab * c01 + ac * c02;
+        double trace = aa + bb + cc;
+        if (Math.abs(det) > 1e-10 * trace * trace * trace) {
+            double c11 = aa * cc - ac * ac, c12 = ab * ac - aa * bc, c22 = aa * bb - ab * ab;
+            collapseX = -(c00 * ad + c01 * bd + c02 * cd) / det;
+            collapseY = -(c01 * ad + c11 * bd + c12 * cd) / det;
+            collapseZ = -(c02 * ad + c12 * bd + c22 * cd) / det;
+            collapseCost = cost(aa, ab, ac, ad, bb, bc, bd, cc, cd, dd, collapseX, collapseY, collapseZ);
+            return;
+        }
+
+        int u3 = u * 3, v3 = v * 3;
+        collapseCost = Double.POSITIVE_INFINITY;
+        for (int k = 0; k < 3; k++) {
+            double s = k * 0.5;
+            double x = positions[u3] + (positions[v3] - positions[u3]) * s;
+            double y = positions[u3 + 1] + (positions[v3 + 1] - positions[u3 + 1]) * s;
+            double z = positions[u3 + 2] + (positions[v3 + 2] - positions[u3 + 2]) * s;
+            double cost = cost(aa, ab, ac, ad, bb, bc, bd, cc, cd, dd, x, y, z);
+            if (cost < collapseCost) {
+                collapseCost = cost;
+                collapseX = x;
+                collapseY = y;
+                collapseZ = z;
+            }
+        }
+    }
+
+    private static double cost(double aa, double ab, double ac, double ad, double bb, double bc, double bd,
+                               double cc, double cd, double dd, double x, double y, double z) {
+        return aa * x * x + 2 * ab * x * y + 2 * ac * x * z + 2 * ad * x
+                + bb * y * y + 2 * bc * y * z + 2 * bd * y
+                + cc * z * z + 2 * cd * z + dd;
+    }
+
+    // Общих соседей у концов ребра должно быть столько же, сколько треугольников на ребре (иначе сетка
+    // после стягивания склеится сама с собой), и ни один оставшийся треугольник не должен перевернуться
+    private boolean canCollapse(int u, int v, double x, double y, double z) {
+        markStamp++;
+        int shared = 0;
+        for (int i = 0; i < vertexTriangleCounts[u]; i++) {
+            int t = vertexTriangles[u][i];
+            if (dead[t]) continue;
+            for (int k = 0; k < 3; k++) {
+                marks[triangles[t * 3 + k]] = markStamp;
+            }
+            if (contains(t, v)) shared++;
+        }
+        if (shared == 0) return false;
+
+        int common = 0;
+        int commonStamp = ++markStamp;
+        for (int i = 0; i < vertexTriangleCounts[v]; i++) {
+            int t = vertexTriangles[v][i];
+            if (dead[t]) continue;
+            for (int k = 0; k < 3; k++) {
+                int w = triangles[t * 3 + k];
+                if (w == u || w == v) continue;
+                if (marks[w] == commonStamp - 1) {
+                    marks[w] = commonStamp;
+                    common++;
+                }
+            }
+        }
+        if (common != shared) return false;
+
+        return keepsOrientation(u, v, x, y, z) && keepsOrientation(v, u, x, y, z);
+    }
+
+    // Треугольники moved без other после переноса moved в (x, y, z)
+    private boolean keepsOrientation(int moved, int other, double x, double y, double z) {
+        for (int i = 0; i < vertexTriangleCounts[moved]; i++) {
+            int t = vertexTriangles[moved][i];
+            if (dead[t] || contains(t, other)) continue;
+
+            int k = triangles[t * 3] == moved ? 0 : triangles[t * 3 + 1] == moved ? 1 : 2;
+            int a = triangles[t * 3] * 3, b = triangles[t * 3 + 1] * 3, c = triangles[t * 3 + 2] * 3;
+            double ax = positions[a], ay = positions[a + 1], az = positions[a + 2];
+            double bx = positions[b], by = positions[b + 1], bz = positions[b + 2];
+            double cx = positions[c], cy = positions[c + 1], cz = positions[c + 2];
+            double ox = (by - ay) * (cz - az) - (bz - az) * (cy - ay);
+            double oy = (bz - az) * (cx - ax) - (bx - ax) * (cz - az);
+            double oz = (bx - ax) * (cy - ay) - (by - ay) * (cx - ax);
+            if (k == 0) { ax = x; ay = y; az = z; }
+            else if (k == 1) { bx = x; by = y; bz = z; }
+            else { cx = x; cy = y; cz = z; }
+            double nx = (by - ay) * (cz - az) - (bz - az) * (cy - ay);
+            double ny = (bz - az) * (cx - ax) - (bx - ax) * (cz - az);
+            double nz = (bx - ax) * (cy - ay) - (by - ay) * (cx - ax);
+
+            double dot = ox * nx + oy * ny + oz * nz;
+            double lengths = Math.sqrt((ox * ox + oy * oy + oz * oz) * (nx * nx + ny * ny + nz * nz));
+            if (lengths == 0 || dot < MIN_NORMAL_COSINE * lengths) return false;
+        }
+        return true;
+    }
+
+    // v стягивается в u, u переносится в (x, y, z); треугольники на ребре исчезают
+    private void collapse(int u, int v, double x, double y, double z) {
+        positions[u * 3] = x;
+        positions[u * 3 + 1] = y;
+        positions[u * 3 + 2] = z;
+        for (int i = 0; i < 10; i++) {
+            quadrics[u * 10 + i] += quadrics[v * 10 + i];
+        }
+        weights[u] += weights[v];
+        removed[v] = true;
+        stamps[u]++;
+
+        for (int i = 0; i < vertexTriangleCounts[v]; i++) {
+            int t = vertexTriangles[v][i];
+            if (dead[t]) continue;
+            if (contains(t, u)) {
+                dead[t] = true;
+                liveTriangles--;
+                continue;
+            }
+            for (int k = 0; k < 3; k++) {
+                if (triangles[t * 3 + k] == v) triangles[t * 3 + k] = u;
+            }
+            addVertexTriangle(u, t);
+        }
+        vertexTriangles[v] = null;
+        vertexTriangleCounts[v] = 0;
+
+        // Вычистка мертвых треугольников u и новые ребра ко всем соседям
+        int[] list = vertexTriangles[u];
+        int count = 0, neighbourCount = 0;
+        markStamp++;
+        for (int i = 0; i < vertexTriangleCounts[u]; i++) {
+            int t = list[i];
+            if (dead[t]) continue;
+            list[count++] = t;
+            for (int k = 0; k < 3; k++) {
+                int w = triangles[t * 3 + k];
+                if (w == u || marks[w] == markStamp) continue;
+                marks[w] = markStamp;
+                if (neighbourCount == neighbours.length) neighbours = Arrays.copyOf(neighbours, neighbourCount * 2);
+                neighbours[neighbourCount++] = w;
+            }
+        }
+        vertexTriangleCounts[u] = count;
+        for (int i = 0; i < neighbourCount; i++) {
+            pushEdge(u, neighbours[i]);
+        }
+    }
+
+    private void addVertexTriangle(int v, int t) {
+        if (vertexTriangleCounts[v] == vertexTriangles[v].length) {
+            vertexTriangles[v] = Arrays.copyOf(vertexTriangles[v], vertexTriangleCounts[v] * 2);
+        }
+        vertexTriangles[v][vertexTriangleCounts[v]++] = t;
+    }
+
+    private boolean contains(int t, int v) {
+        return triangles[t * 3] == v || triangles[t * 3 + 1] == v || triangles[t * 3 + 2] == v;
+    }
+
+    private void pushEdge(int u, int v) {
+        computeCollapse(u, v);
+        if (heapSize == heapCosts.length) {
+            heapCosts = Arrays.copyOf(heapCosts, heapSize * 2);
+            heapEdges = Arrays.copyOf(heapEdges, heapSize * 8);
+        }
+
+        // Просеивание вверх
+        int i = heapSize++;
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (heapCosts[parent] <= collapseCost) break;
+            moveHeapEntry(parent, i);
+            i = parent;
+        }
+        heapCosts[i] = collapseCost;
+        heapEdges[i * 4] = u;
+        heapEdges[i * 4 + 1] = v;
+        heapEdges[i * 4 + 2] = stamps[u];
+        heapEdges[i * 4 + 3] = stamps[v];
+    }
+
+    private void popEdge() {
+        int last = --heapSize;
+        double cost = heapCosts[last];
+        int u = heapEdges[last * 4], v = heapEdges[last * 4 + 1];
+        int stampU = heapEdges[last * 4 + 2], stampV = heapEdges[last * 4 + 3];
+
+        // Просеивание вниз последнего элемента с вершины
+        int i = 0;
+        while (true) {
+            int child = i * 2 + 1;
+            if (child >= heapSize) break;
+            if (child + 1 < heapSize && heapCosts[child + 1] < heapCosts[child]) child++;
+            if (heapCosts[child] >= cost) break;
+            moveHeapEntry(child, i);
+            i = child;
+        }
+        heapCosts[i] = cost;
+        heapEdges[i * 4] = u;
+        heapEdges[i * 4 + 1] = v;
+        heapEdges[i * 4 + 2] = stampU;
+        heapEdges[i * 4 + 3] = stampV;
+    }
+
+    private void moveHeapEntry(int from, int to) {
+        heapCosts[to] = heapCosts[from];
+        System.arraycopy(heapEdges, from * 4, heapEdges, to * 4, 4);
+    }
+
+    private static long edgeKey(int a, int b) {
+        return (long) Math.min(a, b) << 32 | Math.max(a, b);
+    }
+
+    private static int countKey(long[] sorted, long key) {
+        int from = Arrays.binarySearch(sorted, key);
+        int to = from;
+        while (from > 0 && sorted[from - 1] == key) from--;
+        while (to + 1 < sorted.length && sorted[to + 1] == key) to++;
+        return to - from + 1;
+    }
+}
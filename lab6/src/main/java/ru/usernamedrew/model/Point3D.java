@@ -1,5 +1,7 @@
 package ru.usernamedrew.model;
 
+import ru.usernamedrew.util.Matrix4;
+
 public record Point3D(double x, double y, double z) {
     private static final double EPSILON = 1e-9;
 
@@ -21,6 +23,10 @@ public record Point3D(double x, double y, double z) {
         return new Point3D(xNew, yNew, zNew);
     }
 
+    public Point3D transform(Matrix4 matrix) {
+        return matrix.transform(this);
+    }
+
     public Point3D reflect(Point3D normal) {
         double dot = this.dot(normal);
         return this.subtract(normal.multiply(2 * dot));
@@ -1,154 +1,804 @@
 package ru.usernamedrew.model;
 
-import ru.usernamedrew.util.AffineTransform;
+import ru.usernamedrew.util.FaceBvh;
+import ru.usernamedrew.util.Matrix4;
 
 import java.awt.Color;
-import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
 
+// Многогранник хранится как индексированная сетка в упакованных массивах:
+// координаты и нормали вершин подряд (x, y, z), индексы вершин всех граней в одном буфере,
+// грань f занимает в нем диапазон [faceOffsets[f], faceOffsets[f + 1]).
+// getVertices(), getVertexNormals() и getFaces() - представления над этими массивами;
+// объект Face создается только при обращении к грани через getFaces()
 public class Polyhedron {
-    private final List<Face> faces;
-    private final List<Point3D> vertices;
-    private final List<Point3D> vertexNormals;
+    private static final int INITIAL_CAPACITY = 16;
+    // С какого числа углов граней нормали вершин по умолчанию считаются параллельно
+    private static final int PARALLEL_THRESHOLD = 1 << 16;
+
+    // Вес нормали грани при накоплении нормали вершины
+    public enum NormalWeighting {
+        UNIFORM, // все грани одинаково
+        AREA,    // пропорционально площади грани
+        ANGLE    // пропорционально углу грани при вершине
+    }
+
+    private double[] positions;
+    private double[] normals;
+    private int vertexCount;
+
+    private int[] faceIndices;
+    private int[] faceOffsets;
+    private int faceCount;
+    // Нормали граней (x, y, z) подряд. NaN - нормаль еще не вычислена: она считается по первым трем вершинам
+    // при первом обращении, а перед изменением вершин вычисляются все отложенные
+    private double[] faceNormals;
+
     private Color color;
 
+    // Матрица модели: накопленные преобразования, еще не примененные к вершинам.
+    // Вершины и нормали хранятся в локальных координатах, отрисовка применяет матрицу сама
+    private final Matrix4 modelMatrix = new Matrix4();
+    private boolean identityModel = true;
+
+    // Нормали вершин заданы при построении (например, аналитически): recalculateNormals их не пересчитывает.
+    // Сбрасывается при изменении вершин и явном computeVertexNormals
+    private boolean fixedVertexNormals;
+
+    // Индекс первой вершины с данными координатами; строится лениво
+    private Map<Point3D, Integer> vertexIndex;
+
+    // Смежность вершина -> углы граней в формате CSR: углы вершины v (позиции в faceIndices)
+    // лежат в vertexCorners[vertexCornerOffsets[v] .. vertexCornerOffsets[v + 1]), cornerFaces - грань угла.
+    // Строится лениво, сбрасывается при изменении топологии
+    private int[] vertexCornerOffsets;
+    private int[] vertexCorners;
+    private int[] cornerFaces;
+
+    // Иерархия параллелепипедов граней в локальных координатах; строится лениво, сбрасывается при изменении вершин и граней
+    private FaceBvh faceBvh;
+    // Уровни детализации; строятся в фоне по запросу, сбрасываются вместе с faceBvh
+    private CompletableFuture<LodChain> lodChain;
+    // Растет при каждом изменении вершин, граней или матрицы модели - по нему сцена узнает, что объект сдвинулся
+    private int version;
+
+    private final List<Point3D> vertexView = new VertexList();
+    private final List<Point3D> normalView = new NormalList();
+    private final List<Face> faceView = new FaceList();
+
     public Polyhedron() {
-        faces = new ArrayList<>();
-        vertices = new ArrayList<>();
-        vertexNormals = new ArrayList<>();
+        positions = new double[INITIAL_CAPACITY * 3];
+        normals = new double[INITIAL_CAPACITY * 3];
+        faceIndices = new int[INITIAL_CAPACITY * 4];
+        faceOffsets = new int[INITIAL_CAPACITY + 1];
+        faceNormals = new double[INITIAL_CAPACITY * 3];
         color = Color.WHITE;
     }
 
     public Polyhedron(List<Face> faces, List<Point3D> vertices) {
-        this.faces = faces;
-        this.vertices = vertices;
-        this.vertexNormals = new ArrayList<>();
-        this.color = Color.WHITE;
+        this();
+        for (Point3D vertex : vertices) {
+            addVertex(vertex);
+        }
+        for (Face face : faces) {
+            addFace(face);
+        }
         computeVertexNormals();
     }
 
+    // Многогранник поверх готовых упакованных массивов, без копирования: массивы переходят во владение сетки.
+    // Нормали граней вычисляются по вершинам, нормали вершин берутся из normals (null - нулевые)
+    public static Polyhedron fromIndexedMesh(double[] positions, double[] normals, int vertexCount,
+                                             int[] faceIndices, int[] faceOffsets, int faceCount) {
+        for (int k = faceOffsets[0]; k < faceOffsets[faceCount]; k++) {
+            if (faceIndices[k] < 0 || faceIndices[k] >= vertexCount) {
+                throw new IndexOutOfBoundsException("Vertex index " + faceIndices[k] + " out of range [0, " + vertexCount + ")");
+            }
+        }
+
+        Polyhedron polyhedron = new Polyhedron();
+        polyhedron.positions = positions;
+        if (normals == null) {
+            polyhedron.normals = new double[positions.length];
+        } else {
+            polyhedron.normals = (normals.length == positions.length) ? normals : Arrays.copyOf(normals, positions.length);
+        }
+        polyhedron.vertexCount = vertexCount;
+        polyhedron.faceIndices = faceIndices;
+        polyhedron.faceOffsets = faceOffsets;
+        polyhedron.faceCount = faceCount;
+        polyhedron.faceNormals = new double[faceCount * 3];
+        Arrays.fill(polyhedron.faceNormals, Double.NaN);
+        return polyhedron;
+    }
+
     public List<Face> getFaces() {
-        return faces;
+        return faceView;
     }
 
     public List<Point3D> getVertices() {
-        return vertices;
+        return vertexView;
     }
 
     public List<Point3D> getVertexNormals() {
-        return vertexNormals;
+        return normalView;
+    }
+
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    public int getFaceCount() {
+        return faceCount;
+    }
+
+    // Координаты вершин (x, y, z) подряд; действительны первые 3 * getVertexCount() элементов
+    public double[] getPositions() {
+        return positions;
+    }
+
+    // Нормали вершин в той же раскладке, что и координаты
+    public double[] getNormals() {
+        return normals;
+    }
+
+    // Индексы вершин граней подряд; границы граней - в getFaceOffsets()
+    public int[] getFaceIndices() {
+        return faceIndices;
+    }
+
+    // Начало каждой грани в getFaceIndices(); грань f заканчивается на getFaceOffsets()[f + 1]
+    public int[] getFaceOffsets() {
+        return faceOffsets;
+    }
+
+    public FaceBvh getFaceBvh() {
+        if (faceBvh == null) {
+            faceBvh = FaceBvh.build(this);
+        }
+        return faceBvh;
+    }
+
+    // Запускает фоновое построение уровней детализации, если их еще нет. Строятся они по копии сетки,
+    // так что изменение многогранника во время построения ему не мешает - оно лишь сбрасывает результат
+    public CompletableFuture<LodChain> buildLodChainAsync() {
+        if (lodChain == null || lodChain.isCompletedExceptionally()) {
+            lodChain = LodChain.buildAsync(copy());
+        }
+        return lodChain;
+    }
+
+    // Уровни детализации, если они уже построены; построение не запускается
+    public LodChain getLodChainIfReady() {
+        if (lodChain == null || !lodChain.isDone() || lodChain.isCompletedExceptionally()) return null;
+        return lodChain.join();
+    }
+
+    // Уровни детализации с ожиданием построения - не для потока интерфейса
+    public LodChain getLodChain() {
+        return buildLodChainAsync().join();
+    }
+
+    // Еще не начатое построение для старой геометрии отменяется
+    private void resetLodChain() {
+        if (lodChain != null) {
+            lodChain.cancel(false);
+            lodChain = null;
+        }
+    }
+
+    public int getVersion() {
+        return version;
     }
 
     public Color getColor() {
         return color;
     }
 
+    public Matrix4 getModelMatrix() {
+        return modelMatrix;
+    }
+
+    public void setModelMatrix(Matrix4 matrix) {
+        modelMatrix.set(matrix);
+        identityModel = matrix.isIdentity();
+        version++;
+    }
+
+    // true, если у модели есть непримененные преобразования
+    public boolean hasModelTransform() {
+        return !identityModel;
+    }
+
+    // Добавляет преобразование поверх уже накопленных за O(1): M = matrix * M
+    public void compose(Matrix4 matrix) {
+        Matrix4.multiply(matrix, modelMatrix, modelMatrix);
+        identityModel = modelMatrix.isIdentity();
+        version++;
+    }
+
+    // Применяет матрицу модели к вершинам и нормалям и сбрасывает ее в единичную
+    public void bake() {
+        if (identityModel) return;
+        applyTransform(modelMatrix);
+        modelMatrix.setIdentity();
+        identityModel = true;
+        version++;
+    }
+
+    // Мировые координаты вершин (с учетом матрицы модели) в out длиной не меньше 3 * getVertexCount()
+    public void getWorldPositions(double[] out) {
+        if (identityModel) {
+            System.arraycopy(positions, 0, out, 0, vertexCount * 3);
+        } else {
+            modelMatrix.transformPoints(positions, out, vertexCount);
+        }
+    }
+
+    // Мировые нормали вершин в out длиной не меньше 3 * getVertexCount()
+    public void getWorldNormals(double[] out) {
+        if (identityModel) {
+            System.arraycopy(normals, 0, out, 0, vertexCount * 3);
+        } else {
+            modelMatrix.normalMatrix(new Matrix4()).transformNormals(normals, out, vertexCount);
+        }
+    }
+
+    public boolean hasFixedVertexNormals() {
+        return fixedVertexNormals;
+    }
+
+    public void setFixedVertexNormals(boolean fixedVertexNormals) {
+        this.fixedVertexNormals = fixedVertexNormals;
+    }
+
     public void setColor(Color color) {
         this.color = color;
     }
 
+    // Вершины грани сопоставляются вершинам многогранника по координатам (первое совпадение),
+    // вершина, которой еще нет в многограннике, добавляется в конец
     public void addFace(Face face) {
-        faces.add(face);
+        List<Point3D> faceVertices = face.getVertices();
+        Map<Point3D, Integer> index = getVertexIndexMap();
+        int[] indices = new int[faceVertices.size()];
+        for (int i = 0; i < indices.length; i++) {
+            Point3D vertex = faceVertices.get(i);
+            Integer vertexNumber = index.get(vertex);
+            if (vertexNumber == null) {
+                addVertex(vertex);
+                vertexNumber = vertexCount - 1;
+            }
+            indices[i] = vertexNumber;
+        }
+        appendFace(indices, face.getNormal());
+    }
+
+    // Грань по индексам уже добавленных вершин; нормаль грани вычисляется по первым трем вершинам
+    public void addFace(int... vertexIndices) {
+        for (int vertexNumber : vertexIndices) {
+            if (vertexNumber < 0 || vertexNumber >= vertexCount) {
+                throw new IndexOutOfBoundsException("Vertex index " + vertexNumber + " out of range [0, " + vertexCount + ")");
+            }
+        }
+        appendFace(vertexIndices, null);
     }
 
     public void addVertex(Point3D point) {
-        vertices.add(point);
-        vertexNormals.add(new Point3D(0, 0, 0));
+        addVertex(point.x(), point.y(), point.z());
+    }
+
+    public void addVertex(double x, double y, double z) {
+        if ((vertexCount + 1) * 3 > positions.length) {
+            int capacity = Math.max(INITIAL_CAPACITY, vertexCount * 2) * 3;
+            positions = Arrays.copyOf(positions, capacity);
+            normals = Arrays.copyOf(normals, capacity);
+        }
+        int i3 = vertexCount * 3;
+        positions[i3] = x;
+        positions[i3 + 1] = y;
+        positions[i3 + 2] = z;
+        normals[i3] = 0;
+        normals[i3 + 1] = 0;
+        normals[i3 + 2] = 0;
+        vertexCount++;
+        vertexCornerOffsets = null;
+        fixedVertexNormals = false;
+        faceBvh = null;
+        resetLodChain();
+        version++;
+
+        if (vertexIndex != null) {
+            vertexIndex.putIfAbsent(new Point3D(x, y, z), vertexCount - 1);
+        }
+    }
+
+    private void appendFace(int[] indices, Point3D normal) {
+        int start = faceOffsets[faceCount];
+        if (start + indices.length > faceIndices.length) {
+            faceIndices = Arrays.copyOf(faceIndices, Math.max(faceIndices.length * 2, start + indices.length));
+        }
+        if (faceCount + 2 > faceOffsets.length) {
+            faceOffsets = Arrays.copyOf(faceOffsets, faceOffsets.length * 2);
+        }
+        if ((faceCount + 1) * 3 > faceNormals.length) {
+            faceNormals = Arrays.copyOf(faceNormals, Math.max(INITIAL_CAPACITY, faceCount * 2) * 3);
+        }
+        System.arraycopy(indices, 0, faceIndices, start, indices.length);
+        faceOffsets[faceCount + 1] = start + indices.length;
+        if (normal != null) {
+            setFaceNormal(faceCount, normal.x(), normal.y(), normal.z());
+        } else {
+            faceNormals[faceCount * 3] = Double.NaN;
+        }
+        faceCount++;
+        vertexCornerOffsets = null;
+        faceBvh = null;
+        resetLodChain();
+        version++;
     }
 
     public Polyhedron copy() {
         Polyhedron polyhedron = new Polyhedron();
-        polyhedron.faces.addAll(faces);
-        polyhedron.vertices.addAll(vertices);
-        polyhedron.vertexNormals.addAll(vertexNormals);
+        polyhedron.positions = positions.clone();
+        polyhedron.normals = normals.clone();
+        polyhedron.vertexCount = vertexCount;
+        polyhedron.faceIndices = faceIndices.clone();
+        polyhedron.faceOffsets = faceOffsets.clone();
+        polyhedron.faceCount = faceCount;
+        polyhedron.faceNormals = faceNormals.clone();
+
+        // Топология та же, смежность неизменяема - можно использовать общую
+        polyhedron.vertexCornerOffsets = vertexCornerOffsets;
+        polyhedron.vertexCorners = vertexCorners;
+        polyhedron.cornerFaces = cornerFaces;
+        polyhedron.faceBvh = faceBvh; // та же геометрия; иерархия неизменяема
+        polyhedron.lodChain = (lodChain != null) ? lodChain.thenApply(LodChain::copy) : null;
         polyhedron.color = color;
+        polyhedron.fixedVertexNormals = fixedVertexNormals;
+        polyhedron.setModelMatrix(modelMatrix);
         return polyhedron;
     }
 
-    public Polyhedron transform(double[][] matrix) {
-        Polyhedron polyhedron = new Polyhedron();
-
-        for (Point3D point : vertices) {
-            polyhedron.addVertex(point.transform(matrix));
-        }
+    // Многогранник на тех же массивах, но со своими матрицей модели и цветом - для уровней детализации,
+    // общих для копий. Ни вид, ни исходный многогранник нельзя изменять: изменение видно обоим
+    Polyhedron sharedView() {
+        resolveFaceNormals();
+        Polyhedron view = new Polyhedron();
+        view.positions = positions;
+        view.normals = normals;
+        view.vertexCount = vertexCount;
+        view.faceIndices = faceIndices;
+        view.faceOffsets = faceOffsets;
+        view.faceCount = faceCount;
+        view.faceNormals = faceNormals;
+        view.vertexCornerOffsets = vertexCornerOffsets;
+        view.vertexCorners = vertexCorners;
+        view.cornerFaces = cornerFaces;
+        view.faceBvh = faceBvh;
+        view.color = color;
+        view.fixedVertexNormals = fixedVertexNormals;
+        view.setModelMatrix(modelMatrix);
+        return view;
+    }
 
-        // Трансформируем нормали (только вращение)
-        double[][] rotationMatrix = {
-                {matrix[0][0], matrix[0][1], matrix[0][2], 0},
-                {matrix[1][0], matrix[1][1], matrix[1][2], 0},
-                {matrix[2][0], matrix[2][1], matrix[2][2], 0},
-                {0, 0, 0, 1}
-        };
+    // Новый многогранник с примененными матрицей модели и matrix (сразу в вершинах)
+    public Polyhedron transform(Matrix4 matrix) {
+        Polyhedron polyhedron = copy();
+        polyhedron.bake();
+        polyhedron.applyTransform(matrix);
+        return polyhedron;
+    }
 
-        for (int i = 0; i < vertexNormals.size(); i++) {
-            Point3D transformedNormal = vertexNormals.get(i).transform(rotationMatrix).normalize();
-            polyhedron.vertexNormals.set(i, transformedNormal);
-        }
+    // Преобразование локальных координат на месте: каждая вершина преобразуется ровно один раз,
+    // нормали вершин и граней - обратной транспонированной матрицей
+    public void applyTransform(Matrix4 matrix) {
+        resolveFaceNormals();
+        matrix.transformPoints(positions, positions, vertexCount);
 
-        for (Face face : faces) {
-            polyhedron.addFace(face.transform(matrix));
-        }
+        Matrix4 normalMatrix = matrix.normalMatrix(new Matrix4());
+        normalMatrix.transformNormals(normals, normals, vertexCount);
+        normalMatrix.transformNormals(faceNormals, faceNormals, faceCount);
 
-        polyhedron.color = this.color;
-        return polyhedron;
+        vertexIndex = null;
+        faceBvh = null;
+        resetLodChain();
+        version++;
     }
 
+    // Центр масс вершин, на которые ссылаются грани
     public Point3D getCenter() {
-        Set<Point3D> uniqueVertices = new HashSet<>();
-        for (Face face : getFaces()) {
-            uniqueVertices.addAll(face.getVertices());
+        boolean[] used = new boolean[vertexCount];
+        int faceEnd = faceOffsets[faceCount];
+        for (int k = 0; k < faceEnd; k++) {
+            used[faceIndices[k]] = true;
         }
-        if (uniqueVertices.isEmpty()) {
+
+        double sumX = 0, sumY = 0, sumZ = 0;
+        int count = 0;
+        for (int i = 0; i < vertexCount; i++) {
+            if (!used[i]) continue;
+            sumX += positions[i * 3];
+            sumY += positions[i * 3 + 1];
+            sumZ += positions[i * 3 + 2];
+            count++;
+        }
+        if (count == 0) {
             return new Point3D(0, 0, 0);
         }
-        return AffineTransform.getCenter(new ArrayList<>(uniqueVertices));
+        return new Point3D(sumX / count, sumY / count, sumZ / count);
     }
 
     public void recalculateNormals() {
         Point3D objectCenter = getCenter();
-        for (Face face : getFaces()) {
-            face.computeRawNormal();
-            face.orientNormal(objectCenter);
+        for (int f = 0; f < faceCount; f++) {
+            computeFaceNormal(f);
+            orientFaceNormal(f, objectCenter);
+        }
+        if (!fixedVertexNormals) {
+            computeVertexNormals();
         }
-        computeVertexNormals();
     }
 
     public void computeVertexNormals() {
-        // Очищаем нормали
-        vertexNormals.clear();
-        for (int i = 0; i < vertices.size(); i++) {
-            vertexNormals.add(new Point3D(0, 0, 0));
-        }
+        computeVertexNormals(NormalWeighting.UNIFORM, faceOffsets[faceCount] >= PARALLEL_THRESHOLD);
+    }
 
-        // Суммируем нормали граней
-        for (Face face : faces) {
-            Point3D faceNormal = face.getNormal();
-            for (Point3D vertex : face.getVertices()) {
-                int vertexIndex = vertices.indexOf(vertex);
-                if (vertexIndex >= 0) {
-                    Point3D currentNormal = vertexNormals.get(vertexIndex);
-                    vertexNormals.set(vertexIndex, currentNormal.add(faceNormal));
+    // Нормаль вершины - нормированная взвешенная сумма нормалей смежных граней.
+    // Вершины обрабатываются независимо (сбор по смежности, а не разброс по граням),
+    // поэтому параллельный расчет дает тот же результат, что и последовательный
+    public void computeVertexNormals(NormalWeighting weighting, boolean parallel) {
+        int cornerCount = faceOffsets[faceCount];
+        buildAdjacency();
+        fixedVertexNormals = false;
+
+        resolveFaceNormals();
+        double[] faceNormals = this.faceNormals;
+
+        double[] cornerWeights = null;
+        if (weighting != NormalWeighting.UNIFORM) {
+            double[] weights = new double[cornerCount];
+            IntStream faceRange = IntStream.range(0, faceCount);
+            (parallel ? faceRange.parallel() : faceRange).forEach(f -> {
+                if (weighting == NormalWeighting.AREA) {
+                    Arrays.fill(weights, faceOffsets[f], faceOffsets[f + 1], faceArea(f));
+                } else {
+                    computeCornerAngles(f, weights);
                 }
+            });
+            cornerWeights = weights;
+        }
+
+        double[] weights = cornerWeights;
+        IntStream vertexRange = IntStream.range(0, vertexCount);
+        (parallel ? vertexRange.parallel() : vertexRange).forEach(v -> {
+            double nx = 0, ny = 0, nz = 0;
+            for (int c = vertexCornerOffsets[v]; c < vertexCornerOffsets[v + 1]; c++) {
+                int corner = vertexCorners[c];
+                int f3 = cornerFaces[corner] * 3;
+                double weight = (weights != null) ? weights[corner] : 1.0;
+                nx += faceNormals[f3] * weight;
+                ny += faceNormals[f3 + 1] * weight;
+                nz += faceNormals[f3 + 2] * weight;
+            }
+
+            double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+            if (length != 0) {
+                nx /= length;
+                ny /= length;
+                nz /= length;
             }
+            int v3 = v * 3;
+            normals[v3] = nx;
+            normals[v3 + 1] = ny;
+            normals[v3 + 2] = nz;
+        });
+    }
+
+    // Подсчет углов каждой вершины, префиксная сумма, раскладка углов по вершинам - O(V + F)
+    private void buildAdjacency() {
+        if (vertexCornerOffsets != null) return;
+
+        int cornerCount = faceOffsets[faceCount];
+        int[] offsets = new int[vertexCount + 1];
+        for (int k = 0; k < cornerCount; k++) {
+            offsets[faceIndices[k] + 1]++;
         }
+        for (int v = 0; v < vertexCount; v++) {
+            offsets[v + 1] += offsets[v];
+        }
+
+        int[] fill = Arrays.copyOf(offsets, vertexCount);
+        int[] corners = new int[cornerCount];
+        int[] faceOfCorner = new int[cornerCount];
+        for (int f = 0; f < faceCount; f++) {
+            for (int k = faceOffsets[f]; k < faceOffsets[f + 1]; k++) {
+                corners[fill[faceIndices[k]]++] = k;
+                faceOfCorner[k] = f;
+            }
+        }
+
+        vertexCorners = corners;
+        cornerFaces = faceOfCorner;
+        vertexCornerOffsets = offsets;
+    }
 
-        // Нормализуем
-        for (int i = 0; i < vertexNormals.size(); i++) {
-            vertexNormals.set(i, vertexNormals.get(i).normalize());
+    // Площадь многоугольника по формуле Ньюэлла
+    private double faceArea(int f) {
+        int start = faceOffsets[f], end = faceOffsets[f + 1];
+        double ax = 0, ay = 0, az = 0;
+        for (int k = start; k < end; k++) {
+            int i3 = faceIndices[k] * 3;
+            int j3 = faceIndices[k + 1 < end ? k + 1 : start] * 3;
+            ax += positions[i3 + 1] * positions[j3 + 2] - positions[i3 + 2] * positions[j3 + 1];
+            ay += positions[i3 + 2] * positions[j3] - positions[i3] * positions[j3 + 2];
+            az += positions[i3] * positions[j3 + 1] - positions[i3 + 1] * positions[j3];
+        }
+        return 0.5 * Math.sqrt(ax * ax + ay * ay + az * az);
+    }
+
+    // Внутренний угол грани f в каждой ее вершине
+    private void computeCornerAngles(int f, double[] angles) {
+        int start = faceOffsets[f], end = faceOffsets[f + 1];
+        for (int k = start; k < end; k++) {
+            int c3 = faceIndices[k] * 3;
+            int p3 = faceIndices[k > start ? k - 1 : end - 1] * 3;
+            int n3 = faceIndices[k + 1 < end ? k + 1 : start] * 3;
+            double ux = positions[p3] - positions[c3], uy = positions[p3 + 1] - positions[c3 + 1], uz = positions[p3 + 2] - positions[c3 + 2];
+            double wx = positions[n3] - positions[c3], wy = positions[n3 + 1] - positions[c3 + 1], wz = positions[n3 + 2] - positions[c3 + 2];
+            double lengths = Math.sqrt((ux * ux + uy * uy + uz * uz) * (wx * wx + wy * wy + wz * wz));
+            angles[k] = (lengths > 0)
+                    ? Math.acos(Math.max(-1.0, Math.min(1.0, (ux * wx + uy * wy + uz * wz) / lengths)))
+                    : 0.0;
         }
     }
 
     public Point3D getVertexNormal(int vertexIndex) {
-        if (vertexIndex >= 0 && vertexIndex < vertexNormals.size()) {
-            return vertexNormals.get(vertexIndex);
+        if (vertexIndex >= 0 && vertexIndex < vertexCount) {
+            return normalView.get(vertexIndex);
         }
         return new Point3D(0, 0, 1);
     }
 
     public Point3D getVertexNormal(Point3D vertex) {
-        int index = vertices.indexOf(vertex);
-        return getVertexNormal(index);
+        return getVertexNormal(getVertexIndex(vertex));
+    }
+
+    // Индекс первой вершины с такими координатами (как indexOf), но за O(1)
+    public int getVertexIndex(Point3D vertex) {
+        return getVertexIndexMap().getOrDefault(vertex, -1);
+    }
+
+    private Map<Point3D, Integer> getVertexIndexMap() {
+        if (vertexIndex == null) {
+            Map<Point3D, Integer> index = new HashMap<>(Math.max(INITIAL_CAPACITY, vertexCount * 2));
+            for (int i = 0; i < vertexCount; i++) {
+                index.putIfAbsent(vertexView.get(i), i);
+            }
+            vertexIndex = index;
+        }
+        return vertexIndex;
+    }
+
+    // Нормаль грани faceNumber; отложенная вычисляется здесь
+    Point3D getFaceNormal(int faceNumber) {
+        int f3 = faceNumber * 3;
+        if (Double.isNaN(faceNormals[f3])) {
+            computeFaceNormal(faceNumber);
+        }
+        return new Point3D(faceNormals[f3], faceNormals[f3 + 1], faceNormals[f3 + 2]);
+    }
+
+    void setFaceNormal(int faceNumber, double x, double y, double z) {
+        int f3 = faceNumber * 3;
+        faceNormals[f3] = x;
+        faceNormals[f3 + 1] = y;
+        faceNormals[f3 + 2] = z;
+    }
+
+    // Нормаль по первым трем вершинам грани, как Face.computeRawNormal; у грани меньше чем из трех вершин - (0, 0, 1)
+    void computeFaceNormal(int faceNumber) {
+        int start = faceOffsets[faceNumber];
+        if (faceOffsets[faceNumber + 1] - start < 3) {
+            setFaceNormal(faceNumber, 0, 0, 1);
+            return;
+        }
+
+        int a = faceIndices[start] * 3, b = faceIndices[start + 1] * 3, c = faceIndices[start + 2] * 3;
+        double ux = positions[b] - positions[a], uy = positions[b + 1] - positions[a + 1], uz = positions[b + 2] - positions[a + 2];
+        double vx = positions[c] - positions[a], vy = positions[c + 1] - positions[a + 1], vz = positions[c + 2] - positions[a + 2];
+        double nx = uy * vz - uz * vy;
+        double ny = uz * vx - ux * vz;
+        double nz = ux * vy - uy * vx;
+
+        double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+        if (length > 0) {
+            nx /= length;
+            ny /= length;
+            nz /= length;
+        }
+        setFaceNormal(faceNumber, nx, ny, nz);
+    }
+
+    // Нормаль грани смотрит от objectCenter, как Face.orientNormal
+    private void orientFaceNormal(int faceNumber, Point3D objectCenter) {
+        int start = faceOffsets[faceNumber], end = faceOffsets[faceNumber + 1];
+        double sumX = 0, sumY = 0, sumZ = 0;
+        for (int k = start; k < end; k++) {
+            int v3 = faceIndices[k] * 3;
+            sumX += positions[v3];
+            sumY += positions[v3 + 1];
+            sumZ += positions[v3 + 2];
+        }
+        int count = end - start;
+        double dx = sumX / count - objectCenter.x();
+        double dy = sumY / count - objectCenter.y();
+        double dz = sumZ / count - objectCenter.z();
+
+        int f3 = faceNumber * 3;
+        if (faceNormals[f3] * dx + faceNormals[f3 + 1] * dy + faceNormals[f3 + 2] * dz < 0) {
+            setFaceNormal(faceNumber, -faceNormals[f3], -faceNormals[f3 + 1], -faceNormals[f3 + 2]);
+        }
+    }
+
+    // Отложенные нормали граней вычисляются по текущим вершинам - перед тем, как вершины изменятся
+    private void resolveFaceNormals() {
+        for (int f = 0; f < faceCount; f++) {
+            if (Double.isNaN(faceNormals[f * 3])) {
+                computeFaceNormal(f);
+            }
+        }
+    }
+
+    // Вершины грани faceNumber как список точек, читаемый из массива координат
+    List<Point3D> faceVertices(int faceNumber) {
+        return new FaceVertexList(faceNumber);
+    }
+
+    // Индексы вершин грани faceNumber
+    List<Integer> faceVertexIndices(int faceNumber) {
+        return new FaceIndexList(faceNumber);
+    }
+
+    private class VertexList extends AbstractList<Point3D> implements RandomAccess {
+        @Override
+        public Point3D get(int index) {
+            checkVertex(index);
+            int i3 = index * 3;
+            return new Point3D(positions[i3], positions[i3 + 1], positions[i3 + 2]);
+        }
+
+        @Override
+        public Point3D set(int index, Point3D point) {
+            Point3D previous = get(index);
+            resolveFaceNormals();
+            int i3 = index * 3;
+            positions[i3] = point.x();
+            positions[i3 + 1] = point.y();
+            positions[i3 + 2] = point.z();
+            vertexIndex = null;
+            fixedVertexNormals = false;
+            faceBvh = null;
+            resetLodChain();
+            version++;
+            return previous;
+        }
+
+        @Override
+        public void add(int index, Point3D point) {
+            if (index != vertexCount) {
+                throw new UnsupportedOperationException("Vertices can only be appended");
+            }
+            addVertex(point);
+        }
+
+        @Override
+        public int size() {
+            return vertexCount;
+        }
+    }
+
+    private class NormalList extends AbstractList<Point3D> implements RandomAccess {
+        @Override
+        public Point3D get(int index) {
+            checkVertex(index);
+            int i3 = index * 3;
+            return new Point3D(normals[i3], normals[i3 + 1], normals[i3 + 2]);
+        }
+
+        @Override
+        public Point3D set(int index, Point3D normal) {
+            Point3D previous = get(index);
+            int i3 = index * 3;
+            normals[i3] = normal.x();
+            normals[i3 + 1] = normal.y();
+            normals[i3 + 2] = normal.z();
+            return previous;
+        }
+
+        @Override
+        public int size() {
+            return vertexCount;
+        }
+    }
+
+    private class FaceList extends AbstractList<Face> implements RandomAccess {
+        @Override
+        public Face get(int index) {
+            if (index < 0 || index >= faceCount) {
+                throw new IndexOutOfBoundsException("Face index " + index + " out of range [0, " + faceCount + ")");
+            }
+            return new Face(Polyhedron.this, index);
+        }
+
+        @Override
+        public void add(int index, Face face) {
+            if (index != faceCount) {
+                throw new UnsupportedOperationException("Faces can only be appended");
+            }
+            addFace(face);
+        }
+
+        @Override
+        public int size() {
+            return faceCount;
+        }
+    }
+
+    private class FaceVertexList extends AbstractList<Point3D> implements RandomAccess {
+        private final int faceNumber;
+
+        FaceVertexList(int faceNumber) {
+            this.faceNumber = faceNumber;
+        }
+
+        @Override
+        public Point3D get(int index) {
+            return vertexView.get(faceIndices[faceOffsets[faceNumber] + checkCorner(faceNumber, index)]);
+        }
+
+        @Override
+        public int size() {
+            return faceOffsets[faceNumber + 1] - faceOffsets[faceNumber];
+        }
+    }
+
+    private class FaceIndexList extends AbstractList<Integer> implements RandomAccess {
+        private final int faceNumber;
+
+        FaceIndexList(int faceNumber) {
+            this.faceNumber = faceNumber;
+        }
+
+        @Override
+        public Integer get(int index) {
+            return faceIndices[faceOffsets[faceNumber] + checkCorner(faceNumber, index)];
+        }
+
+        @Override
+        public int size() {
+            return faceOffsets[faceNumber + 1] - faceOffsets[faceNumber];
+        }
+    }
+
+    private void checkVertex(int index) {
+        if (index < 0 || index >= vertexCount) {
+            throw new IndexOutOfBoundsException("Vertex index " + index + " out of range [0, " + vertexCount + ")");
+        }
+    }
+
+    private int checkCorner(int faceNumber, int index) {
+        int size = faceOffsets[faceNumber + 1] - faceOffsets[faceNumber];
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Face vertex " + index + " out of range [0, " + size + ")");
+        }
+        return index;
     }
-}
\ No newline at end of file
+}
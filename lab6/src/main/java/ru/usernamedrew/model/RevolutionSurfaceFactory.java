@@ -2,10 +2,17 @@
 package ru.usernamedrew.model;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 // строит 3D модель вращением образующей вокруг оси Y
 public class RevolutionSurfaceFactory {
+    // С какого числа вершин кольца заполняются параллельно
+    private static final int PARALLEL_THRESHOLD = 1 << 15;
+    // Точка образующей ближе к оси, чем POLE_EPSILON * размер образующей, считается лежащей на оси
+    private static final double POLE_EPSILON = 1e-9;
 
     public enum Axis {
         X, Y, Z
@@ -20,16 +27,13 @@ public class RevolutionSurfaceFactory {
     public static Polyhedron createRevolutionSurface(List<Point3D> generatrix, Axis axis, int divisions) {
         // Алгоритм работы:
         // 1. Валидация входных данных (образующая >= 2 точек, разбиения >= 3)
-        // 2. Вычисление шага угла: 360 / divisions
-        // 3. Создание сетки вершин:
-        //    - Для каждого угла от 0 до 360 с шагом angleStep
-        //    - Для каждой точки образующей применяется вращение вокруг выбранной оси
-        //    - Все точки добавляются в Polyhedron
-        // 4. Создание граней:
-        //    - Для каждого "пояса" между соседними углами вращения
-        //    - Для каждой пары соседних точек образующей
-        //    - Создается четырехугольная грань между текущим и следующим поясом
-        // 5. Возврат готовой модели
+        // 2. Таблица cos / sin углов 2 pi i / divisions - один раз на все точки
+        // 3. Разложение точек образующей: p = A + P, A - проекция на ось, P - радиальная часть,
+        //    Q = k x p; точка, повернутая на угол, равна A + cos * P + sin * Q. Так же раскладываются нормали
+        // 4. Точки на оси (полюса) - одна вершина на все кольца, остальные - кольцо из divisions вершин.
+        //    Последнее кольцо замыкается на первое, отдельного шва нет
+        // 5. Грани между соседними кольцами - четырехугольники, у полюса - треугольники
+        // 6. Кольца вершин и граней заполняются в упакованные массивы, при большой сетке - параллельно
         if (generatrix == null || generatrix.size() < 2) {
             throw new IllegalArgumentException("Generatrix must contain at least 2 points");
         }
@@ -37,79 +41,228 @@ public class RevolutionSurfaceFactory {
             throw new IllegalArgumentException("Divisions must be at least 3");
         }
 
-        Polyhedron surface = new Polyhedron();
-        List<List<Point3D>> grid = new ArrayList<>();
+        int points = generatrix.size();
+        double[] k = switch (axis) {
+            case X -> new double[]{1, 0, 0};
+            case Y -> new double[]{0, 1, 0};
+            case Z -> new double[]{0, 0, 1};
+        };
 
-        double angleStep = 2 * Math.PI / divisions;
+        double[] profile = new double[points * 3];
+        double scale = 0;
+        for (int j = 0; j < points; j++) {
+            Point3D point = generatrix.get(j);
+            profile[j * 3] = point.x();
+            profile[j * 3 + 1] = point.y();
+            profile[j * 3 + 2] = point.z();
+            scale = Math.max(scale, Math.max(Math.abs(point.x()), Math.max(Math.abs(point.y()), Math.abs(point.z()))));
+        }
 
-        // Создаем вершины
-        for (int i = 0; i < divisions; i++) {
-            double angle = i * angleStep;
-            List<Point3D> circlePoints = new ArrayList<>();
+        double[] pointParts = new double[points * 9];
+        decompose(profile, k, pointParts, points);
+        boolean[] pole = new boolean[points];
+        int poleCount = 0;
+        for (int j = 0; j < points; j++) {
+            double rx = pointParts[j * 9 + 3], ry = pointParts[j * 9 + 4], rz = pointParts[j * 9 + 5];
+            pole[j] = Math.sqrt(rx * rx + ry * ry + rz * rz) <= scale * POLE_EPSILON;
+            if (pole[j]) poleCount++;
+        }
+
+        double[] profileNormals = profileNormals(profile, pointParts, pole, k, points);
 
-            for (Point3D point : generatrix) {
-                Point3D rotatedPoint = rotatePointAroundAxis(point, axis, angle);
-                circlePoints.add(rotatedPoint);
-                surface.addVertex(rotatedPoint);
+        // Нормали наружу: сумма n * (p - центр) по всем вершинам сводится к точкам образующей (кольцо на
+        // радиальную часть дает ноль), центр лежит на оси. Иначе нормали и обход граней разворачиваются
+        double axialSum = 0, weightSum = 0;
+        for (int j = 0; j < points; j++) {
+            double weight = pole[j] ? 1 : divisions;
+            axialSum += weight * dot(k, profile, j);
+            weightSum += weight;
+        }
+        double center = axialSum / weightSum;
+        double outward = 0;
+        for (int j = 0; j < points; j++) {
+            double weight = pole[j] ? 1 : divisions;
+            double[] offset = {profile[j * 3] - k[0] * center, profile[j * 3 + 1] - k[1] * center, profile[j * 3 + 2] - k[2] * center};
+            outward += weight * (profileNormals[j * 3] * offset[0] + profileNormals[j * 3 + 1] * offset[1] + profileNormals[j * 3 + 2] * offset[2]);
+        }
+        boolean flip = outward < 0;
+        if (flip) {
+            for (int i = 0; i < profileNormals.length; i++) {
+                profileNormals[i] = -profileNormals[i];
             }
-            grid.add(circlePoints);
         }
 
-        // Добавляем первую окружность в конец для замыкания поверхности
-        grid.add(grid.get(0));
+        double[] normalParts = new double[points * 9];
+        decompose(profileNormals, k, normalParts, points);
 
-        // Создаем грани
-        for (int i = 0; i < divisions; i++) {
-            List<Point3D> currentCircle = grid.get(i);
-            List<Point3D> nextCircle = grid.get(i + 1);
+        // Номер вершины (кольцо i, точка j) = first[j] + i * stride[j]; у полюса шаг 0
+        // (сначала полюса, затем кольца по ringSize вершин)
+        int ringSize = points - poleCount;
+        int[] first = new int[points];
+        int[] stride = new int[points];
+        for (int j = 0, poleNumber = 0, column = 0; j < points; j++) {
+            if (pole[j]) {
+                first[j] = poleNumber++;
+            } else {
+                first[j] = poleCount + column++;
+                stride[j] = ringSize;
+            }
+        }
+        int vertexCount = poleCount + ringSize * divisions;
+        boolean parallel = (long) points * divisions >= PARALLEL_THRESHOLD;
 
-            for (int j = 0; j < generatrix.size() - 1; j++) {
-                Point3D v1 = currentCircle.get(j);
-                Point3D v2 = currentCircle.get(j + 1);
-                Point3D v3 = nextCircle.get(j + 1);
-                Point3D v4 = nextCircle.get(j);
+        double[] trig = trigTable(divisions);
+        double[] positions = new double[vertexCount * 3];
+        double[] normals = new double[vertexCount * 3];
+        for (int j = 0; j < points; j++) {
+            if (pole[j]) {
+                // Полюс - проекция точки на ось
+                System.arraycopy(pointParts, j * 9, positions, first[j] * 3, 3);
+                System.arraycopy(profileNormals, j * 3, normals, first[j] * 3, 3);
+            }
+        }
+        forEachRing(divisions, parallel, i -> {
+            double cos = trig[i * 2], sin = trig[i * 2 + 1];
+            for (int j = 0; j < points; j++) {
+                if (pole[j]) continue;
+                int v3 = (first[j] + i * stride[j]) * 3;
+                rotate(pointParts, j * 9, cos, sin, positions, v3);
+                rotate(normalParts, j * 9, cos, sin, normals, v3);
+            }
+        });
 
-                Face face = new Face(List.of(v1, v2, v3, v4));
-                surface.addFace(face);
+        // Шаблон грани пояса j: углы (сдвиг кольца, точка образующей) в порядке обхода,
+        // совпавшие у полюса углы выбрасываются. Пояс между двумя полюсами граней не дает
+        int[][] templates = new int[points - 1][];
+        int cornersPerRing = 0, facesPerRing = 0;
+        for (int j = 0; j + 1 < points; j++) {
+            int[] quad = flip
+                    ? new int[]{0, j, 1, j, 1, j + 1, 0, j + 1}
+                    : new int[]{0, j, 0, j + 1, 1, j + 1, 1, j};
+            int[] template = new int[8];
+            int corners = 0;
+            for (int c = 0; c < 4; c++) {
+                int ring = quad[c * 2], point = quad[c * 2 + 1];
+                int prev = (c + 3) % 4;
+                if (pole[point] && quad[prev * 2 + 1] == point) continue; // та же вершина, что и предыдущий угол
+                template[corners * 2] = ring;
+                template[corners * 2 + 1] = point;
+                corners++;
+            }
+            if (corners < 3) {
+                templates[j] = new int[0];
+                continue;
             }
+            templates[j] = Arrays.copyOf(template, corners * 2);
+            cornersPerRing += corners;
+            facesPerRing++;
         }
 
+        int faceCount = facesPerRing * divisions;
+        int[] faceIndices = new int[cornersPerRing * divisions];
+        int[] faceOffsets = new int[faceCount + 1];
+        int ringCorners = cornersPerRing, ringFaces = facesPerRing;
+        forEachRing(divisions, parallel, i -> {
+            int corner = i * ringCorners, face = i * ringFaces;
+            for (int[] template : templates) {
+                if (template.length == 0) continue;
+                for (int c = 0; c < template.length; c += 2) {
+                    int ring = (i + template[c]) % divisions, point = template[c + 1];
+                    faceIndices[corner++] = first[point] + ring * stride[point];
+                }
+                faceOffsets[++face] = corner;
+            }
+        });
+
+        Polyhedron surface = Polyhedron.fromIndexedMesh(positions, normals, vertexCount, faceIndices, faceOffsets, faceCount);
+        surface.setFixedVertexNormals(true);
         return surface;
     }
 
-    private static Point3D rotatePointAroundAxis(Point3D point, Axis axis, double angle) {
-        double cos = Math.cos(angle);
-        double sin = Math.sin(angle);
+    // cos и sin углов 2 pi i / divisions подряд; вторая половина круга - отражение первой: cos(2 pi - a) = cos(a), sin(2 pi - a) = -sin(a)
+    private static double[] trigTable(int divisions) {
+        double[] table = new double[divisions * 2];
+        double angleStep = 2 * Math.PI / divisions;
+        for (int i = 0; i <= divisions / 2; i++) {
+            double angle = i * angleStep;
+            table[i * 2] = Math.cos(angle);
+            table[i * 2 + 1] = Math.sin(angle);
+        }
+        for (int i = divisions / 2 + 1; i < divisions; i++) {
+            table[i * 2] = table[(divisions - i) * 2];
+            table[i * 2 + 1] = -table[(divisions - i) * 2 + 1];
+        }
+        return table;
+    }
 
-        return switch (axis) {
-            case X -> rotateAroundX(point, cos, sin);
-            case Y -> rotateAroundY(point, cos, sin);
-            case Z -> rotateAroundZ(point, cos, sin);
-        };
+    // Для каждого вектора v: A = k (k . v), P = v - A, Q = k x v (по 9 чисел на вектор)
+    private static void decompose(double[] vectors, double[] k, double[] parts, int count) {
+        for (int j = 0; j < count; j++) {
+            double x = vectors[j * 3], y = vectors[j * 3 + 1], z = vectors[j * 3 + 2];
+            double along = dot(k, vectors, j);
+            int p = j * 9;
+            parts[p] = k[0] * along;
+            parts[p + 1] = k[1] * along;
+            parts[p + 2] = k[2] * along;
+            parts[p + 3] = x - parts[p];
+            parts[p + 4] = y - parts[p + 1];
+            parts[p + 5] = z - parts[p + 2];
+            parts[p + 6] = k[1] * z - k[2] * y;
+            parts[p + 7] = k[2] * x - k[0] * z;
+            parts[p + 8] = k[0] * y - k[1] * x;
+        }
     }
 
-    private static Point3D rotateAroundX(Point3D point, double cos, double sin) {
-        return new Point3D(
-                point.x(),
-                point.y() * cos - point.z() * sin,
-                point.y() * sin + point.z() * cos
-        );
+    // Поворот на угол: A + cos * P + sin * Q
+    private static void rotate(double[] parts, int p, double cos, double sin, double[] out, int offset) {
+        out[offset] = parts[p] + (parts[p + 3] * cos + parts[p + 6] * sin);
+        out[offset + 1] = parts[p + 1] + (parts[p + 4] * cos + parts[p + 7] * sin);
+        out[offset + 2] = parts[p + 2] + (parts[p + 5] * cos + parts[p + 8] * sin);
     }
 
-    private static Point3D rotateAroundY(Point3D point, double cos, double sin) {
-        return new Point3D(
-                point.x() * cos + point.z() * sin,
-                point.y(),
-                -point.x() * sin + point.z() * cos
-        );
+    // Нормали образующей в начальном положении: касательная вдоль образующей (центральная разность,
+    // на концах - односторонняя) x касательная вдоль окружности Q. Нормаль полюса направлена по оси,
+    // в ту же сторону, что и нормали соседних точек
+    private static double[] profileNormals(double[] profile, double[] pointParts, boolean[] pole, double[] k, int points) {
+        double[] normals = new double[points * 3];
+        for (int j = 0; j < points; j++) {
+            if (pole[j]) continue;
+            int lo = Math.max(j - 1, 0) * 3, hi = Math.min(j + 1, points - 1) * 3;
+            double tx = profile[hi] - profile[lo], ty = profile[hi + 1] - profile[lo + 1], tz = profile[hi + 2] - profile[lo + 2];
+            double qx = pointParts[j * 9 + 6], qy = pointParts[j * 9 + 7], qz = pointParts[j * 9 + 8];
+            setNormalized(normals, j, ty * qz - tz * qy, tz * qx - tx * qz, tx * qy - ty * qx);
+        }
+        for (int j = 0; j < points; j++) {
+            if (!pole[j]) continue;
+            double along = 0;
+            if (j > 0) along += dot(k, normals, j - 1);
+            if (j + 1 < points) along += dot(k, normals, j + 1);
+            if (along != 0) {
+                double sign = Math.signum(along);
+                setNormalized(normals, j, k[0] * sign, k[1] * sign, k[2] * sign);
+            }
+        }
+        return normals;
+    }
+
+    private static void setNormalized(double[] normals, int j, double x, double y, double z) {
+        double length = Math.sqrt(x * x + y * y + z * z);
+        if (length == 0) return;
+        normals[j * 3] = x / length;
+        normals[j * 3 + 1] = y / length;
+        normals[j * 3 + 2] = z / length;
     }
 
-    private static Point3D rotateAroundZ(Point3D point, double cos, double sin) {
-        return new Point3D(
-                point.x() * cos - point.y() * sin,
-                point.x() * sin + point.y() * cos,
-                point.z()
-        );
+    private static double dot(double[] k, double[] vectors, int j) {
+        return k[0] * vectors[j * 3] + k[1] * vectors[j * 3 + 1] + k[2] * vectors[j * 3 + 2];
+    }
+
+    private static void forEachRing(int rings, boolean parallel, IntConsumer ring) {
+        IntStream range = IntStream.range(0, rings);
+        if (parallel) {
+            range = range.parallel();
+        }
+        range.forEach(ring);
     }
 
     // Предопределенные образующие для быстрого создания фигур
@@ -1,48 +1,119 @@
 package ru.usernamedrew.model;
 
-import java.util.List;
-import java.util.function.BiFunction;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 public class SurfaceFactory {
-    public static Polyhedron createSurface(BiFunction<Double, Double, Double> function, double x0, double x1, double y0, double y1, int nx, int ny) {
-        Polyhedron surface = new Polyhedron();
-        Point3D[][] grid = new Point3D[nx + 1][ny + 1];
+    // С какого числа вершин сетка заполняется параллельно (по строкам)
+    private static final int PARALLEL_THRESHOLD = 1 << 15;
+    // Глубже решетка вершин адаптивной поверхности перестает помещаться в int
+    private static final int MAX_ADAPTIVE_DEPTH = 20;
+
+    // Сетка (nx + 1) x (ny + 1) вершин z = f(x, y): вершина (i, j) имеет номер i * (ny + 1) + j,
+    // грань (i, j) - четырехугольник (i, j), (i + 1, j), (i + 1, j + 1), (i, j + 1).
+    // Нормали вершин - по центральным разностям высот (на краях - односторонним), с той же стороны, что и нормали граней
+    public static Polyhedron createSurface(DoubleBinaryOperator function, double x0, double x1, double y0, double y1, int nx, int ny) {
+        if (nx < 1 || ny < 1) {
+            throw new IllegalArgumentException("Grid must have at least one cell: " + nx + " x " + ny);
+        }
+
+        int rowSize = ny + 1;
+        int vertexCount = (nx + 1) * rowSize;
+        boolean parallel = vertexCount >= PARALLEL_THRESHOLD;
 
         //шаги
         double dx = (x1 - x0) / nx;
         double dy = (y1 - y0) / ny;
 
         //генерация вершин
-        for (int i = 0; i <= nx; i++) {
+        double[] positions = new double[vertexCount * 3];
+        forEachRow(nx + 1, parallel, i -> {
             double x = x0 + i * dx;
-            for (int j = 0; j <= ny; j++) {
+            for (int j = 0, i3 = i * rowSize * 3; j <= ny; j++, i3 += 3) {
                 double y = y0 + j * dy;
-                double z = function.apply(x, y);
-                Point3D vertex = new Point3D(x, y, z);
-                grid[i][j] = vertex;
-                surface.addVertex(vertex);
+                positions[i3] = x;
+                positions[i3 + 1] = y;
+                positions[i3 + 2] = function.applyAsDouble(x, y);
             }
-        }
+        });
+
+        //нормали вершин
+        double[] normals = new double[vertexCount * 3];
+        forEachRow(nx + 1, parallel, i -> {
+            int iLo = Math.max(i - 1, 0), iHi = Math.min(i + 1, nx);
+            for (int j = 0; j <= ny; j++) {
+                int jLo = Math.max(j - 1, 0), jHi = Math.min(j + 1, ny);
+                int lo3 = (iLo * rowSize + j) * 3, hi3 = (iHi * rowSize + j) * 3;
+                double ax = positions[hi3] - positions[lo3];
+                double az = positions[hi3 + 2] - positions[lo3 + 2];
+                lo3 = (i * rowSize + jLo) * 3;
+                hi3 = (i * rowSize + jHi) * 3;
+                double by = positions[hi3 + 1] - positions[lo3 + 1];
+                double bz = positions[hi3 + 2] - positions[lo3 + 2];
+
+                // (ax, 0, az) x (0, by, bz)
+                double nxv = -az * by, nyv = -ax * bz, nzv = ax * by;
+                double length = Math.sqrt(nxv * nxv + nyv * nyv + nzv * nzv);
+                int n3 = (i * rowSize + j) * 3;
+                if (length > 0) {
+                    normals[n3] = nxv / length;
+                    normals[n3 + 1] = nyv / length;
+                    normals[n3 + 2] = nzv / length;
+                }
+            }
+        });
 
         //генерация граней
-        for (int i = 0; i < nx; i++) {
+        int faceCount = nx * ny;
+        int[] faceIndices = new int[faceCount * 4];
+        int[] faceOffsets = new int[faceCount + 1];
+        forEachRow(nx, parallel, i -> {
             for (int j = 0; j < ny; j++) {
-                Point3D v1 = grid[i][j];
-                Point3D v2 = grid[i + 1][j];
-                Point3D v3 = grid[i + 1][j + 1];
-                Point3D v4 = grid[i][j + 1];
-                Face face = new Face(List.of(v1, v2, v3, v4));
-                surface.addFace(face);
+                int f = i * ny + j;
+                int v = i * rowSize + j;
+                faceIndices[f * 4] = v;
+                faceIndices[f * 4 + 1] = v + rowSize;
+                faceIndices[f * 4 + 2] = v + rowSize + 1;
+                faceIndices[f * 4 + 3] = v + 1;
+                faceOffsets[f + 1] = (f + 1) * 4;
             }
+        });
+
+        return Polyhedron.fromIndexedMesh(positions, normals, vertexCount, faceIndices, faceOffsets, faceCount);
+    }
+
+    // Адаптивная поверхность: ячейки базовой сетки nx x ny делятся пополам по обеим осям (не более maxDepth раз),
+    // пока f отклоняется от билинейной интерполяции по углам ячейки больше tolerance.
+    // Плоские участки остаются крупными, между уровнями нет трещин
+    public static Polyhedron createAdaptiveSurface(DoubleBinaryOperator function, double x0, double x1, double y0, double y1,
+                                                   int nx, int ny, double tolerance, int maxDepth) {
+        if (nx < 1 || ny < 1) {
+            throw new IllegalArgumentException("Grid must have at least one cell: " + nx + " x " + ny);
+        }
+        if (!(tolerance >= 0)) {
+            throw new IllegalArgumentException("Tolerance must be non-negative: " + tolerance);
+        }
+        if (maxDepth < 0 || maxDepth > MAX_ADAPTIVE_DEPTH || ((long) Math.max(nx, ny) << maxDepth) >= Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Subdivision depth out of range: " + maxDepth);
+        }
+
+        return new AdaptiveSurface(function, x0, x1, y0, y1, nx, ny, tolerance, maxDepth).build();
+    }
+
+    private static void forEachRow(int rows, boolean parallel, IntConsumer row) {
+        IntStream range = IntStream.range(0, rows);
+        if (parallel) {
+            range = range.parallel();
         }
-        return surface;
+        range.forEach(row);
     }
 
-    public static Double paraboloid(Double x, Double y) {
+    public static double paraboloid(double x, double y) {
         return x * x + y * y;
     }
 
-    public static Double sinCosSurface(Double x, Double y) {
+    public static double sinCosSurface(double x, double y) {
         return Math.sin(x) * Math.cos(y);
     }
 }
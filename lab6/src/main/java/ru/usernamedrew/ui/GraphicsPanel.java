@@ -2,18 +2,33 @@ package ru.usernamedrew.ui;
 
 import ru.usernamedrew.model.*;
 import ru.usernamedrew.util.AffineTransform;
+import ru.usernamedrew.util.FaceBvh;
+import ru.usernamedrew.util.Frustum;
+import ru.usernamedrew.util.Matrix4;
 import ru.usernamedrew.util.ProjectionTransformer;
+import ru.usernamedrew.util.Ray;
+import ru.usernamedrew.util.SceneBvh;
 import ru.usernamedrew.util.ZBuffer;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 import java.awt.geom.Line2D;
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 public class GraphicsPanel extends JPanel {
+    // Запас отсечения каркаса за краями панели, пикселей (линии толщиной 2)
+    private static final double CULL_GUARD = 4;
+
     private final List<Polyhedron> scene = new ArrayList<>();
+    // Иерархия над теми же объектами: по ней отсекаются невидимые объекты и грани и выбирается объект мышью
+    private final SceneBvh sceneBvh = new SceneBvh();
+    private int[] culledFaces = new int[0];
 
     private Polyhedron activePolyhedron;
 
@@ -23,20 +38,58 @@ public class GraphicsPanel extends JPanel {
     private ZBuffer zBuffer;
     private boolean zBufferEnabled = false; // Флаг использования z-буфера
     private boolean backfaceCulling = true; // Флаг отсечения нелицевых граней
+    private boolean parallelRendering = false; // Флаг многопоточной растеризации z-буфера
+    private boolean deferredShading = false; // Флаг отложенного освещения
+    private boolean occlusionCulling = false; // Флаг отсечения перекрытой геометрии
+    private boolean levelOfDetail = false; // Флаг выбора уровня детализации по размеру на экране
     //private Point3D viewVector = new Point3D(0, 0, -1); // Вектор обзора по умолчанию
     private List<Light> lights = new ArrayList<>();
 
     private Camera camera;
+    private Consumer<Polyhedron> selectionListener;
 
     public GraphicsPanel() {
         setBackground(Color.WHITE);
         setPreferredSize(new Dimension(800, 600));
+
+        // Щелчок без перетаскивания выбирает объект под курсором
+        addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                pick(e.getX(), e.getY());
+            }
+        });
+    }
+
+    public void setSelectionListener(Consumer<Polyhedron> selectionListener) {
+        this.selectionListener = selectionListener;
+    }
+
+    // Ближайший объект под точкой панели становится активным; null, если луч ничего не задел
+    public Polyhedron pick(int x, int y) {
+        centerX = getWidth() / 2;
+        centerY = getHeight() / 2;
+        ProjectionTransformer projector = zBufferEnabled ? createZBufferProjector() : createWireframeProjector();
+        Ray ray = projector.createPickRay(x, y);
+
+        sceneBvh.update();
+        Polyhedron hit = sceneBvh.pick(ray);
+        if (hit != null) {
+            activePolyhedron = hit;
+            if (selectionListener != null) {
+                selectionListener.accept(hit);
+            }
+            repaint();
+        }
+        return hit;
     }
 
     public void addPolyhedron(Polyhedron polyhedron) {
         if (polyhedron != null) {
             scene.add(polyhedron);
+            sceneBvh.add(polyhedron);
             activePolyhedron = polyhedron; // Делаем активным последний добавленный
+            requestLodChain(polyhedron);
             repaint();
         }
     }
@@ -50,10 +103,12 @@ public class GraphicsPanel extends JPanel {
         this.activePolyhedron = polyhedron;
 
         if (!scene.isEmpty()) {
-            scene.set(scene.size() - 1, polyhedron);
+            replaceInScene(scene.size() - 1, polyhedron);
         } else {
             scene.add(polyhedron);
+            sceneBvh.add(polyhedron);
         }
+        requestLodChain(polyhedron);
 
         repaint();
     }
@@ -61,6 +116,7 @@ public class GraphicsPanel extends JPanel {
     // Метод для полной очистки сцены
     public void clearScene() {
         scene.clear();
+        sceneBvh.clear();
         activePolyhedron = null;
         repaint();
     }
@@ -69,8 +125,9 @@ public class GraphicsPanel extends JPanel {
     public void updateActivePolyhedron(Polyhedron transformed) {
         if (activePolyhedron != null && scene.contains(activePolyhedron)) {
             int index = scene.indexOf(activePolyhedron);
-            scene.set(index, transformed);
+            replaceInScene(index, transformed);
             activePolyhedron = transformed;
+            requestLodChain(transformed);
             repaint();
         } else {
             // Если сцена пуста или объект потерян
@@ -78,6 +135,15 @@ public class GraphicsPanel extends JPanel {
         }
     }
 
+    private void replaceInScene(int index, Polyhedron polyhedron) {
+        Polyhedron old = scene.set(index, polyhedron);
+        if (scene.contains(old)) {
+            sceneBvh.add(polyhedron);
+        } else {
+            sceneBvh.replace(old, polyhedron);
+        }
+    }
+
     public void setProjectionType(String type) {
         this.projectionType = type;
         repaint();
@@ -93,6 +159,40 @@ public class GraphicsPanel extends JPanel {
         repaint();
     }
 
+    public void setParallelRendering(boolean enabled) {
+        this.parallelRendering = enabled;
+        repaint();
+    }
+
+    public void setDeferredShading(boolean enabled) {
+        this.deferredShading = enabled;
+        repaint();
+    }
+
+    public void setOcclusionCulling(boolean enabled) {
+        this.occlusionCulling = enabled;
+        repaint();
+    }
+
+    public void setLevelOfDetail(boolean enabled) {
+        this.levelOfDetail = enabled;
+        for (Polyhedron polyhedron : scene) {
+            requestLodChain(polyhedron);
+        }
+        repaint();
+    }
+
+    // Уровни детализации строятся в фоне при добавлении и изменении объекта, а не при отрисовке:
+    // пока их нет, объект рисуется целиком, по готовности панель перерисовывается (repaint можно звать из любого потока)
+    private void requestLodChain(Polyhedron polyhedron) {
+        if (!levelOfDetail || polyhedron == null) return;
+
+        CompletableFuture<LodChain> chain = polyhedron.buildLodChainAsync();
+        if (!chain.isDone()) {
+            chain.thenRun(this::repaint);
+        }
+    }
+
     public void setBackfaceCulling(boolean enabled) {
         this.backfaceCulling = enabled;
         repaint();
@@ -131,8 +231,12 @@ public class GraphicsPanel extends JPanel {
         if (zBufferEnabled) {
             drawWithZBuffer(g2d);
         } else {
-            for (Polyhedron p : scene) {
-                drawPolyhedron(g2d, p);
+            ProjectionTransformer projector = createWireframeProjector();
+            Frustum frustum = projector.createWorldFrustum(getWidth(), getHeight(), CULL_GUARD);
+            sceneBvh.update();
+            for (Polyhedron p : sceneBvh.collectVisible(frustum)) {
+                LodChain chain = levelOfDetail ? p.getLodChainIfReady() : null;
+                drawPolyhedron(g2d, (chain != null) ? chain.select(p, projector) : p, frustum);
             }
         }
     }
@@ -169,7 +273,8 @@ public class GraphicsPanel extends JPanel {
         g2d.drawString("Z", (int) zAxisEnd2D.getX() + 5, (int) zAxisEnd2D.getY() + 5);
     }
 
-    private void drawPolyhedron(Graphics2D g2d, Polyhedron polyhedron) {
+    // Рисуются только грани, чьи параллелепипеды пересекают пирамиду видимости frustum (в мировых координатах)
+    private void drawPolyhedron(Graphics2D g2d, Polyhedron polyhedron, Frustum frustum) {
         if (polyhedron == null) return;
 
         g2d.setStroke(new BasicStroke(2));
@@ -177,12 +282,40 @@ public class GraphicsPanel extends JPanel {
         int visibleFaces = 0;
         int totalFaces = polyhedron.getFaces().size();
 
-        for (Face face : polyhedron.getFaces()) {
+        // Матрица модели применяется к вершинам граней при отрисовке, сама модель не меняется
+        Matrix4 model = polyhedron.hasModelTransform() ? polyhedron.getModelMatrix() : null;
+        Matrix4 normalMatrix = (model != null) ? model.normalMatrix(new Matrix4()) : null;
+
+        List<Face> faces = polyhedron.getFaces();
+        if (culledFaces.length < totalFaces) {
+            culledFaces = new int[totalFaces];
+        }
+        int faceCount = FaceBvh.cullFaces(polyhedron, frustum, culledFaces);
+        boolean allFaces = faceCount < 0;
+        if (allFaces) {
+            faceCount = totalFaces;
+        }
+
+        for (int k = 0; k < faceCount; k++) {
+            Face face = faces.get(allFaces ? k : culledFaces[k]);
             List<Point3D> vertices = face.getVertices();
             if (vertices.size() < 2) continue;
 
+            Point3D normal = face.getNormal();
+            if (model != null) {
+                List<Point3D> worldVertices = new ArrayList<>(vertices.size());
+                for (Point3D vertex : vertices) {
+                    worldVertices.add(vertex.transform(model));
+                }
+                vertices = worldVertices;
+
+                double[] n = {normal.x(), normal.y(), normal.z()};
+                normalMatrix.transformNormals(n, n, 1);
+                normal = new Point3D(n[0], n[1], n[2]);
+            }
+
             // Проверка видимости грани
-            boolean isVisible = !backfaceCulling || isFaceVisible(face);
+            boolean isVisible = !backfaceCulling || isFaceVisible(vertices, normal);
             if (isVisible) {
                 visibleFaces++;
             } else {
@@ -220,19 +353,39 @@ public class GraphicsPanel extends JPanel {
             zBuffer = new ZBuffer(width, height);
         }
         zBuffer.clear();
+        zBuffer.setParallelRendering(parallelRendering);
+        zBuffer.setDeferredShading(deferredShading);
+        zBuffer.setOcclusionCulling(occlusionCulling);
+        zBuffer.setLevelOfDetail(levelOfDetail);
         zBuffer.setCamera(camera);
         zBuffer.setLights(lights); // Устанавливаем источники света
 
-        ProjectionTransformer projector;
+        zBuffer.renderScene(sceneBvh, createZBufferProjector());
+        zBuffer.display(g2d, getBackground());
+        drawCoordinateAxes(g2d);
+
+        g2d.setColor(Color.RED);
+        g2d.drawString(String.format("Кадр: %.1f мс (среднее %.1f мс)",
+                zBuffer.getLastFrameTimeMillis(), zBuffer.getAverageFrameTimeMillis()), 10, 20);
+        if (occlusionCulling) {
+            g2d.drawString(String.format("Отсечено перекрытых треугольников: %d",
+                    zBuffer.getCulledTriangleCount()), 10, 40);
+        }
+    }
+
+    private ProjectionTransformer createZBufferProjector() {
         if (camera != null) {
-            projector = new ProjectionTransformer(camera, scale, centerX, centerY);
-        } else {
-            projector = new ProjectionTransformer(projectionType, scale, centerX, centerY);
+            return new ProjectionTransformer(camera, scale, centerX, centerY);
         }
+        return new ProjectionTransformer(projectionType, scale, centerX, centerY);
+    }
 
-        zBuffer.renderScene(scene, projector);
-        zBuffer.display(g2d, getBackground());
-        drawCoordinateAxes(g2d);
+    // Та же проекция, что и в projectPoint: камера только в перспективе
+    private ProjectionTransformer createWireframeProjector() {
+        if ("perspective".equals(projectionType) && camera != null) {
+            return new ProjectionTransformer(camera, scale, centerX, centerY);
+        }
+        return new ProjectionTransformer(projectionType, scale, centerX, centerY);
     }
 
     public void setLights(List<Light> lights) {
@@ -244,12 +397,10 @@ public class GraphicsPanel extends JPanel {
     }
 
     // Проверка видимости грани
-    private boolean isFaceVisible(Face face) {
-        if (face.getVertices().size() < 3) return true;
-
-        Point3D normal = face.getNormal();
+    private boolean isFaceVisible(List<Point3D> vertices, Point3D normal) {
+        if (vertices.size() < 3) return true;
 
-        Point3D faceCenter = AffineTransform.getCenter(face.getVertices());
+        Point3D faceCenter = AffineTransform.getCenter(vertices);
         double dotProduct;
 
         if ("perspective".equals(projectionType) && camera != null) {
@@ -287,11 +438,8 @@ public class GraphicsPanel extends JPanel {
     private Point2D projectPoint(Point3D point3d) {
         Point3D transformedPoint;
         if ("perspective".equals(projectionType) && camera != null) {
-            // Применяем view и perspective матрицы камеры
-            double[][] view = camera.getViewMatrix();
-            double[][] projection = camera.getPerspectiveMatrix();
-            Point3D viewPoint = point3d.transform(view);
-            transformedPoint = viewPoint.transform(projection);
+            // Применяем произведение view и perspective матриц камеры
+            transformedPoint = camera.getViewProjectionMatrix().transform(point3d);
 
             // Преобразуем к экранным координатам
             int screenX = (int) (centerX + transformedPoint.x() * scale);
@@ -302,7 +450,7 @@ public class GraphicsPanel extends JPanel {
 
         Point3D scaledPoint = new Point3D(point3d.x() * scale, point3d.y() * scale, point3d.z() * scale);
 
-        double[][] projectionMatrix;
+        Matrix4 projectionMatrix;
 
         if ("perspective".equals(projectionType)) {
             double distance = 500;
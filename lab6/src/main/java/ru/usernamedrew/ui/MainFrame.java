@@ -3,6 +3,7 @@ package ru.usernamedrew.ui;
 import ru.usernamedrew.controller.CameraController;
 import ru.usernamedrew.model.*;
 import ru.usernamedrew.util.AffineTransform;
+import ru.usernamedrew.util.Matrix4;
 import ru.usernamedrew.util.PolyhedronIO;
 import ru.usernamedrew.util.ZBuffer;
 
@@ -13,11 +14,14 @@ import java.awt.event.MouseListener;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Objects;
-import java.util.function.BiFunction;
+import java.util.function.DoubleBinaryOperator;
 import java.util.List; // Добавьте этот импорт
 import java.util.ArrayList; // И этот
 
 public class MainFrame extends JFrame {
+    // Глубина адаптивного разбиения ячейки базовой сетки поверхности
+    private static final int ADAPTIVE_SURFACE_DEPTH = 6;
+
     private GraphicsPanel graphicsPanel;
     private Polyhedron currentPolyhedron;
     private Camera camera;
@@ -35,6 +39,8 @@ public class MainFrame extends JFrame {
 
         // Создаем панель для отрисовки
         graphicsPanel = new GraphicsPanel();
+        // Объект, выбранный щелчком, становится текущим для преобразований
+        graphicsPanel.setSelectionListener(polyhedron -> currentPolyhedron = polyhedron);
 
         // Создаем основную панель управления с прокруткой
         JPanel mainControlPanel = createMainControlPanel();
@@ -128,6 +134,10 @@ public class MainFrame extends JFrame {
         panel.add(reflectBtn);
         panel.add(arbitraryRotateBtn);
 
+        JButton bakeBtn = new JButton("Применить к вершинам");
+        bakeBtn.addActionListener(this::handleBake);
+        panel.add(bakeBtn);
+
         return panel;
     }
 
@@ -265,6 +275,38 @@ public class MainFrame extends JFrame {
         zBufferToggleBtn.addActionListener(e -> toggleZBuffer(zBufferToggleBtn));
         panel.add(zBufferToggleBtn);
 
+        // Многопоточная растеризация по тайлам
+        JCheckBox parallelCheckbox = new JCheckBox("Многопоточная растеризация", false);
+        parallelCheckbox.addActionListener(e -> {
+            graphicsPanel.setParallelRendering(parallelCheckbox.isSelected());
+            graphicsPanel.requestFocusInWindow();
+        });
+        panel.add(parallelCheckbox);
+
+        // Отложенное освещение для режимов Фонга
+        JCheckBox deferredCheckbox = new JCheckBox("Отложенное освещение", false);
+        deferredCheckbox.addActionListener(e -> {
+            graphicsPanel.setDeferredShading(deferredCheckbox.isSelected());
+            graphicsPanel.requestFocusInWindow();
+        });
+        panel.add(deferredCheckbox);
+
+        // Предварительный проход по глубине и иерархический z-буфер
+        JCheckBox occlusionCheckbox = new JCheckBox("Отсечение перекрытых", false);
+        occlusionCheckbox.addActionListener(e -> {
+            graphicsPanel.setOcclusionCulling(occlusionCheckbox.isSelected());
+            graphicsPanel.requestFocusInWindow();
+        });
+        panel.add(occlusionCheckbox);
+
+        // Упрощенные копии объектов для мелких на экране объектов
+        JCheckBox lodCheckbox = new JCheckBox("Уровни детализации", false);
+        lodCheckbox.addActionListener(e -> {
+            graphicsPanel.setLevelOfDetail(lodCheckbox.isSelected());
+            graphicsPanel.requestFocusInWindow();
+        });
+        panel.add(lodCheckbox);
+
         return panel;
     }
 
@@ -378,15 +420,17 @@ public class MainFrame extends JFrame {
     private void handleAutoRotation(ActionEvent e) {
         if (currentPolyhedron == null) return;
 
+        Polyhedron rotated = currentPolyhedron;
         Thread rotationThread = new Thread(() -> {
             try {
                 for (int i = 0; i < 360; i += 5) {
                     double angle = Math.toRadians(i);
-                    double[][] rotationMatrix = AffineTransform.createRotationYMatrix(angle);
-                    currentPolyhedron = currentPolyhedron.transform(rotationMatrix);
+                    Matrix4 rotationMatrix = AffineTransform.createRotationYMatrix(angle);
 
+                    // Поворот дописывается в матрицу модели в потоке отрисовки
                     SwingUtilities.invokeLater(() -> {
-                        graphicsPanel.setPolyhedron(currentPolyhedron);
+                        rotated.compose(rotationMatrix);
+                        graphicsPanel.setPolyhedron(rotated);
                     });
 
                     Thread.sleep(50);
@@ -415,9 +459,8 @@ public class MainFrame extends JFrame {
             double dy = Double.parseDouble(yStr);
             double dz = Double.parseDouble(zStr);
 
-            double[][] matrix = AffineTransform.createTranslationMatrix(dx, dy, dz);
-            currentPolyhedron = currentPolyhedron.transform(matrix);
-            currentPolyhedron.recalculateNormals();
+            Matrix4 matrix = AffineTransform.createTranslationMatrix(dx, dy, dz);
+            currentPolyhedron.compose(matrix);
             graphicsPanel.updateActivePolyhedron(currentPolyhedron);
             graphicsPanel.requestFocusInWindow();
         } catch (NumberFormatException ex) {
@@ -425,19 +468,32 @@ public class MainFrame extends JFrame {
         }
     }
 
+    // Преобразования копятся в матрице модели; по запросу она применяется к вершинам
+    private void handleBake(ActionEvent e) {
+        if (currentPolyhedron == null) return;
+
+        currentPolyhedron.bake();
+        graphicsPanel.updateActivePolyhedron(currentPolyhedron);
+        graphicsPanel.requestFocusInWindow();
+    }
+
+    // Центр вершин в мировых координатах: аффинное преобразование сохраняет центр масс
+    private Point3D getWorldCenter(Polyhedron polyhedron) {
+        return AffineTransform.getCenter(polyhedron.getVertices()).transform(polyhedron.getModelMatrix());
+    }
+
     private void scaleAroundPoint(Point3D point, double scale) {
         if (currentPolyhedron == null) return;
 
         try {
-            double[][] T_neg = AffineTransform.createTranslationMatrix(-point.x(), -point.y(), -point.z());
-            double[][] S = AffineTransform.createScalingMatrix(scale, scale, scale);
-            double[][] T_pos = AffineTransform.createTranslationMatrix(point.x(), point.y(), point.z());
+            Matrix4 T_neg = AffineTransform.createTranslationMatrix(-point.x(), -point.y(), -point.z());
+            Matrix4 S = AffineTransform.createScalingMatrix(scale, scale, scale);
+            Matrix4 T_pos = AffineTransform.createTranslationMatrix(point.x(), point.y(), point.z());
 
-            double[][] M1 = AffineTransform.multiplyMatrices(S, T_neg);
-            double[][] transform = AffineTransform.multiplyMatrices(T_pos, M1);
+            Matrix4 M1 = AffineTransform.multiplyMatrices(S, T_neg);
+            Matrix4 transform = AffineTransform.multiplyMatrices(T_pos, M1);
 
-            currentPolyhedron = currentPolyhedron.transform(transform);
-            currentPolyhedron.recalculateNormals();
+            currentPolyhedron.compose(transform);
             graphicsPanel.updateActivePolyhedron(currentPolyhedron);
             graphicsPanel.requestFocusInWindow();
         } catch (NumberFormatException ex) {
@@ -474,23 +530,22 @@ public class MainFrame extends JFrame {
             }
             double scale = Double.parseDouble(scaleStr);
 
-            scaleAroundPoint(AffineTransform.getCenter(currentPolyhedron.getVertices()), scale);
+            scaleAroundPoint(getWorldCenter(currentPolyhedron), scale);
         } catch (NumberFormatException ex) {
             JOptionPane.showMessageDialog(this, "Неверный ввод!");
         }
     }
 
-    private void rotateAroundPoint(double[][] rotationMatrix, Point3D point) {
+    private void rotateAroundPoint(Matrix4 rotationMatrix, Point3D point) {
         try {
 
-            double[][] T_neg = AffineTransform.createTranslationMatrix(-point.x(), -point.y(), -point.z());
-            double[][] T_pos = AffineTransform.createTranslationMatrix(point.x(), point.y(), point.z());
+            Matrix4 T_neg = AffineTransform.createTranslationMatrix(-point.x(), -point.y(), -point.z());
+            Matrix4 T_pos = AffineTransform.createTranslationMatrix(point.x(), point.y(), point.z());
 
-            double[][] M1 = AffineTransform.multiplyMatrices(rotationMatrix, T_neg);
-            double[][] transform = AffineTransform.multiplyMatrices(T_pos, M1);
+            Matrix4 M1 = AffineTransform.multiplyMatrices(rotationMatrix, T_neg);
+            Matrix4 transform = AffineTransform.multiplyMatrices(T_pos, M1);
 
-            currentPolyhedron = currentPolyhedron.transform(transform);
-            currentPolyhedron.recalculateNormals();
+            currentPolyhedron.compose(transform);
             graphicsPanel.updateActivePolyhedron(currentPolyhedron);
             graphicsPanel.requestFocusInWindow();
         } catch (NumberFormatException ex) {
@@ -512,7 +567,7 @@ public class MainFrame extends JFrame {
                 return;
             }
             double angle = Math.toRadians(Double.parseDouble(angleStr));
-            double[][] rotationMatrix;
+            Matrix4 rotationMatrix;
 
             switch (axis) {
                 case "Ось X" -> rotationMatrix = AffineTransform.createRotationXMatrix(angle);
@@ -542,7 +597,7 @@ public class MainFrame extends JFrame {
                 return;
             }
             double angle = Math.toRadians(Double.parseDouble(angleStr));
-            double[][] rotationMatrix;
+            Matrix4 rotationMatrix;
 
             switch (axis) {
                 case "Ось X" -> rotationMatrix = AffineTransform.createRotationXMatrix(angle);
@@ -550,7 +605,7 @@ public class MainFrame extends JFrame {
                 case "Ось Z" -> rotationMatrix = AffineTransform.createRotationZMatrix(angle);
                 default -> rotationMatrix = AffineTransform.createIdentityMatrix();
             }
-            Point3D center = AffineTransform.getCenter(currentPolyhedron.getVertices());
+            Point3D center = getWorldCenter(currentPolyhedron);
 
             rotateAroundPoint(rotationMatrix, center);
         } catch (NumberFormatException ex) {
@@ -566,9 +621,8 @@ public class MainFrame extends JFrame {
                 "Отражение", JOptionPane.QUESTION_MESSAGE, null, options, options[0]);
 
         String planeCode = plane.split(" ")[1].toLowerCase();
-        double[][] matrix = AffineTransform.createReflectionMatrix(planeCode);
-        currentPolyhedron = currentPolyhedron.transform(matrix);
-        currentPolyhedron.recalculateNormals();
+        Matrix4 matrix = AffineTransform.createReflectionMatrix(planeCode);
+        currentPolyhedron.compose(matrix);
         graphicsPanel.updateActivePolyhedron(currentPolyhedron);
         graphicsPanel.requestFocusInWindow();
     }
@@ -602,10 +656,9 @@ public class MainFrame extends JFrame {
 
             Point3D V = normalizeVector(new Point3D(vx, vy, vz));
 
-            double[][] matrix = AffineTransform.createRotationAroundArbitraryAxis(A, V, angle);
+            Matrix4 matrix = AffineTransform.createRotationAroundArbitraryAxis(A, V, angle);
 
-            currentPolyhedron = currentPolyhedron.transform(matrix);
-            currentPolyhedron.recalculateNormals();
+            currentPolyhedron.compose(matrix);
             graphicsPanel.updateActivePolyhedron(currentPolyhedron);
             graphicsPanel.requestFocusInWindow();
         } catch (NumberFormatException ex) {
@@ -620,19 +673,23 @@ public class MainFrame extends JFrame {
                 "Параболоид (x^2 + y^2)", "Синусоида (sin(x) * cos(y))"
         });
 
+        // Адаптивное разбиение: мелкие ячейки только там, где поверхность заметно изгибается
+        JCheckBox adaptiveCheckbox = new JCheckBox("Адаптивно", false);
+
         JButton buildSurfaceBtn = new JButton("Построить Поверхность");
-        buildSurfaceBtn.addActionListener(e -> handleSurfaceCreation(functionCombo));
+        buildSurfaceBtn.addActionListener(e -> handleSurfaceCreation(functionCombo, adaptiveCheckbox.isSelected()));
 
         panel.add(new JLabel("Поверхность:"));
         panel.add(functionCombo);
+        panel.add(adaptiveCheckbox);
         panel.add(buildSurfaceBtn);
         graphicsPanel.requestFocusInWindow();
         return panel;
     }
 
-    private void handleSurfaceCreation(JComboBox<String> functionCombo) {
+    private void handleSurfaceCreation(JComboBox<String> functionCombo, boolean adaptive) {
         String selectedFunction = (String) functionCombo.getSelectedItem();
-        BiFunction<Double, Double, Double> function;
+        DoubleBinaryOperator function;
 
         if (selectedFunction == null) return;
 
@@ -650,9 +707,10 @@ public class MainFrame extends JFrame {
         String y0Str = JOptionPane.showInputDialog("Введите Y0:");
         String y1Str = JOptionPane.showInputDialog("Введите Y1:");
         String nStr = JOptionPane.showInputDialog("Введите количество разбиений (Nx, Ny):");
+        String toleranceStr = adaptive ? JOptionPane.showInputDialog("Введите допуск отклонения:", "0.001") : "0";
 
         try {
-            if (x0Str == null || x1Str == null || y0Str == null || y1Str == null || nStr == null) {
+            if (x0Str == null || x1Str == null || y0Str == null || y1Str == null || nStr == null || toleranceStr == null) {
                 return;
             }
 
@@ -661,17 +719,25 @@ public class MainFrame extends JFrame {
             double y0 = Double.parseDouble(y0Str);
             double y1 = Double.parseDouble(y1Str);
             int n = Integer.parseInt(nStr);
+            double tolerance = Double.parseDouble(toleranceStr);
 
             if (n <= 0) {
                 JOptionPane.showMessageDialog(this, "Колво разбиений должно быть > 0");
                 return;
             }
+            if (!(tolerance >= 0)) {
+                JOptionPane.showMessageDialog(this, "Допуск должен быть >= 0");
+                return;
+            }
 
-            currentPolyhedron = SurfaceFactory.createSurface(function, x0, x1, y0, y1, n, n);
-            currentPolyhedron.recalculateNormals();
+            // Нормали граней и вершин поверхность получает при построении, все с одной стороны сетки.
+            // В адаптивном режиме n - базовая сетка, каждая ячейка делится не более ADAPTIVE_SURFACE_DEPTH раз
+            currentPolyhedron = adaptive
+                    ? SurfaceFactory.createAdaptiveSurface(function, x0, x1, y0, y1, n, n, tolerance, ADAPTIVE_SURFACE_DEPTH)
+                    : SurfaceFactory.createSurface(function, x0, x1, y0, y1, n, n);
             graphicsPanel.addPolyhedron(currentPolyhedron);
             graphicsPanel.requestFocusInWindow();
-        } catch (NumberFormatException ex) {
+        } catch (IllegalArgumentException ex) { // в том числе NumberFormatException
             JOptionPane.showMessageDialog(this, "Ошибка");
         }
     }
@@ -711,8 +777,11 @@ public class MainFrame extends JFrame {
         JButton saveBtn = new JButton("Сохранить модель");
         saveBtn.addActionListener(e -> handleSaveModel());
 
+        // Двоичный кэш рядом с OBJ: повторная загрузка без разбора текста
+        JCheckBox meshCacheCheckbox = new JCheckBox("Кэш модели", false);
+
         JButton loadBtn = new JButton("Загрузить модель");
-        loadBtn.addActionListener(e -> handleLoadModel());
+        loadBtn.addActionListener(e -> handleLoadModel(meshCacheCheckbox.isSelected()));
 
         panel.add(new JLabel("Фигура вращения:"));
         panel.add(shapeCombo);
@@ -723,6 +792,7 @@ public class MainFrame extends JFrame {
         panel.add(buildRevolutionBtn);
         panel.add(saveBtn);
         panel.add(loadBtn);
+        panel.add(meshCacheCheckbox);
 
         return panel;
     }
@@ -842,7 +912,7 @@ public class MainFrame extends JFrame {
         }
     }
 
-    private void handleLoadModel() {
+    private void handleLoadModel(boolean useCache) {
         // 1. Открывает диалог выбора файла
         // 2. Вызывает PolyhedronIO.loadFromFile()
         // 3. Устанавливает загруженную модель в graphicsPanel
@@ -852,10 +922,14 @@ public class MainFrame extends JFrame {
 
         if (fileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
             try {
-                currentPolyhedron = PolyhedronIO.loadFromFile(fileChooser.getSelectedFile().getAbsolutePath());
+                String filename = fileChooser.getSelectedFile().getAbsolutePath();
+                PolyhedronIO.LoadResult result = useCache ? PolyhedronIO.loadCached(filename) : PolyhedronIO.load(filename);
+                currentPolyhedron = result.polyhedron();
                 graphicsPanel.requestFocusInWindow();
                 graphicsPanel.addPolyhedron(currentPolyhedron);
-                JOptionPane.showMessageDialog(this, "Модель успешно загружена");
+                JOptionPane.showMessageDialog(this, String.format("Модель успешно загружена%s: %d вершин, %d граней, %.1f МБ/с, %d мс",
+                        result.cached() ? " из кэша" : "", currentPolyhedron.getVertexCount(),
+                        currentPolyhedron.getFaceCount(), result.megabytesPerSecond(), result.nanos() / 1_000_000));
             } catch (IOException ex) {
                 JOptionPane.showMessageDialog(this, "Ошибка при загрузке: " + ex.getMessage());
             }
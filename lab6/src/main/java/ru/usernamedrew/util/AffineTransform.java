@@ -5,100 +5,91 @@ import ru.usernamedrew.model.Point3D;
 import java.util.List;
 
 public class AffineTransform {
-
-    public static double[][] createIdentityMatrix() {
-        return new double[][] {
-                {1, 0, 0, 0},
-                {0, 1, 0, 0},
-                {0, 0, 1, 0},
-                {0, 0, 0, 1}
-        };
+    public static Matrix4 createIdentityMatrix() {
+        return new Matrix4(
+                1, 0, 0, 0,
+                0, 1, 0, 0,
+                0, 0, 1, 0,
+                0, 0, 0, 1
+        );
     }
 
-    public static double[][] createTranslationMatrix(double dx, double dy, double dz) {
-        return new double[][] {
-                {1, 0, 0, dx},
-                {0, 1, 0, dy},
-                {0, 0, 1, dz},
-                {0, 0, 0, 1}
-        };
+    public static Matrix4 createTranslationMatrix(double dx, double dy, double dz) {
+        return new Matrix4(
+                1, 0, 0, dx,
+                0, 1, 0, dy,
+                0, 0, 1, dz,
+                0, 0, 0, 1
+        );
     }
 
-    public static double[][] createScalingMatrix(double sx, double sy, double sz) {
-        return new double[][] {
-                {sx, 0, 0, 0},
-                {0, sy, 0, 0},
-                {0, 0, sz, 0},
-                {0, 0, 0, 1}
-        };
+    public static Matrix4 createScalingMatrix(double sx, double sy, double sz) {
+        return new Matrix4(
+                sx, 0, 0, 0,
+                0, sy, 0, 0,
+                0, 0, sz, 0,
+                0, 0, 0, 1
+        );
     }
 
-    public static double[][] createRotationXMatrix(double angle) {
+    public static Matrix4 createRotationXMatrix(double angle) {
         double cos = Math.cos(angle);
         double sin = Math.sin(angle);
-        return new double[][] {
-                {1, 0, 0, 0},
-                {0, cos, -sin, 0},
-                {0, sin, cos, 0},
-                {0, 0, 0, 1}
-        };
+        return new Matrix4(
+                1, 0, 0, 0,
+                0, cos, -sin, 0,
+                0, sin, cos, 0,
+                0, 0, 0, 1
+        );
     }
 
-    public static double[][] createRotationYMatrix(double angle) {
+    public static Matrix4 createRotationYMatrix(double angle) {
         double cos = Math.cos(angle);
         double sin = Math.sin(angle);
-        return new double[][] {
-                {cos, 0, sin, 0},
-                {0, 1, 0, 0},
-                {-sin, 0, cos, 0},
-                {0, 0, 0, 1}
-        };
+        return new Matrix4(
+                cos, 0, sin, 0,
+                0, 1, 0, 0,
+                -sin, 0, cos, 0,
+                0, 0, 0, 1
+        );
     }
 
-    public static double[][] createRotationZMatrix(double angle) {
+    public static Matrix4 createRotationZMatrix(double angle) {
         double cos = Math.cos(angle);
         double sin = Math.sin(angle);
-        return new double[][] {
-                {cos, -sin, 0, 0},
-                {sin, cos, 0, 0},
-                {0, 0, 1, 0},
-                {0, 0, 0, 1}
-        };
+        return new Matrix4(
+                cos, -sin, 0, 0,
+                sin, cos, 0, 0,
+                0, 0, 1, 0,
+                0, 0, 0, 1
+        );
     }
 
-    public static double[][] multiplyMatrices(double[][] a, double[][] b) {
-        double[][] result = new double[4][4];
-        for (int i = 0; i < 4; i++) {
-            for (int j = 0; j < 4; j++) {
-                result[i][j] = 0;
-                for (int k = 0; k < 4; k++) {
-                    result[i][j] += a[i][k] * b[k][j];
-                }
-            }
-        }
-        return result;
+    // Новая матрица a * b; без выделения памяти - Matrix4.multiply(a, b, dest)
+    public static Matrix4 multiplyMatrices(Matrix4 a, Matrix4 b) {
+        return Matrix4.multiply(a, b, new Matrix4());
     }
 
-    public static double[][] createReflectionMatrix(String plane) {
+    public static Matrix4 createReflectionMatrix(String plane) {
         return switch (plane.toLowerCase()) {
-            case "xy" -> new double[][] {
-                    {1, 0, 0, 0},
-                    {0, 1, 0, 0},
-                    {0, 0, -1, 0},
-                    {0, 0, 0, 1}
-            };
-            case "xz" -> new double[][] {
-                    {1, 0, 0, 0},
-                    {0, -1, 0, 0},
-                    {0, 0, 1, 0},
-                    {0, 0, 0, 1}
-            };
-            case "yz" -> new double[][] {
-                    {-1, 0, 0, 0},
-                    {0, 1, 0, 0},
-                    {0, 0, 1, 0},
-                    {0, 0, 0, 1}
-            };
+            case "xy" -> new Matrix4(
+                    1, 0, 0, 0,
+                    0, 1, 0, 0,
+                    0, 0, -1, 0,
+                    0, 0, 0, 1
+            );
+            case "xz" -> new Matrix4(
+                    1, 0, 0, 0,
+                    0, -1, 0, 0,
+                    0, 0, 1, 0,
+                    0, 0, 0, 1
+            );
+            case "yz" -> new Matrix4(
+                    -1, 0, 0, 0,
+                    0, 1, 0, 0,
+                    0, 0, 1, 0,
+                    0, 0, 0, 1
+            );
             default -> createIdentityMatrix();
         };
     }
@@ -114,31 +105,31 @@ public class AffineTransform {
         return new Point3D(sumX / count, sumY / count, sumZ / count);
     }
 
-    public static double[][] createAxonometricProjectionMatrix(double angle) {
+    public static Matrix4 createAxonometricProjectionMatrix(double angle) {
         double cosA = Math.cos(angle);
         double sinA = Math.sin(angle);
         double factor = 0.5;
 
-        return new double[][] {
-                {cosA, 0, sinA, 0},
-                {sinA * factor, 1, -cosA * factor, 0},
-                {0, 0, 0, 0},
-                {0, 0, 0, 1}
-        };
+        return new Matrix4(
+                cosA, 0, sinA, 0,
+                sinA * factor, 1, -cosA * factor, 0,
+                0, 0, 0, 0,
+                0, 0, 0, 1
+        );
     }
 
-    public static double[][] createPerspectiveProjectionMatrix(double distance) {
-        return new double[][] {
-                {1, 0, 0, 0},
-                {0, 1, 0, 0},
-                {0, 0, 1, 0},
-                {0, 0, -1.0 / distance, 1}
-        };
+    public static Matrix4 createPerspectiveProjectionMatrix(double distance) {
+        return new Matrix4(
+                1, 0, 0, 0,
+                0, 1, 0, 0,
+                0, 0, 1, 0,
+                0, 0, -1.0 / distance, 1
+        );
     }
 
-    public static double[][] createRotationAroundArbitraryAxis(Point3D A, Point3D V, double angle) {
+    public static Matrix4 createRotationAroundArbitraryAxis(Point3D A, Point3D V, double angle) {
         // Перенести прямую L в центр координат на –А (-a,-b,-c)
-        double[][] T_neg = createTranslationMatrix(-A.x(), -A.y(), -A.z());
+        Matrix4 T_neg = createTranslationMatrix(-A.x(), -A.y(), -A.z());
 
         double l = V.x();
         double m = V.y();
@@ -146,8 +137,8 @@ public class AffineTransform {
 
         // совмещаем V с плоскостью XZ
         double r = Math.sqrt(m * m + n * n);
-        double[][] Rx = createIdentityMatrix();
-        double[][] Rx_inv = createIdentityMatrix();
+        Matrix4 Rx = createIdentityMatrix();
+        Matrix4 Rx_inv = createIdentityMatrix();
 
         if (r > 1e-6) {
             double cosAlpha = n / r;
@@ -159,8 +150,8 @@ public class AffineTransform {
         }
 
         // совмещаем с осью Z
-        double[][] Ry = createIdentityMatrix();
-        double[][] Ry_inv = createIdentityMatrix();
+        Matrix4 Ry = createIdentityMatrix();
+        Matrix4 Ry_inv = createIdentityMatrix();
 
         if (r > 1e-6) {
             double cosBeta = r;
@@ -172,21 +163,21 @@ public class AffineTransform {
         }
 
         // поворачиваем на угол
-        double[][] Rz = createRotationZMatrix(angle);
+        Matrix4 Rz = createRotationZMatrix(angle);
 
         // перенос обратно
-        double[][] T_pos = createTranslationMatrix(A.x(), A.y(), A.z());
+        Matrix4 T_pos = createTranslationMatrix(A.x(), A.y(), A.z());
 
         // объединяем все матрицы
-        double[][] M1 = multiplyMatrices(Rx, T_neg);
-        double[][] M2 = multiplyMatrices(Ry, M1);
+        Matrix4 M1 = multiplyMatrices(Rx, T_neg);
+        Matrix4 M2 = multiplyMatrices(Ry, M1);
 
-        double[][] M3 = multiplyMatrices(Rz, M2);
+        Matrix4 M3 = multiplyMatrices(Rz, M2);
 
-        double[][] M4 = multiplyMatrices(Rx_inv, M3);
-        double[][] M5 = multiplyMatrices(Ry_inv, M4);
+        Matrix4 M4 = multiplyMatrices(Rx_inv, M3);
+        Matrix4 M5 = multiplyMatrices(Ry_inv, M4);
 
-        double[][] M_total = multiplyMatrices(T_pos, M5);
+        Matrix4 M_total = multiplyMatrices(T_pos, M5);
 
         return M_total;
     }
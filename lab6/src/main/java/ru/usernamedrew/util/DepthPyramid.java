@@ -0,0 +1,110 @@
+package ru.usernamedrew.util;
+
+import java.util.Arrays;
+
+// Иерархический z-буфер: максимальная (самая дальняя) глубина по блокам 8x8 пикселей
+// и второй уровень по блокам 64x64. Геометрия, ближайшая точка которой не ближе
+// максимума по всем покрываемым блокам, заведомо не пройдет тест глубины
+public class DepthPyramid {
+    public static final int BLOCK_SIZE = 8;
+    private static final int LEVEL_RATIO = 8;
+
+    private final int width;
+    private final int height;
+    private final int blocksX;
+    private final int blocksY;
+    private final int superBlocksX;
+    private final int superBlocksY;
+    private final float[] blockMax;
+    private final float[] superBlockMax;
+
+    public DepthPyramid(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.blocksX = (width + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        this.blocksY = (height + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        this.superBlocksX = (blocksX + LEVEL_RATIO - 1) / LEVEL_RATIO;
+        this.superBlocksY = (blocksY + LEVEL_RATIO - 1) / LEVEL_RATIO;
+        this.blockMax = new float[blocksX * blocksY];
+        this.superBlockMax = new float[superBlocksX * superBlocksY];
+        clear();
+    }
+
+    public void clear() {
+        Arrays.fill(blockMax, Float.POSITIVE_INFINITY);
+        Arrays.fill(superBlockMax, Float.POSITIVE_INFINITY);
+    }
+
+    // Пересчет блоков, покрывающих пиксельный прямоугольник, по построчному буферу глубины
+    public void update(float[] depthBuffer, int minX, int minY, int maxX, int maxY) {
+        minX = Math.max(0, minX);
+        minY = Math.max(0, minY);
+        maxX = Math.min(width - 1, maxX);
+        maxY = Math.min(height - 1, maxY);
+        if (minX > maxX || minY > maxY) return;
+
+        int bx0 = minX / BLOCK_SIZE, bx1 = maxX / BLOCK_SIZE;
+        int by0 = minY / BLOCK_SIZE, by1 = maxY / BLOCK_SIZE;
+
+        for (int by = by0; by <= by1; by++) {
+            int yEnd = Math.min(height, (by + 1) * BLOCK_SIZE);
+            for (int bx = bx0; bx <= bx1; bx++) {
+                int xStart = bx * BLOCK_SIZE;
+                int xEnd = Math.min(width, xStart + BLOCK_SIZE);
+                float max = Float.NEGATIVE_INFINITY;
+                for (int y = by * BLOCK_SIZE; y < yEnd && max != Float.POSITIVE_INFINITY; y++) {
+                    int row = y * width;
+                    for (int x = xStart; x < xEnd; x++) {
+                        max = Math.max(max, depthBuffer[row + x]);
+                    }
+                }
+                blockMax[by * blocksX + bx] = max;
+            }
+        }
+
+        for (int sy = by0 / LEVEL_RATIO; sy <= by1 / LEVEL_RATIO; sy++) {
+            for (int sx = bx0 / LEVEL_RATIO; sx <= bx1 / LEVEL_RATIO; sx++) {
+                superBlockMax[sy * superBlocksX + sx] = maxOverBlocks(
+                        sx * LEVEL_RATIO, sy * LEVEL_RATIO,
+                        Math.min(blocksX, (sx + 1) * LEVEL_RATIO) - 1,
+                        Math.min(blocksY, (sy + 1) * LEVEL_RATIO) - 1);
+            }
+        }
+    }
+
+    // true, если в экранном прямоугольнике нет пикселя, где глубина minDepth окажется строго ближе текущей
+    public boolean isOccluded(double minX, double minY, double maxX, double maxY, float minDepth) {
+        if (maxX < 0 || maxY < 0 || minX >= width || minY >= height) return true;
+
+        int bx0 = Math.max(0, (int) Math.floor(minX) - 1) / BLOCK_SIZE;
+        int by0 = Math.max(0, (int) Math.floor(minY) - 1) / BLOCK_SIZE;
+        int bx1 = (int) Math.min(width - 1, Math.ceil(maxX) + 1) / BLOCK_SIZE;
+        int by1 = (int) Math.min(height - 1, Math.ceil(maxY) + 1) / BLOCK_SIZE;
+
+        // Сначала грубый уровень, к блокам 8x8 спускаемся только там, где он не отсекает
+        for (int sy = by0 / LEVEL_RATIO; sy <= by1 / LEVEL_RATIO; sy++) {
+            for (int sx = bx0 / LEVEL_RATIO; sx <= bx1 / LEVEL_RATIO; sx++) {
+                if (minDepth >= superBlockMax[sy * superBlocksX + sx]) continue;
+
+                int fromX = Math.max(bx0, sx * LEVEL_RATIO);
+                int fromY = Math.max(by0, sy * LEVEL_RATIO);
+                int toX = Math.min(bx1, (sx + 1) * LEVEL_RATIO - 1);
+                int toY = Math.min(by1, (sy + 1) * LEVEL_RATIO - 1);
+                if (minDepth < maxOverBlocks(fromX, fromY, toX, toY)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private float maxOverBlocks(int bx0, int by0, int bx1, int by1) {
+        float max = Float.NEGATIVE_INFINITY;
+        for (int by = by0; by <= by1; by++) {
+            for (int bx = bx0; bx <= bx1; bx++) {
+                max = Math.max(max, blockMax[by * blocksX + bx]);
+            }
+        }
+        return max;
+    }
+}
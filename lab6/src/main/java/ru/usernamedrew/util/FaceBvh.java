@@ -0,0 +1,273 @@
+package ru.usernamedrew.util;
+
+import ru.usernamedrew.model.Polyhedron;
+
+import java.util.Arrays;
+
+// Иерархия ограничивающих параллелепипедов над гранями одного многогранника, в его локальных координатах.
+// Узлы лежат в плоских массивах: узел n покрывает грани order[start[n] .. end[n]), у внутреннего узла
+// потомки left[n] и left[n] + 1, у листа left[n] = -1. Строится сверху вниз делением по медиане центров
+// граней вдоль самой длинной оси. Грань - веер треугольников от первой вершины, как при растеризации
+public class FaceBvh {
+    private static final int LEAF_SIZE = 8;
+
+    private double[] bounds; // по 6 чисел на узел: min x, y, z, max x, y, z
+    private int[] left;
+    private int[] start;
+    private int[] end;
+    private final int[] order;
+    private final int faceCount;
+    private int nodeCount;
+
+    private FaceBvh(int faceCount) {
+        this.faceCount = faceCount;
+        // Листья не меньше LEAF_SIZE / 2 граней, если центры не совпадают; иначе массивы дорастут
+        int capacity = Math.max(1, 4 * faceCount / LEAF_SIZE + 1);
+        bounds = new double[capacity * 6];
+        left = new int[capacity];
+        start = new int[capacity];
+        end = new int[capacity];
+        order = new int[faceCount];
+    }
+
+    public static FaceBvh build(Polyhedron mesh) {
+        double[] positions = mesh.getPositions();
+        int[] faceIndices = mesh.getFaceIndices();
+        int[] faceOffsets = mesh.getFaceOffsets();
+        int faceCount = mesh.getFaceCount();
+
+        FaceBvh bvh = new FaceBvh(faceCount);
+        double[] faceBounds = new double[faceCount * 6];
+        double[] centers = new double[faceCount * 3];
+        for (int f = 0; f < faceCount; f++) {
+            bvh.order[f] = f;
+            int b = f * 6;
+            emptyBox(faceBounds, b);
+            for (int k = faceOffsets[f]; k < faceOffsets[f + 1]; k++) {
+                int v3 = faceIndices[k] * 3;
+                include(faceBounds, b, positions[v3], positions[v3 + 1], positions[v3 + 2]);
+            }
+            for (int axis = 0; axis < 3; axis++) {
+                centers[f * 3 + axis] = (faceBounds[b + axis] + faceBounds[b + 3 + axis]) / 2;
+            }
+        }
+
+        bvh.nodeCount = 1;
+        bvh.buildNode(0, 0, faceCount, faceBounds, centers);
+        return bvh;
+    }
+
+    private void buildNode(int node, int from, int to, double[] faceBounds, double[] centers) {
+        start[node] = from;
+        end[node] = to;
+        left[node] = -1;
+        int b = node * 6;
+        emptyBox(bounds, b);
+        double[] centerBox = new double[6];
+        emptyBox(centerBox, 0);
+        for (int i = from; i < to; i++) {
+            int f = order[i];
+            include(bounds, b, faceBounds[f * 6], faceBounds[f * 6 + 1], faceBounds[f * 6 + 2]);
+            include(bounds, b, faceBounds[f * 6 + 3], faceBounds[f * 6 + 4], faceBounds[f * 6 + 5]);
+            include(centerBox, 0, centers[f * 3], centers[f * 3 + 1], centers[f * 3 + 2]);
+        }
+        if (to - from <= LEAF_SIZE) return;
+
+        int axis = 0;
+        for (int a = 1; a < 3; a++) {
+            if (centerBox[3 + a] - centerBox[a] > centerBox[3 + axis] - centerBox[axis]) axis = a;
+        }
+        if (!(centerBox[3 + axis] > centerBox[axis])) return; // все центры совпадают - делить нечем
+
+        int middle = (from + to) >>> 1;
+        select(from, to - 1, middle, centers, axis);
+
+        int child = nodeCount;
+        nodeCount += 2;
+        if (nodeCount > left.length) {
+            int capacity = Math.max(nodeCount, left.length * 2);
+            bounds = Arrays.copyOf(bounds, capacity * 6);
+            left = Arrays.copyOf(left, capacity);
+            start = Arrays.copyOf(start, capacity);
+            end = Arrays.copyOf(end, capacity);
+        }
+        left[node] = child;
+        buildNode(child, from, middle, faceBounds, centers);
+        buildNode(child + 1, middle, to, faceBounds, centers);
+    }
+
+    // Быстрый выбор: order[k] получает грань с k-м по величине центром по оси, меньшие - левее, большие - правее
+    private void select(int lo, int hi, int k, double[] centers, int axis) {
+        while (hi > lo) {
+            double pivot = centers[order[(lo + hi) >>> 1] * 3 + axis];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (centers[order[i] * 3 + axis] < pivot) i++;
+                while (centers[order[j] * 3 + axis] > pivot) j--;
+                if (i <= j) {
+                    int t = order[i];
+                    order[i++] = order[j];
+                    order[j--] = t;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    public int getFaceCount() {
+        return faceCount;
+    }
+
+    // Параллелепипед всей сетки в out[offset .. offset + 6)
+    public void getBounds(double[] out, int offset) {
+        System.arraycopy(bounds, 0, out, offset, 6);
+    }
+
+    // Номера граней, чьи параллелепипеды пересекают пирамиду (в координатах сетки), по возрастанию - в out.
+    // Возвращает их число или -1, если пирамида содержит сетку целиком
+    public int cullFaces(Frustum frustum, int[] out) {
+        if (faceCount == 0) return 0;
+
+        int[] stack = new int[64];
+        int top = 0, count = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int node = stack[--top];
+            int b = node * 6;
+            int position = frustum.classifyBox(bounds[b], bounds[b + 1], bounds[b + 2], bounds[b + 3], bounds[b + 4], bounds[b + 5]);
+            if (position == Frustum.OUTSIDE) continue;
+            if (position == Frustum.INSIDE || left[node] < 0) {
+                if (node == 0 && position == Frustum.INSIDE) return -1;
+                System.arraycopy(order, start[node], out, count, end[node] - start[node]);
+                count += end[node] - start[node];
+                continue;
+            }
+            if (top + 2 > stack.length) stack = Arrays.copyOf(stack, stack.length * 2);
+            stack[top++] = left[node] + 1;
+            stack[top++] = left[node];
+        }
+        Arrays.sort(out, 0, count);
+        return count;
+    }
+
+    // То же для пирамиды в мировых координатах: она переводится в локальные координатами матрицей модели mesh.
+    // При неаффинной матрице модели отсечения по граням нет (-1)
+    public static int cullFaces(Polyhedron mesh, Frustum worldFrustum, int[] out) {
+        if (!mesh.hasModelTransform()) {
+            return mesh.getFaceBvh().cullFaces(worldFrustum, out);
+        }
+        Matrix4 model = mesh.getModelMatrix();
+        return model.isAffine() ? mesh.getFaceBvh().cullFaces(worldFrustum.toLocal(model), out) : -1;
+    }
+
+    // Наименьшее t в [tMin, tMax], при котором луч origin + t * direction (в координатах сетки) пересекает
+    // грань сетки, или Double.POSITIVE_INFINITY. Узлы обходятся от ближнего к дальнему и
+    // отбрасываются, если входят в луч дальше уже найденного пересечения
+    public double intersectRay(Polyhedron mesh, double ox, double oy, double oz, double dx, double dy, double dz,
+                               double tMin, double tMax) {
+        if (faceCount == 0) return Double.POSITIVE_INFINITY;
+
+        double[] positions = mesh.getPositions();
+        int[] faceIndices = mesh.getFaceIndices();
+        int[] faceOffsets = mesh.getFaceOffsets();
+        double ix = inverse(dx), iy = inverse(dy), iz = inverse(dz);
+
+        double best = Double.POSITIVE_INFINITY;
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int node = stack[--top];
+            double entry = slab(bounds, node * 6, ox, oy, oz, ix, iy, iz, tMin, Math.min(tMax, best));
+            if (Double.isNaN(entry)) continue;
+
+            if (left[node] < 0) {
+                for (int i = start[node]; i < end[node]; i++) {
+                    int f = order[i];
+                    int first = faceIndices[faceOffsets[f]] * 3;
+                    for (int k = faceOffsets[f] + 1; k + 1 < faceOffsets[f + 1]; k++) {
+                        double t = intersectTriangle(positions, first, faceIndices[k] * 3, faceIndices[k + 1] * 3,
+                                ox, oy, oz, dx, dy, dz);
+                        if (t >= tMin && t <= tMax && t < best) best = t;
+                    }
+                }
+                continue;
+            }
+
+            // Ближний потомок кладется последним, чтобы обойти его первым
+            int near = left[node], far = near + 1;
+            double nearEntry = slab(bounds, near * 6, ox, oy, oz, ix, iy, iz, tMin, tMax);
+            double farEntry = slab(bounds, far * 6, ox, oy, oz, ix, iy, iz, tMin, tMax);
+            if (farEntry < nearEntry || Double.isNaN(nearEntry)) {
+                int t = near;
+                near = far;
+                far = t;
+            }
+            if (top + 2 > stack.length) stack = Arrays.copyOf(stack, stack.length * 2);
+            stack[top++] = far;
+            stack[top++] = near;
+        }
+        return best;
+    }
+
+    // Момент входа луча в параллелепипед box[b .. b + 6) на отрезке [tMin, tMax] или NaN, если луч его не задевает;
+    // ix, iy, iz - обратные компоненты направления
+    static double slab(double[] bounds, int b, double ox, double oy, double oz, double ix, double iy, double iz,
+                       double tMin, double tMax) {
+        double t0 = (bounds[b] - ox) * ix, t1 = (bounds[b + 3] - ox) * ix;
+        double enter = Math.max(tMin, Math.min(t0, t1)), exit = Math.min(tMax, Math.max(t0, t1));
+        t0 = (bounds[b + 1] - oy) * iy;
+        t1 = (bounds[b + 4] - oy) * iy;
+        enter = Math.max(enter, Math.min(t0, t1));
+        exit = Math.min(exit, Math.max(t0, t1));
+        t0 = (bounds[b + 2] - oz) * iz;
+        t1 = (bounds[b + 5] - oz) * iz;
+        enter = Math.max(enter, Math.min(t0, t1));
+        exit = Math.min(exit, Math.max(t0, t1));
+        return enter <= exit ? enter : Double.NaN;
+    }
+
+    // Мёллер - Трумбор, с обеих сторон треугольника; NaN, если пересечения нет
+    private static double intersectTriangle(double[] p, int a, int b, int c,
+                                            double ox, double oy, double oz, double dx, double dy, double dz) {
+        double e1x = p[b] - p[a], e1y = p[b + 1] - p[a + 1], e1z = p[b + 2] - p[a + 2];
+        double e2x = p[c] - p[a], e2y = p[c + 1] - p[a + 1], e2z = p[c + 2] - p[a + 2];
+        double px = dy * e2z - dz * e2y, py = dz * e2x - dx * e2z, pz = dx * e2y - dy * e2x;
+        double det = e1x * px + e1y * py + e1z * pz;
+        if (Math.abs(det) < 1e-15) return Double.NaN;
+
+        double inv = 1 / det;
+        double sx = ox - p[a], sy = oy - p[a + 1], sz = oz - p[a + 2];
+        double u = (sx * px + sy * py + sz * pz) * inv;
+        if (u < 0 || u > 1) return Double.NaN;
+        double qx = sy * e1z - sz * e1y, qy = sz * e1x - sx * e1z, qz = sx * e1y - sy * e1x;
+        double v = (dx * qx + dy * qy + dz * qz) * inv;
+        if (v < 0 || u + v > 1) return Double.NaN;
+        return (e2x * qx + e2y * qy + e2z * qz) * inv;
+    }
+
+    // Нулевая компонента направления заменяется очень малой: иначе 0 * бесконечность дает NaN
+    static double inverse(double component) {
+        return 1 / (component == 0 ? Double.MIN_NORMAL : component);
+    }
+
+    static void emptyBox(double[] box, int offset) {
+        Arrays.fill(box, offset, offset + 3, Double.POSITIVE_INFINITY);
+        Arrays.fill(box, offset + 3, offset + 6, Double.NEGATIVE_INFINITY);
+    }
+
+    static void include(double[] box, int offset, double x, double y, double z) {
+        box[offset] = Math.min(box[offset], x);
+        box[offset + 1] = Math.min(box[offset + 1], y);
+        box[offset + 2] = Math.min(box[offset + 2], z);
+        box[offset + 3] = Math.max(box[offset + 3], x);
+        box[offset + 4] = Math.max(box[offset + 4], y);
+        box[offset + 5] = Math.max(box[offset + 5], z);
+    }
+}
@@ -0,0 +1,87 @@
+package ru.usernamedrew.util;
+
+// Пирамида видимости в пространстве камеры.
+// Плоскость задается как a*x + b*y + c*z + d, точка внутри при значении >= 0
+public class Frustum {
+    public static final int LEFT = 0;
+    public static final int RIGHT = 1;
+    public static final int BOTTOM = 2;
+    public static final int TOP = 3;
+    public static final int NEAR = 4;
+    public static final int FAR = 5;
+
+    public static final int NEAR_BIT = 1 << NEAR;
+    public static final int FAR_BIT = 1 << FAR;
+
+    // Положение параллелепипеда относительно пирамиды
+    public static final int OUTSIDE = 0;
+    public static final int INTERSECTING = 1;
+    public static final int INSIDE = 2;
+
+    private final double[][] planes;
+
+    public Frustum(double[][] planes) {
+        // Нормируем плоскости, чтобы значение было расстоянием (нужно для проверки сфер)
+        this.planes = new double[planes.length][];
+        for (int i = 0; i < planes.length; i++) {
+            double[] p = planes[i];
+            double length = Math.sqrt(p[0] * p[0] + p[1] * p[1] + p[2] * p[2]);
+            this.planes[i] = new double[]{p[0] / length, p[1] / length, p[2] / length, p[3] / length};
+        }
+    }
+
+    public double distance(int plane, double x, double y, double z) {
+        double[] p = planes[plane];
+        return p[0] * x + p[1] * y + p[2] * z + p[3];
+    }
+
+    // Код отсечения: бит i установлен, если точка снаружи плоскости i
+    public int outcode(double x, double y, double z) {
+        int code = 0;
+        for (int i = 0; i < planes.length; i++) {
+            if (distance(i, x, y, z) < 0) {
+                code |= 1 << i;
+            }
+        }
+        return code;
+    }
+
+    // false, если сфера целиком снаружи хотя бы одной плоскости
+    public boolean intersectsSphere(double x, double y, double z, double radius) {
+        for (int i = 0; i < planes.length; i++) {
+            if (distance(i, x, y, z) < -radius) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Параллелепипед по ближайшей и дальней от каждой плоскости вершинам: OUTSIDE, если он целиком
+    // снаружи хотя бы одной плоскости, INSIDE, если целиком внутри всех
+    public int classifyBox(double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+        int result = INSIDE;
+        for (double[] p : planes) {
+            double farthest = p[0] * (p[0] >= 0 ? maxX : minX) + p[1] * (p[1] >= 0 ? maxY : minY)
+                    + p[2] * (p[2] >= 0 ? maxZ : minZ) + p[3];
+            if (farthest < 0) return OUTSIDE;
+            double nearest = p[0] * (p[0] >= 0 ? minX : maxX) + p[1] * (p[1] >= 0 ? minY : maxY)
+                    + p[2] * (p[2] >= 0 ? minZ : maxZ) + p[3];
+            if (nearest < 0) result = INTERSECTING;
+        }
+        return result;
+    }
+
+    // Та же пирамида в координатах, которые matrix переводит в координаты пирамиды:
+    // плоскость p для точки matrix * v - это плоскость matrix^T * p для v. Только для аффинных матриц
+    public Frustum toLocal(Matrix4 matrix) {
+        double[][] local = new double[planes.length][4];
+        for (int i = 0; i < planes.length; i++) {
+            double[] p = planes[i];
+            for (int c = 0; c < 4; c++) {
+                local[i][c] = p[0] * matrix.get(0, c) + p[1] * matrix.get(1, c) + p[2] * matrix.get(2, c)
+                        + (c == 3 ? p[3] : 0);
+            }
+        }
+        return new Frustum(local);
+    }
+}
@@ -0,0 +1,305 @@
+package ru.usernamedrew.util;
+
+import ru.usernamedrew.model.Point3D;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+// Матрица 4x4 в плоском массиве по строкам: элемент (row, column) лежит в m[4 * row + column].
+// Точки - столбцы: p' = M * p, как в Point3D.transform(double[][]).
+// Операции с параметром dest записывают результат в готовую матрицу и не выделяют память
+public final class Matrix4 {
+    private static final double EPSILON = 1e-9;
+    // Пакетные преобразования больших массивов выполняются параллельно блоками по CHUNK_SIZE вершин
+    private static final int PARALLEL_THRESHOLD = 1 << 15;
+    private static final int CHUNK_SIZE = 1 << 12;
+
+    private final double[] m = new double[16];
+
+    // Единичная матрица
+    public Matrix4() {
+        m[0] = m[5] = m[10] = m[15] = 1;
+    }
+
+    public Matrix4(double m00, double m01, double m02, double m03,
+                   double m10, double m11, double m12, double m13,
+                   double m20, double m21, double m22, double m23,
+                   double m30, double m31, double m32, double m33) {
+        set(m00, m01, m02, m03, m10, m11, m12, m13, m20, m21, m22, m23, m30, m31, m32, m33);
+    }
+
+    public static Matrix4 of(double[][] rows) {
+        Matrix4 matrix = new Matrix4();
+        for (int row = 0; row < 4; row++) {
+            System.arraycopy(rows[row], 0, matrix.m, row * 4, 4);
+        }
+        return matrix;
+    }
+
+    public double[][] toArray() {
+        double[][] rows = new double[4][4];
+        for (int row = 0; row < 4; row++) {
+            System.arraycopy(m, row * 4, rows[row], 0, 4);
+        }
+        return rows;
+    }
+
+    public double get(int row, int column) {
+        return m[row * 4 + column];
+    }
+
+    public Matrix4 set(int row, int column, double value) {
+        m[row * 4 + column] = value;
+        return this;
+    }
+
+    public Matrix4 set(double m00, double m01, double m02, double m03,
+                       double m10, double m11, double m12, double m13,
+                       double m20, double m21, double m22, double m23,
+                       double m30, double m31, double m32, double m33) {
+        m[0] = m00; m[1] = m01; m[2] = m02; m[3] = m03;
+        m[4] = m10; m[5] = m11; m[6] = m12; m[7] = m13;
+        m[8] = m20; m[9] = m21; m[10] = m22; m[11] = m23;
+        m[12] = m30; m[13] = m31; m[14] = m32; m[15] = m33;
+        return this;
+    }
+
+    public Matrix4 set(Matrix4 other) {
+        System.arraycopy(other.m, 0, m, 0, 16);
+        return this;
+    }
+
+    public Matrix4 setIdentity() {
+        Arrays.fill(m, 0);
+        m[0] = m[5] = m[10] = m[15] = 1;
+        return this;
+    }
+
+    public boolean isIdentity() {
+        for (int i = 0; i < 16; i++) {
+            if (m[i] != ((i % 5 == 0) ? 1.0 : 0.0)) return false;
+        }
+        return true;
+    }
+
+    // Последняя строка (0, 0, 0, 1): перспективного деления не бывает
+    public boolean isAffine() {
+        return m[12] == 0 && m[13] == 0 && m[14] == 0 && m[15] == 1;
+    }
+
+    public Matrix4 copy() {
+        return new Matrix4().set(this);
+    }
+
+    // dest = a * b; dest может совпадать с a или b
+    public static Matrix4 multiply(Matrix4 a, Matrix4 b, Matrix4 dest) {
+        double[] x = a.m, y = b.m;
+        double r00 = x[0] * y[0] + x[1] * y[4] + x[2] * y[8] + x[3] * y[12];
+        double r01 = x[0] * y[1] + x[1] * y[5] + x[2] * y[9] + x[3] * y[13];
+        double r02 = x[0] * y[2] + x[1] * y[6] + x[2] * y[10] + x[3] * y[14];
+        double r03 = x[0] * y[3] + x[1] * y[7] + x[2] * y[11] + x[3] * y[15];
+        double r10 = x[4] * y[0] + x[5] * y[4] + x[6] * y[8] + x[7] * y[12];
+        double r11 = x[4] * y[1] + x[5] * y[5] + x[6] * y[9] + x[7] * y[13];
+        double r12 = x[4] * y[2] + x[5] * y[6] + x[6] * y[10] + x[7] * y[14];
+        double r13 = x[4] * y[3] + x[5] * y[7] + x[6] * y[11] + x[7] * y[15];
+        double r20 = x[8] * y[0] + x[9] * y[4] + x[10] * y[8] + x[11] * y[12];
+        double r21 = x[8] * y[1] + x[9] * y[5] + x[10] * y[9] + x[11] * y[13];
+        double r22 = x[8] * y[2] + x[9] * y[6] + x[10] * y[10] + x[11] * y[14];
+        double r23 = x[8] * y[3] + x[9] * y[7] + x[10] * y[11] + x[11] * y[15];
+        double r30 = x[12] * y[0] + x[13] * y[4] + x[14] * y[8] + x[15] * y[12];
+        double r31 = x[12] * y[1] + x[13] * y[5] + x[14] * y[9] + x[15] * y[13];
+        double r32 = x[12] * y[2] + x[13] * y[6] + x[14] * y[10] + x[15] * y[14];
+        double r33 = x[12] * y[3] + x[13] * y[7] + x[14] * y[11] + x[15] * y[15];
+
+        double[] r = dest.m;
+        r[0] = r00; r[1] = r01; r[2] = r02; r[3] = r03;
+        r[4] = r10; r[5] = r11; r[6] = r12; r[7] = r13;
+        r[8] = r20; r[9] = r21; r[10] = r22; r[11] = r23;
+        r[12] = r30; r[13] = r31; r[14] = r32; r[15] = r33;
+        return dest;
+    }
+
+    // Обратная матрица в dest (может совпадать с this); false и dest без изменений, если матрица вырождена
+    public boolean invert(Matrix4 dest) {
+        double[] a = m;
+        double b00 = a[0] * a[5] - a[1] * a[4];
+        double b01 = a[0] * a[6] - a[2] * a[4];
+        double b02 = a[0] * a[7] - a[3] * a[4];
+        double b03 = a[1] * a[6] - a[2] * a[5];
+        double b04 = a[1] * a[7] - a[3] * a[5];
+        double b05 = a[2] * a[7] - a[3] * a[6];
+        double b06 = a[8] * a[13] - a[9] * a[12];
+        double b07 = a[8] * a[14] - a[10] * a[12];
+        double b08 = a[8] * a[15] - a[11] * a[12];
+        double b09 = a[9] * a[14] - a[10] * a[13];
+        double b10 = a[9] * a[15] - a[11] * a[13];
+        double b11 = a[10] * a[15] - a[11] * a[14];
+
+        double det = b00 * b11 - b01 * b10 + b02 * b09 + b03 * b08 - b04 * b07 + b05 * b06;
+        if (Math.abs(det) < EPSILON * EPSILON) return false;
+        double inv = 1.0 / det;
+
+        double r00 = (a[5] * b11 - a[6] * b10 + a[7] * b09) * inv;
+        double r01 = (-a[1] * b11 + a[2] * b10 - a[3] * b09) * inv;
+        double r02 = (a[13] * b05 - a[14] * b04 + a[15] * b03) * inv;
+        double r03 = (-a[9] * b05 + a[10] * b04 - a[11] * b03) * inv;
+        double r10 = (-a[4] * b11 + a[6] * b08 - a[7] * b07) * inv;
+        double r11 = (a[0] * b11 - a[2] * b08 + a[3] * b07) * inv;
+        double r12 = (-a[12] * b05 + a[14] * b02 - a[15] * b01) * inv;
+        double r13 = (a[8] * b05 - a[10] * b02 + a[11] * b01) * inv;
+        double r20 = (a[4] * b10 - a[5] * b08 + a[7] * b06) * inv;
+        double r21 = (-a[0] * b10 + a[1] * b08 - a[3] * b06) * inv;
+        double r22 = (a[12] * b04 - a[13] * b02 + a[15] * b00) * inv;
+        double r23 = (-a[8] * b04 + a[9] * b02 - a[11] * b00) * inv;
+        double r30 = (-a[4] * b09 + a[5] * b07 - a[6] * b06) * inv;
+        double r31 = (a[0] * b09 - a[1] * b07 + a[2] * b06) * inv;
+        double r32 = (-a[12] * b03 + a[13] * b01 - a[14] * b00) * inv;
+        double r33 = (a[8] * b03 - a[9] * b01 + a[10] * b00) * inv;
+
+        double[] r = dest.m;
+        r[0] = r00; r[1] = r01; r[2] = r02; r[3] = r03;
+        r[4] = r10; r[5] = r11; r[6] = r12; r[7] = r13;
+        r[8] = r20; r[9] = r21; r[10] = r22; r[11] = r23;
+        r[12] = r30; r[13] = r31; r[14] = r32; r[15] = r33;
+        return true;
+    }
+
+    // Матрица для нормалей в dest: обратная транспонированная к верхней 3x3 части
+    // (с точностью до положительного множителя, нормали все равно нормализуются).
+    // Для вырожденной матрицы используется сама 3x3 часть
+    public Matrix4 normalMatrix(Matrix4 dest) {
+        double[] a = m;
+        double c00 = a[5] * a[10] - a[6] * a[9];
+        double c01 = a[6] * a[8] - a[4] * a[10];
+        double c02 = a[4] * a[9] - a[5] * a[8];
+        double det = a[0] * c00 + a[1] * c01 + a[2] * c02;
+        if (Math.abs(det) < EPSILON * EPSILON) {
+            return dest.set(this).set(0, 3, 0).set(1, 3, 0).set(2, 3, 0)
+                    .set(3, 0, 0).set(3, 1, 0).set(3, 2, 0).set(3, 3, 1);
+        }
+
+        // Матрица алгебраических дополнений равна (M^-1)^T * det; знак det сохраняет ориентацию
+        double s = Math.signum(det);
+        double r10 = s * (a[2] * a[9] - a[1] * a[10]);
+        double r11 = s * (a[0] * a[10] - a[2] * a[8]);
+        double r12 = s * (a[1] * a[8] - a[0] * a[9]);
+        double r20 = s * (a[1] * a[6] - a[2] * a[5]);
+        double r21 = s * (a[2] * a[4] - a[0] * a[6]);
+        double r22 = s * (a[0] * a[5] - a[1] * a[4]);
+
+        double[] r = dest.m;
+        r[0] = s * c00; r[1] = s * c01; r[2] = s * c02; r[3] = 0;
+        r[4] = r10; r[5] = r11; r[6] = r12; r[7] = 0;
+        r[8] = r20; r[9] = r21; r[10] = r22; r[11] = 0;
+        r[12] = 0; r[13] = 0; r[14] = 0; r[15] = 1;
+        return dest;
+    }
+
+    // Перспективное деление - как в Point3D.transform(double[][])
+    public Point3D transform(Point3D point) {
+        double x = point.x(), y = point.y(), z = point.z();
+        double xNew = m[0] * x + m[1] * y + m[2] * z + m[3];
+        double yNew = m[4] * x + m[5] * y + m[6] * z + m[7];
+        double zNew = m[8] * x + m[9] * y + m[10] * z + m[11];
+        double w = m[12] * x + m[13] * y + m[14] * z + m[15];
+        if (Math.abs(w - 1.0) > EPSILON && Math.abs(w) > EPSILON) {
+            xNew /= w;
+            yNew /= w;
+            zNew /= w;
+        }
+        return new Point3D(xNew, yNew, zNew);
+    }
+
+    // Преобразование точки (x, y, z) в out[offset .. offset + 2]
+    public void transform(double x, double y, double z, double[] out, int offset) {
+        double xNew = m[0] * x + m[1] * y + m[2] * z + m[3];
+        double yNew = m[4] * x + m[5] * y + m[6] * z + m[7];
+        double zNew = m[8] * x + m[9] * y + m[10] * z + m[11];
+        double w = m[12] * x + m[13] * y + m[14] * z + m[15];
+        if (Math.abs(w - 1.0) > EPSILON && Math.abs(w) > EPSILON) {
+            xNew /= w;
+            yNew /= w;
+            zNew /= w;
+        }
+        out[offset] = xNew;
+        out[offset + 1] = yNew;
+        out[offset + 2] = zNew;
+    }
+
+    // Только z преобразованной точки (глубина в пространстве камеры), для аффинной матрицы
+    public double transformZ(double x, double y, double z) {
+        return m[8] * x + m[9] * y + m[10] * z + m[11];
+    }
+
+    // Преобразование count точек, упакованных как x, y, z, из src в dst (src и dst могут совпадать)
+    public void transformPoints(double[] src, double[] dst, int count) {
+        forEachChunk(count, (from, to) -> transformPoints(src, dst, from, to));
+    }
+
+    // Преобразование верхней 3x3 частью и нормализация count векторов (матрица из normalMatrix)
+    public void transformNormals(double[] src, double[] dst, int count) {
+        forEachChunk(count, (from, to) -> transformNormals(src, dst, from, to));
+    }
+
+    private void transformPoints(double[] src, double[] dst, int from, int to) {
+        double m00 = m[0], m01 = m[1], m02 = m[2], m03 = m[3];
+        double m10 = m[4], m11 = m[5], m12 = m[6], m13 = m[7];
+        double m20 = m[8], m21 = m[9], m22 = m[10], m23 = m[11];
+        double m30 = m[12], m31 = m[13], m32 = m[14], m33 = m[15];
+        boolean affine = isAffine();
+
+        for (int i3 = from * 3, end = to * 3; i3 < end; i3 += 3) {
+            double x = src[i3], y = src[i3 + 1], z = src[i3 + 2];
+            double xNew = m00 * x + m01 * y + m02 * z + m03;
+            double yNew = m10 * x + m11 * y + m12 * z + m13;
+            double zNew = m20 * x + m21 * y + m22 * z + m23;
+            if (!affine) {
+                double w = m30 * x + m31 * y + m32 * z + m33;
+                if (Math.abs(w - 1.0) > EPSILON && Math.abs(w) > EPSILON) {
+                    xNew /= w;
+                    yNew /= w;
+                    zNew /= w;
+                }
+            }
+            dst[i3] = xNew;
+            dst[i3 + 1] = yNew;
+            dst[i3 + 2] = zNew;
+        }
+    }
+
+    private void transformNormals(double[] src, double[] dst, int from, int to) {
+        double n00 = m[0], n01 = m[1], n02 = m[2];
+        double n10 = m[4], n11 = m[5], n12 = m[6];
+        double n20 = m[8], n21 = m[9], n22 = m[10];
+
+        for (int i3 = from * 3, end = to * 3; i3 < end; i3 += 3) {
+            double x = src[i3], y = src[i3 + 1], z = src[i3 + 2];
+            double nx = n00 * x + n01 * y + n02 * z;
+            double ny = n10 * x + n11 * y + n12 * z;
+            double nz = n20 * x + n21 * y + n22 * z;
+            double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+            if (length != 0) {
+                nx /= length;
+                ny /= length;
+                nz /= length;
+            }
+            dst[i3] = nx;
+            dst[i3 + 1] = ny;
+            dst[i3 + 2] = nz;
+        }
+    }
+
+    private interface RangeAction {
+        void apply(int from, int to);
+    }
+
+    private static void forEachChunk(int count, RangeAction action) {
+        if (count < PARALLEL_THRESHOLD) {
+            action.apply(0, count);
+            return;
+        }
+        int chunks = (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        IntStream.range(0, chunks).parallel()
+                .forEach(c -> action.apply(c * CHUNK_SIZE, Math.min(count, (c + 1) * CHUNK_SIZE)));
+    }
+}
@@ -0,0 +1,482 @@
+package ru.usernamedrew.util;
+
+import ru.usernamedrew.model.Polyhedron;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+// Разбор OBJ прямо из байтов: числа и индексы читаются без создания строк,
+// вершины и грани сразу складываются в упакованные массивы индексированной сетки.
+// Понимает v, vn, vt (текстурные координаты пропускаются) и отрицательные (относительные) индексы.
+// Большой файл режется по концам строк на куски, которые разбираются параллельно; индексы углов
+// переводятся в глобальные по префиксным суммам, поэтому результат совпадает с последовательным разбором
+public class ObjParser {
+    private static final int INITIAL_CAPACITY = 1024;
+    // С какого размера файла разбор по умолчанию параллельный, и примерный размер куска
+    private static final int PARALLEL_THRESHOLD = 16 << 20;
+    private static final int CHUNK_SIZE = 4 << 20;
+
+    // Точные степени десяти: мантисса до 15 цифр умножается или делится на них без потери точности,
+    // результат совпадает с Double.parseDouble. Остальные числа разбираются через Double.parseDouble
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final int MAX_FAST_DIGITS = 15;
+
+    private final ByteBuffer data;
+    private final int limit; // конец куска
+    private int pos;
+    private int lineStart;
+
+    // Результат последнего разбора числа
+    private double parsedDouble;
+    private int parsedInt;
+
+    // Вершины и нормали куска в порядке файла
+    private double[] positions = new double[INITIAL_CAPACITY * 3];
+    private int vertexCount;
+    private double[] fileNormals = new double[INITIAL_CAPACITY * 3];
+    private int fileNormalCount;
+
+    // Углы граней: до resolve - индексы как в файле (нормаль 0 - не задана),
+    // после - глобальные индексы вершины и нормали (-1 - нет нормали), углы вне диапазона удалены
+    private int[] cornerVertices = new int[INITIAL_CAPACITY * 4];
+    private int[] cornerNormals = new int[INITIAL_CAPACITY * 4];
+    private int cornerCount;
+    private int[] faceOffsets = new int[INITIAL_CAPACITY + 1];
+    private int faceCount;
+    // Сколько v и vn куска прочитано до строки грани: по ним разрешаются относительные индексы
+    private int[] faceVertexCounts = new int[INITIAL_CAPACITY];
+    private int[] faceNormalCounts = new int[INITIAL_CAPACITY];
+    private boolean allCornersHaveNormals = true;
+
+    private ObjParser(ByteBuffer data, int from, int to) {
+        this.data = data;
+        this.pos = from;
+        this.limit = to;
+    }
+
+    public static Polyhedron parse(ByteBuffer data) {
+        return parse(data, data.limit() >= PARALLEL_THRESHOLD);
+    }
+
+    // Нормали вершин берутся из vn, если они заданы у каждого угла, иначе вычисляются по граням
+    public static Polyhedron parse(ByteBuffer data, boolean parallel) {
+        int[] bounds = parallel ? splitAtLines(data) : new int[]{0, data.limit()};
+        int chunkCount = bounds.length - 1;
+
+        ObjParser[] chunks = new ObjParser[chunkCount];
+        forEachChunk(chunkCount, parallel, i -> {
+            chunks[i] = new ObjParser(data, bounds[i], bounds[i + 1]);
+            chunks[i].parseChunk();
+        });
+
+        // Номера первых вершин и нормалей каждого куска в файле
+        int[] vertexBase = new int[chunkCount + 1];
+        int[] normalBase = new int[chunkCount + 1];
+        for (int i = 0; i < chunkCount; i++) {
+            vertexBase[i + 1] = vertexBase[i] + chunks[i].vertexCount;
+            normalBase[i + 1] = normalBase[i] + chunks[i].fileNormalCount;
+        }
+        forEachChunk(chunkCount, parallel, i -> chunks[i].resolve(vertexBase[i], normalBase[i]));
+
+        int[] cornerBase = new int[chunkCount + 1];
+        int[] faceBase = new int[chunkCount + 1];
+        boolean allCornersHaveNormals = true;
+        for (int i = 0; i < chunkCount; i++) {
+            cornerBase[i + 1] = cornerBase[i] + chunks[i].cornerCount;
+            faceBase[i + 1] = faceBase[i] + chunks[i].faceCount;
+            allCornersHaveNormals &= chunks[i].allCornersHaveNormals;
+        }
+        int vertexCount = vertexBase[chunkCount];
+        int normalCount = normalBase[chunkCount];
+        int cornerCount = cornerBase[chunkCount];
+        int faceCount = faceBase[chunkCount];
+
+        double[] positions, fileNormals;
+        int[] faceIndices, cornerNormals, faceOffsets;
+        if (chunkCount == 1) {
+            // Один кусок: его массивы и есть сетка
+            ObjParser chunk = chunks[0];
+            positions = chunk.positions;
+            fileNormals = chunk.fileNormals;
+            faceIndices = chunk.cornerVertices;
+            cornerNormals = chunk.cornerNormals;
+            faceOffsets = chunk.faceOffsets;
+        } else {
+            positions = new double[vertexCount * 3];
+            fileNormals = new double[normalCount * 3];
+            faceIndices = new int[cornerCount];
+            cornerNormals = new int[cornerCount];
+            faceOffsets = new int[faceCount + 1];
+            double[] positionsOut = positions, fileNormalsOut = fileNormals;
+            int[] faceIndicesOut = faceIndices, cornerNormalsOut = cornerNormals, faceOffsetsOut = faceOffsets;
+            forEachChunk(chunkCount, true, i -> chunks[i].copyTo(positionsOut, vertexBase[i], fileNormalsOut, normalBase[i],
+                    faceIndicesOut, cornerNormalsOut, cornerBase[i], faceOffsetsOut, faceBase[i]));
+        }
+
+        double[] normals = null;
+        if (normalCount > 0 && allCornersHaveNormals && cornerCount > 0) {
+            normals = accumulateNormals(positions.length, vertexCount, faceIndices, cornerNormals, cornerCount, fileNormals);
+        }
+
+        Polyhedron polyhedron = Polyhedron.fromIndexedMesh(positions, normals, vertexCount,
+                faceIndices, faceOffsets, faceCount);
+        if (normals == null) {
+            polyhedron.computeVertexNormals();
+        }
+        return polyhedron;
+    }
+
+    // Границы кусков: примерно через CHUNK_SIZE байт, сдвинутые на начало следующей строки
+    private static int[] splitAtLines(ByteBuffer data) {
+        int limit = data.limit();
+        int[] bounds = new int[limit / CHUNK_SIZE + 2];
+        int count = 1;
+        for (int target = CHUNK_SIZE; target < limit; target += CHUNK_SIZE) {
+            int bound = Math.max(target, bounds[count - 1]);
+            while (bound < limit && data.get(bound - 1) != '\n') bound++;
+            if (bound < limit && bound > bounds[count - 1]) {
+                bounds[count++] = bound;
+            }
+        }
+        bounds[count++] = limit;
+        return Arrays.copyOf(bounds, count);
+    }
+
+    private static void forEachChunk(int chunkCount, boolean parallel, IntConsumer action) {
+        IntStream chunks = IntStream.range(0, chunkCount);
+        if (parallel) {
+            chunks = chunks.parallel();
+        }
+        chunks.forEach(action);
+    }
+
+    // Нормаль вершины - нормированная сумма нормалей ее углов из файла (углы в порядке файла)
+    private static double[] accumulateNormals(int capacity, int vertexCount, int[] faceIndices, int[] cornerNormals,
+                                              int cornerCount, double[] fileNormals) {
+        double[] normals = new double[capacity];
+        for (int k = 0; k < cornerCount; k++) {
+            int v3 = faceIndices[k] * 3, n3 = cornerNormals[k] * 3;
+            normals[v3] += fileNormals[n3];
+            normals[v3 + 1] += fileNormals[n3 + 1];
+            normals[v3 + 2] += fileNormals[n3 + 2];
+        }
+        for (int i3 = 0; i3 < vertexCount * 3; i3 += 3) {
+            double length = Math.sqrt(normals[i3] * normals[i3] + normals[i3 + 1] * normals[i3 + 1]
+                    + normals[i3 + 2] * normals[i3 + 2]);
+            if (length > 0) {
+                normals[i3] /= length;
+                normals[i3 + 1] /= length;
+                normals[i3 + 2] /= length;
+            }
+        }
+        return normals;
+    }
+
+    private void parseChunk() {
+        while (pos < limit) {
+            lineStart = pos;
+            skipSpaces();
+            if (pos < limit) {
+                byte c = data.get(pos);
+                if (c == 'v') {
+                    byte next = byteAt(pos + 1);
+                    if (isSpace(next)) {
+                        pos++;
+                        parseVertex();
+                    } else if (next == 'n' && isSpace(byteAt(pos + 2))) {
+                        pos += 2;
+                        parseNormal();
+                    }
+                    // vt не нужны сетке и пропускаются вместе со строкой
+                } else if (c == 'f' && isSpace(byteAt(pos + 1))) {
+                    pos++;
+                    parseFace();
+                }
+            }
+            skipLine();
+        }
+    }
+
+    // Индексы углов в глобальные: счетчик вершин на момент строки грани = начало куска + прочитанные в куске.
+    // Углы вне диапазона удаляются, грани без углов тоже - как при последовательном чтении
+    private void resolve(int vertexBase, int normalBase) {
+        int written = 0;
+        int keptFaces = 0;
+        int nextCorner = 0; // faceOffsets сжимается на месте, поэтому конец грани читается до записи
+        for (int f = 0; f < faceCount; f++) {
+            int faceStart = written;
+            int firstCorner = nextCorner;
+            nextCorner = faceOffsets[f + 1];
+            int vertexLimit = vertexBase + faceVertexCounts[f];
+            int normalLimit = normalBase + faceNormalCounts[f];
+            for (int k = firstCorner; k < nextCorner; k++) {
+                int vertexIndex = resolveIndex(cornerVertices[k], vertexLimit);
+                if (vertexIndex < 0) continue;
+                int normalIndex = resolveIndex(cornerNormals[k], normalLimit);
+                if (normalIndex < 0) allCornersHaveNormals = false;
+                cornerVertices[written] = vertexIndex;
+                cornerNormals[written] = normalIndex;
+                written++;
+            }
+            if (written > faceStart) {
+                faceOffsets[++keptFaces] = written;
+            }
+        }
+        cornerCount = written;
+        faceCount = keptFaces;
+    }
+
+    private void copyTo(double[] positionsOut, int vertexBase, double[] normalsOut, int normalBase,
+                        int[] faceIndicesOut, int[] cornerNormalsOut, int cornerBase, int[] faceOffsetsOut, int faceBase) {
+        System.arraycopy(positions, 0, positionsOut, vertexBase * 3, vertexCount * 3);
+        System.arraycopy(fileNormals, 0, normalsOut, normalBase * 3, fileNormalCount * 3);
+        System.arraycopy(cornerVertices, 0, faceIndicesOut, cornerBase, cornerCount);
+        System.arraycopy(cornerNormals, 0, cornerNormalsOut, cornerBase, cornerCount);
+        for (int f = 1; f <= faceCount; f++) {
+            faceOffsetsOut[faceBase + f] = cornerBase + faceOffsets[f];
+        }
+    }
+
+    private void parseVertex() {
+        if (!parseDouble()) {
+            System.err.println("Ошибка чтения вершины: " + currentLine());
+            return;
+        }
+        double x = parsedDouble;
+        if (!parseDouble()) {
+            System.err.println("Ошибка чтения вершины: " + currentLine());
+            return;
+        }
+        double y = parsedDouble;
+        if (!parseDouble()) {
+            System.err.println("Ошибка чтения вершины: " + currentLine());
+            return;
+        }
+        double z = parsedDouble;
+
+        if ((vertexCount + 1) * 3 > positions.length) {
+            positions = Arrays.copyOf(positions, positions.length * 2);
+        }
+        int i3 = vertexCount * 3;
+        positions[i3] = x;
+        positions[i3 + 1] = y;
+        positions[i3 + 2] = z;
+        vertexCount++;
+    }
+
+    // Координаты пишутся сразу на место; при ошибке счетчик не растет и запись затрется следующей нормалью
+    private void parseNormal() {
+        if ((fileNormalCount + 1) * 3 > fileNormals.length) {
+            fileNormals = Arrays.copyOf(fileNormals, fileNormals.length * 2);
+        }
+        int n3 = fileNormalCount * 3;
+        for (int i = 0; i < 3; i++) {
+            if (!parseDouble()) {
+                System.err.println("Ошибка чтения нормали: " + currentLine());
+                return;
+            }
+            fileNormals[n3 + i] = parsedDouble;
+        }
+        fileNormalCount++;
+    }
+
+    // Угол грани: v, v/vt, v//vn или v/vt/vn. Углы с ошибками пропускаются, индексы проверяет resolve
+    private void parseFace() {
+        int firstCorner = cornerCount;
+        while (true) {
+            skipSpaces();
+            if (pos >= limit || data.get(pos) == '\n') break;
+
+            boolean ok = parseInt();
+            int vertex = parsedInt;
+            int normal = 0;
+            if (ok && byteAt(pos) == '/') {
+                pos++;
+                if (byteAt(pos) != '/') {
+                    ok = parseInt(); // индекс vt не нужен сетке
+                }
+                if (ok && byteAt(pos) == '/') {
+                    pos++;
+                    ok = parseInt();
+                    normal = parsedInt;
+                }
+            }
+            if (!ok || !isSeparator(byteAt(pos))) {
+                System.err.println("Ошибка чтения грани: " + currentLine());
+                skipToken();
+                continue;
+            }
+
+            if (cornerCount + 1 > cornerVertices.length) {
+                cornerVertices = Arrays.copyOf(cornerVertices, cornerVertices.length * 2);
+                cornerNormals = Arrays.copyOf(cornerNormals, cornerVertices.length);
+            }
+            cornerVertices[cornerCount] = vertex;
+            cornerNormals[cornerCount] = normal;
+            cornerCount++;
+        }
+
+        if (cornerCount > firstCorner) {
+            if (faceCount + 2 > faceOffsets.length) {
+                faceOffsets = Arrays.copyOf(faceOffsets, faceOffsets.length * 2);
+                faceVertexCounts = Arrays.copyOf(faceVertexCounts, faceOffsets.length);
+                faceNormalCounts = Arrays.copyOf(faceNormalCounts, faceOffsets.length);
+            }
+            faceVertexCounts[faceCount] = vertexCount;
+            faceNormalCounts[faceCount] = fileNormalCount;
+            faceOffsets[++faceCount] = cornerCount;
+        }
+    }
+
+    // Индекс OBJ (с 1, отрицательный - от конца) в индекс массива; -1, если его нет или он вне диапазона
+    private static int resolveIndex(int index, int count) {
+        int resolved = (index > 0) ? index - 1 : count + index;
+        return (index != 0 && resolved >= 0 && resolved < count) ? resolved : -1;
+    }
+
+    // Десятичное число вида [+-]digits[.digits][(e|E)[+-]digits]; остальное (nan, inf, длинные мантиссы) -
+    // через Double.parseDouble на подстроке
+    private boolean parseDouble() {
+        skipSpaces();
+        int start = pos;
+        boolean negative = false;
+        byte c = byteAt(pos);
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            pos++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;      // значащие цифры в мантиссе
+        int exponent = 0;
+        boolean anyDigits = false;
+
+        while (isDigit(c = byteAt(pos))) {
+            anyDigits = true;
+            if (digits <= MAX_FAST_DIGITS) {
+                mantissa = mantissa * 10 + (c - '0');
+                if (mantissa != 0) digits++;
+            } else {
+                exponent++;
+            }
+            pos++;
+        }
+        if (c == '.') {
+            pos++;
+            while (isDigit(c = byteAt(pos))) {
+                anyDigits = true;
+                if (digits <= MAX_FAST_DIGITS) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (mantissa != 0) digits++;
+                    exponent--;
+                }
+                pos++;
+            }
+        }
+        if (anyDigits && (c == 'e' || c == 'E')) {
+            pos++;
+            boolean negativeExponent = false;
+            c = byteAt(pos);
+            if (c == '-' || c == '+') {
+                negativeExponent = c == '-';
+                pos++;
+            }
+            int value = 0;
+            boolean anyExponentDigits = false;
+            while (isDigit(c = byteAt(pos))) {
+                anyExponentDigits = true;
+                if (value < 100000) value = value * 10 + (c - '0');
+                pos++;
+            }
+            if (!anyExponentDigits) return parseSlow(start);
+            exponent += negativeExponent ? -value : value;
+        }
+
+        if (!anyDigits || !isSeparator(byteAt(pos)) || digits > MAX_FAST_DIGITS
+                || exponent < -22 || exponent > 22) {
+            return parseSlow(start);
+        }
+
+        double value = (exponent >= 0) ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+        parsedDouble = negative ? -value : value;
+        return true;
+    }
+
+    private boolean parseSlow(int start) {
+        pos = start;
+        skipToken();
+        if (pos == start) return false;
+        try {
+            parsedDouble = Double.parseDouble(text(start, pos));
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private boolean parseInt() {
+        boolean negative = false;
+        byte c = byteAt(pos);
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            pos++;
+        }
+        long value = 0;
+        boolean anyDigits = false;
+        while (isDigit(c = byteAt(pos))) {
+            anyDigits = true;
+            if (value <= Integer.MAX_VALUE) value = value * 10 + (c - '0');
+            pos++;
+        }
+        if (!anyDigits || value > Integer.MAX_VALUE) return false;
+        parsedInt = (int) (negative ? -value : value);
+        return true;
+    }
+
+    private byte byteAt(int index) {
+        return (index < limit) ? data.get(index) : (byte) '\n';
+    }
+
+    private void skipSpaces() {
+        while (pos < limit && isSpace(data.get(pos))) pos++;
+    }
+
+    private void skipToken() {
+        while (pos < limit && !isSeparator(data.get(pos))) pos++;
+    }
+
+    private void skipLine() {
+        while (pos < limit && data.get(pos) != '\n') pos++;
+        pos++;
+    }
+
+    private String currentLine() {
+        int end = lineStart;
+        while (end < limit && data.get(end) != '\n' && data.get(end) != '\r') end++;
+        return text(lineStart, end).trim();
+    }
+
+    private String text(int from, int to) {
+        byte[] bytes = new byte[to - from];
+        data.get(from, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static boolean isDigit(byte c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isSpace(byte c) {
+        return c == ' ' || c == '\t' || c == '\r';
+    }
+
+    private static boolean isSeparator(byte c) {
+        return isSpace(c) || c == '\n';
+    }
+}
@@ -0,0 +1,137 @@
+package ru.usernamedrew.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+// Запись OBJ через собственный байтовый буфер: целые и числа с 6 знаками после запятой
+// форматируются вручную, вывод совпадает с printf(Locale.US, "%.6f") побайтно
+public class ObjWriter implements AutoCloseable {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+
+    private static final double SCALE = 1e6;
+    // Быстрый путь для |x| < FAST_LIMIT: x * 1e6 < 1e12, погрешность умножения и отличие кратчайшего
+    // десятичного представления (которое округляет Formatter) от точного значения много меньше ROUNDING_MARGIN
+    private static final double FAST_LIMIT = 1e6;
+    private static final double ROUNDING_MARGIN = 1e-3;
+
+    private final OutputStream out;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int count;
+
+    public ObjWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    public ObjWriter write(String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80) {
+                // Не-ASCII (комментарии) - через кодировку
+                writeBytes(text.substring(i).getBytes(StandardCharsets.UTF_8));
+                return this;
+            }
+            ensure(1);
+            buffer[count++] = (byte) c;
+        }
+        return this;
+    }
+
+    public ObjWriter newLine() throws IOException {
+        writeBytes(LINE_SEPARATOR);
+        return this;
+    }
+
+    public ObjWriter write(char c) throws IOException {
+        ensure(1);
+        buffer[count++] = (byte) c;
+        return this;
+    }
+
+    public ObjWriter write(long value) throws IOException {
+        ensure(20);
+        if (value < 0) {
+            if (value == Long.MIN_VALUE) {
+                return write(Long.toString(value));
+            }
+            buffer[count++] = '-';
+            value = -value;
+        }
+        writeDigits(value, 1);
+        return this;
+    }
+
+    // То же, что String.format(Locale.US, "%.6f", value)
+    public ObjWriter writeFixed6(double value) throws IOException {
+        double magnitude = Math.abs(value);
+        if (!(magnitude < FAST_LIMIT)) { // NaN, бесконечности и большие числа
+            return write(String.format(Locale.US, "%.6f", value));
+        }
+
+        double scaled = magnitude * SCALE;
+        long whole = (long) scaled;
+        double fraction = scaled - whole;
+        if (Math.abs(fraction - 0.5) < ROUNDING_MARGIN) {
+            // Почти ровно посередине: округление зависит от кратчайшего представления
+            return write(String.format(Locale.US, "%.6f", value));
+        }
+        if (fraction > 0.5) whole++;
+
+        ensure(24);
+        if (Double.doubleToRawLongBits(value) < 0) { // знак сохраняется и у -0.0, и у округленных к нулю
+            buffer[count++] = '-';
+        }
+        writeDigits(whole / 1_000_000, 1);
+        buffer[count++] = '.';
+        writeDigits(whole % 1_000_000, 6);
+        return this;
+    }
+
+    public void flush() throws IOException {
+        out.write(buffer, 0, count);
+        count = 0;
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            out.close();
+        }
+    }
+
+    // Неотрицательное число не короче minDigits цифр (с ведущими нулями)
+    private void writeDigits(long value, int minDigits) {
+        int digits = 1;
+        for (long v = value / 10; v > 0; v /= 10) digits++;
+        digits = Math.max(digits, minDigits);
+        for (int i = count + digits - 1; i >= count; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        count += digits;
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        if (bytes.length > buffer.length) {
+            out.write(buffer, 0, count);
+            count = 0;
+            out.write(bytes);
+            return;
+        }
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buffer, count, bytes.length);
+        count += bytes.length;
+    }
+
+    private void ensure(int space) throws IOException {
+        if (count + space > buffer.length) {
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+}
@@ -4,20 +4,41 @@ package ru.usernamedrew.util;
 import ru.usernamedrew.model.*;
 
 import java.io.*;
-import java.util.List;
-import java.util.Locale;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Function;
 
 public class PolyhedronIO {
+    // Двоичный кэш сетки: заголовок, затем float-координаты и нормали вершин, смещения граней и индексы (little-endian).
+    // Заголовок: магическое число, версия, число вершин, граней и углов, резерв, размер и время изменения исходного OBJ
+    private static final String CACHE_EXTENSION = ".mesh";
+    private static final int MESH_MAGIC = 0x48534D4C; // "LMSH"
+    private static final int MESH_VERSION = 1;
+    private static final int MESH_HEADER_SIZE = 40;
 
     public static void saveToFile(Polyhedron polyhedron, String filename) throws IOException {
+        saveToFile(polyhedron, filename, false);
+    }
+
+    // writeNormals: дополнительно записать нормали вершин (vn) и ссылки на них в гранях
+    public static void saveToFile(Polyhedron polyhedron, String filename, boolean writeNormals) throws IOException {
         // Формат OBJ:
         // 1. Заголовок с комментариями (#)
         // 2. Секция вершин (v x y z)
         //    - Каждая вершина записывается как "v 1.000000 2.000000 3.000000"
         //    - Координаты с точностью 6 знаков после запятой
         // 3. Секция граней (f v1 v2 v3 ...)
-        //    - Каждая грань записывается как "f 1 2 3"
+        //    - Каждая грань записывается как "f 1 2 3" (с нормалями - "f 1//1 2//2 3//3")
         //    - Индексы вершин начинаются с 1 (стандарт OBJ)
+        //    - Нормали (vn) записываются только по запросу, перед гранями
         //    - Автоматически добавляется расширение .obj
 
 
@@ -26,94 +47,231 @@ public class PolyhedronIO {
             filename += ".obj";
         }
 
-        try (PrintWriter writer = new PrintWriter(new FileWriter(filename))) {
+        // В файл записывается геометрия с примененной матрицей модели
+        if (polyhedron.hasModelTransform()) {
+            polyhedron = polyhedron.copy();
+            polyhedron.bake();
+        }
+
+        try (ObjWriter writer = new ObjWriter(new FileOutputStream(filename))) {
             // Записываем комментарий
-            writer.println("# 3D Model exported from Java 3D Application");
-            writer.println("# Vertices: " + polyhedron.getVertices().size());
-            writer.println("# Faces: " + polyhedron.getFaces().size());
-            writer.println();
+            writer.write("# 3D Model exported from Java 3D Application").newLine();
+            writer.write("# Vertices: ").write(polyhedron.getVertexCount()).newLine();
+            writer.write("# Faces: ").write(polyhedron.getFaceCount()).newLine();
+            writer.newLine();
 
             // Записываем вершины (v x y z)
-            writer.println("# Vertex list");
-            for (Point3D vertex : polyhedron.getVertices()) {
-                writer.printf(Locale.US,"v %.6f %.6f %.6f%n", vertex.x(), vertex.y(), vertex.z());
+            writer.write("# Vertex list").newLine();
+            double[] positions = polyhedron.getPositions();
+            for (int i3 = 0; i3 < polyhedron.getVertexCount() * 3; i3 += 3) {
+                writer.write("v ").writeFixed6(positions[i3]).write(' ')
+                        .writeFixed6(positions[i3 + 1]).write(' ').writeFixed6(positions[i3 + 2]).newLine();
             }
 
-            writer.println();
+            writer.newLine();
+
+            // Нормали вершин (vn x y z) с тем же номером, что и у вершины
+            if (writeNormals) {
+                writer.write("# Normal list").newLine();
+                double[] normals = polyhedron.getNormals();
+                for (int i3 = 0; i3 < polyhedron.getVertexCount() * 3; i3 += 3) {
+                    writer.write("vn ").writeFixed6(normals[i3]).write(' ')
+                            .writeFixed6(normals[i3 + 1]).write(' ').writeFixed6(normals[i3 + 2]).newLine();
+                }
+                writer.newLine();
+            }
 
-            // Записываем грани (f v1 v2 v3 ...)
-            writer.println("# Face list");
-            for (Face face : polyhedron.getFaces()) {
-                StringBuilder faceLine = new StringBuilder("f");
-                for (Point3D vertex : face.getVertices()) {
-                    int vertexIndex = polyhedron.getVertices().indexOf(vertex) + 1; // OBJ индексы начинаются с 1
-                    faceLine.append(" ").append(vertexIndex);
+            // Записываем грани (f v1 v2 v3 ... или f v1//v1 ... с нормалями) прямо из буфера индексов
+            writer.write("# Face list").newLine();
+            int[] faceIndices = polyhedron.getFaceIndices();
+            int[] faceOffsets = polyhedron.getFaceOffsets();
+            for (int f = 0; f < polyhedron.getFaceCount(); f++) {
+                writer.write('f');
+                for (int k = faceOffsets[f]; k < faceOffsets[f + 1]; k++) {
+                    int index = faceIndices[k] + 1; // OBJ индексы начинаются с 1
+                    writer.write(' ').write(index);
+                    if (writeNormals) {
+                        writer.write("//").write(index);
+                    }
                 }
-                writer.println(faceLine.toString());
+                writer.newLine();
             }
         }
     }
 
-    // В методе loadFromFile добавьте обработку нормалей после загрузки:
+    // Результат загрузки: модель, размер прочитанного файла, время и был ли это двоичный кэш
+    public record LoadResult(Polyhedron polyhedron, long bytes, long nanos, boolean cached) {
+        public double megabytesPerSecond() {
+            return (nanos > 0) ? bytes / (1024.0 * 1024.0) / (nanos / 1e9) : 0;
+        }
+    }
+
     public static Polyhedron loadFromFile(String filename) throws IOException {
-        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
-            List<Point3D> vertices = new java.util.ArrayList<>();
-            List<Face> faces = new java.util.ArrayList<>();
+        return load(filename).polyhedron();
+    }
 
-            String line;
+    // Файл отображается в память целиком и разбирается из байтов (см. ObjParser);
+    // большие файлы разбираются параллельно
+    public static LoadResult load(String filename) throws IOException {
+        return load(filename, ObjParser::parse);
+    }
 
-            while ((line = reader.readLine()) != null) {
-                line = line.trim();
+    // Явный выбор параллельного или последовательного разбора; результат одинаковый
+    public static LoadResult load(String filename, boolean parallel) throws IOException {
+        return load(filename, buffer -> ObjParser.parse(buffer, parallel));
+    }
 
-                if (line.isEmpty() || line.startsWith("#")) {
-                    continue;
-                }
+    private static LoadResult load(String filename, Function<ByteBuffer, Polyhedron> parser) throws IOException {
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(Path.of(filename), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Файл слишком большой: " + size + " байт");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            Polyhedron polyhedron = parser.apply(buffer);
+            return new LoadResult(polyhedron, size, System.nanoTime() - start, false);
+        }
+    }
 
-                String[] parts = line.split("\\s+");
-                if (parts.length < 2) {
-                    continue;
+    // Загрузка с кэшем: рядом с OBJ лежит файл .obj.mesh. Если размер и время изменения OBJ совпадают
+    // с записанными в кэше, читается кэш, иначе OBJ разбирается и кэш перезаписывается
+    public static LoadResult loadCached(String filename) throws IOException {
+        Path source = Path.of(filename);
+        Path cache = Path.of(filename + CACHE_EXTENSION);
+
+        if (Files.exists(cache)) {
+            long start = System.nanoTime();
+            try {
+                Polyhedron polyhedron = loadBinary(cache, source);
+                if (polyhedron != null) {
+                    return new LoadResult(polyhedron, Files.size(cache), System.nanoTime() - start, true);
                 }
+            } catch (IOException e) {
+                System.err.println("Кэш модели поврежден, OBJ будет прочитан заново: " + e.getMessage());
+            }
+        }
 
-                String keyword = parts[0];
+        LoadResult result = load(filename);
+        try {
+            writeBinary(result.polyhedron(), cache, source);
+        } catch (IOException e) {
+            System.err.println("Не удалось записать кэш модели: " + e.getMessage());
+        }
+        return result;
+    }
 
-                if ("v".equals(keyword) && parts.length >= 4) {
-                    try {
-                        double x = Double.parseDouble(parts[1]);
-                        double y = Double.parseDouble(parts[2]);
-                        double z = Double.parseDouble(parts[3]);
-                        vertices.add(new Point3D(x, y, z));
-                    } catch (NumberFormatException e) {
-                        System.err.println("Ошибка чтения вершины: " + line);
-                    }
-                }
-                else if ("f".equals(keyword) && parts.length >= 3) {
-                    Face face = new Face();
-                    for (int i = 1; i < parts.length; i++) {
-                        try {
-                            String vertexPart = parts[i].split("/")[0];
-                            int vertexIndex = Integer.parseInt(vertexPart) - 1;
-
-                            if (vertexIndex >= 0 && vertexIndex < vertices.size()) {
-                                face.addVertex(vertices.get(vertexIndex));
-                            }
-                        } catch (NumberFormatException e) {
-                            System.err.println("Ошибка чтения грани: " + line);
-                        }
-                    }
-                    if (!face.getVertices().isEmpty()) {
-                        faces.add(face);
-                    }
-                }
+    public static void saveBinary(Polyhedron polyhedron, String filename) throws IOException {
+        writeBinary(polyhedron, Path.of(filename), null);
+    }
+
+    public static Polyhedron loadBinary(String filename) throws IOException {
+        return loadBinary(Path.of(filename), null);
+    }
+
+    // Если задан source, кэш другой версии исходного файла дает null
+    private static Polyhedron loadBinary(Path path, Path source) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < MESH_HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("Неверный размер файла: " + size);
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt(0) != MESH_MAGIC || buffer.getInt(4) != MESH_VERSION) {
+                throw new IOException("Неизвестный формат");
+            }
+            if (source != null && (buffer.getLong(24) != Files.size(source)
+                    || buffer.getLong(32) != Files.getLastModifiedTime(source).toMillis())) {
+                return null;
             }
 
-            Polyhedron polyhedron = new Polyhedron(faces, vertices);
+            int vertexCount = buffer.getInt(8);
+            int faceCount = buffer.getInt(12);
+            int cornerCount = buffer.getInt(16);
+            long expected = MESH_HEADER_SIZE + 24L * vertexCount + 4L * (faceCount + 1) + 4L * cornerCount;
+            if (vertexCount < 0 || faceCount < 0 || cornerCount < 0 || expected != size) {
+                throw new IOException("Размер файла не соответствует заголовку");
+            }
+
+            // Данные читаются прямо из отображения без разбора, float расширяются до double
+            buffer.position(MESH_HEADER_SIZE);
+            FloatBuffer floats = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+            double[] positions = new double[vertexCount * 3];
+            double[] normals = new double[vertexCount * 3];
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = floats.get(i);
+            }
+            for (int i = 0; i < normals.length; i++) {
+                normals[i] = floats.get(positions.length + i);
+            }
+
+            buffer.position(MESH_HEADER_SIZE + 24 * vertexCount);
+            IntBuffer ints = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            int[] faceOffsets = new int[faceCount + 1];
+            int[] faceIndices = new int[cornerCount];
+            ints.get(faceOffsets);
+            ints.get(faceIndices);
+            if (faceOffsets[0] != 0 || faceOffsets[faceCount] != cornerCount) {
+                throw new IOException("Неверные смещения граней");
+            }
+            for (int f = 0; f < faceCount; f++) {
+                if (faceOffsets[f] > faceOffsets[f + 1]) {
+                    throw new IOException("Неверные смещения граней");
+                }
+            }
 
-            // Пересчитываем нормали для всех граней
-            for (Face face : polyhedron.getFaces()) {
-                // Нормаль будет автоматически пересчитана при создании Face
+            try {
+                return Polyhedron.fromIndexedMesh(positions, normals, vertexCount, faceIndices, faceOffsets, faceCount);
+            } catch (IndexOutOfBoundsException e) {
+                throw new IOException("Неверный индекс вершины", e);
             }
+        }
+    }
+
+    // Файл пишется во временный и затем переименовывается, чтобы прерванная запись не оставила
+    // кэш с правильным заголовком и неполными данными
+    private static void writeBinary(Polyhedron polyhedron, Path path, Path source) throws IOException {
+        long sourceSize = (source != null) ? Files.size(source) : 0;
+        long sourceModified = (source != null) ? Files.getLastModifiedTime(source).toMillis() : 0;
+
+        if (polyhedron.hasModelTransform()) {
+            polyhedron = polyhedron.copy();
+            polyhedron.bake();
+        }
 
-            return polyhedron;
+        int vertexCount = polyhedron.getVertexCount();
+        int faceCount = polyhedron.getFaceCount();
+        int[] faceOffsets = polyhedron.getFaceOffsets();
+        int cornerCount = faceOffsets[faceCount];
+        long size = MESH_HEADER_SIZE + 24L * vertexCount + 4L * (faceCount + 1) + 4L * cornerCount;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Модель слишком большая для кэша");
+        }
+
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                buffer.putInt(MESH_MAGIC).putInt(MESH_VERSION)
+                        .putInt(vertexCount).putInt(faceCount).putInt(cornerCount).putInt(0)
+                        .putLong(sourceSize).putLong(sourceModified);
+
+                double[] positions = polyhedron.getPositions();
+                double[] normals = polyhedron.getNormals();
+                for (int i = 0; i < vertexCount * 3; i++) {
+                    buffer.putFloat((float) positions[i]);
+                }
+                for (int i = 0; i < vertexCount * 3; i++) {
+                    buffer.putFloat((float) normals[i]);
+                }
+                buffer.asIntBuffer().put(faceOffsets, 0, faceCount + 1).put(polyhedron.getFaceIndices(), 0, cornerCount);
+                buffer.force();
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
         }
     }
-}
\ No newline at end of file
+}
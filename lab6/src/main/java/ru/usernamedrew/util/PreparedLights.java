@@ -0,0 +1,224 @@
+package ru.usernamedrew.util;
+
+import ru.usernamedrew.model.Camera;
+import ru.usernamedrew.model.Light;
+
+import java.awt.Color;
+import java.util.List;
+
+// Источники света, подготовленные на кадр: цвета уже умножены на интенсивность и переведены в [0, 1],
+// направления направленных источников заранее развернуты, окружающий свет свернут в один член.
+// Методы освещения принимают нормаль и позицию покомпонентно и возвращают упакованный ARGB без выделения памяти
+public class PreparedLights {
+    private static final double PHONG_ATTENUATION = 0.1;
+    private static final double LAMBERT_ATTENUATION = 0.05;
+
+    private final int count;
+    private final boolean[] directional;
+    private final double[] vectors; // xyz: направление на источник (направленный) или позиция (точечный)
+    private final double[] colors;  // rgb: цвет * интенсивность / 255
+
+    private final double ambientR, ambientG, ambientB;
+
+    private final boolean hasCamera;
+    private final double cameraX, cameraY, cameraZ;
+
+    public PreparedLights(List<Light> lights, Color ambientLight, Camera camera) {
+        int n = 0;
+        for (Light light : lights) {
+            if (light.getType() != Light.LightType.AMBIENT) n++;
+        }
+        count = n;
+        directional = new boolean[n];
+        vectors = new double[n * 3];
+        colors = new double[n * 3];
+
+        int i = 0;
+        for (Light light : lights) {
+            if (light.getType() == Light.LightType.AMBIENT) continue; // учитывается через ambientLight
+
+            int i3 = i * 3;
+            if (light.getType() == Light.LightType.DIRECTIONAL) {
+                directional[i] = true;
+                vectors[i3] = -light.getDirection().x();
+                vectors[i3 + 1] = -light.getDirection().y();
+                vectors[i3 + 2] = -light.getDirection().z();
+            } else {
+                vectors[i3] = light.getPosition().x();
+                vectors[i3 + 1] = light.getPosition().y();
+                vectors[i3 + 2] = light.getPosition().z();
+            }
+            colors[i3] = light.getIntensity() * light.getColor().getRed() / 255.0;
+            colors[i3 + 1] = light.getIntensity() * light.getColor().getGreen() / 255.0;
+            colors[i3 + 2] = light.getIntensity() * light.getColor().getBlue() / 255.0;
+            i++;
+        }
+
+        ambientR = ambientLight.getRed() / 255.0;
+        ambientG = ambientLight.getGreen() / 255.0;
+        ambientB = ambientLight.getBlue() / 255.0;
+
+        hasCamera = camera != null;
+        cameraX = hasCamera ? camera.getPosition().x() : 0;
+        cameraY = hasCamera ? camera.getPosition().y() : 0;
+        cameraZ = hasCamera ? camera.getPosition().z() : 0;
+    }
+
+    // Модель Ламберта (только диффузная составляющая), для вершин в режиме Гуро
+    public int lambert(int baseRgb, double nx, double ny, double nz, double px, double py, double pz) {
+        double baseR = ((baseRgb >> 16) & 0xFF) / 255.0;
+        double baseG = ((baseRgb >> 8) & 0xFF) / 255.0;
+        double baseB = (baseRgb & 0xFF) / 255.0;
+
+        double red = ambientR * baseR;
+        double green = ambientG * baseG;
+        double blue = ambientB * baseB;
+
+        for (int i = 0, i3 = 0; i < count; i++, i3 += 3) {
+            double lx, ly, lz;
+            double attenuation = 1.0;
+            if (directional[i]) {
+                lx = vectors[i3];
+                ly = vectors[i3 + 1];
+                lz = vectors[i3 + 2];
+            } else {
+                lx = vectors[i3] - px;
+                ly = vectors[i3 + 1] - py;
+                lz = vectors[i3 + 2] - pz;
+                double distance = Math.sqrt(lx * lx + ly * ly + lz * lz);
+                if (distance > 0) {
+                    lx /= distance;
+                    ly /= distance;
+                    lz /= distance;
+                }
+                attenuation = 1.0 / (1.0 + LAMBERT_ATTENUATION * distance);
+            }
+
+            double diff = Math.max(nx * lx + ny * ly + nz * lz, 0.0) * attenuation;
+            red += diff * colors[i3] * baseR;
+            green += diff * colors[i3 + 1] * baseG;
+            blue += diff * colors[i3 + 2] * baseB;
+        }
+
+        return pack(red, green, blue);
+    }
+
+    // Модель Фонга: окружающая, диффузная и зеркальная (степень 32) составляющие
+    public int phong(int baseRgb, double nx, double ny, double nz, double px, double py, double pz) {
+        double baseR = ((baseRgb >> 16) & 0xFF) / 255.0;
+        double baseG = ((baseRgb >> 8) & 0xFF) / 255.0;
+        double baseB = (baseRgb & 0xFF) / 255.0;
+
+        double vx = 0, vy = 0, vz = -1;
+        if (hasCamera) {
+            vx = cameraX - px;
+            vy = cameraY - py;
+            vz = cameraZ - pz;
+            double length = Math.sqrt(vx * vx + vy * vy + vz * vz);
+            if (length > 0) {
+                vx /= length;
+                vy /= length;
+                vz /= length;
+            }
+        }
+
+        double red = ambientR * baseR;
+        double green = ambientG * baseG;
+        double blue = ambientB * baseB;
+
+        for (int i = 0, i3 = 0; i < count; i++, i3 += 3) {
+            double lx, ly, lz;
+            double attenuation = 1.0;
+            if (directional[i]) {
+                lx = vectors[i3];
+                ly = vectors[i3 + 1];
+                lz = vectors[i3 + 2];
+            } else {
+                lx = vectors[i3] - px;
+                ly = vectors[i3 + 1] - py;
+                lz = vectors[i3 + 2] - pz;
+                double distance = Math.sqrt(lx * lx + ly * ly + lz * lz);
+                if (distance > 0) {
+                    lx /= distance;
+                    ly /= distance;
+                    lz /= distance;
+                }
+                attenuation = 1.0 / (1.0 + PHONG_ATTENUATION * distance);
+            }
+
+            // Диффузная составляющая
+            double dot = nx * lx + ny * ly + nz * lz;
+            double diff = Math.max(dot, 0.0) * attenuation;
+
+            // Зеркальная составляющая: R = L - 2 (L * N) N
+            double rx = lx - 2 * dot * nx;
+            double ry = ly - 2 * dot * ny;
+            double rz = lz - 2 * dot * nz;
+            double spec = pow32(Math.max(vx * rx + vy * ry + vz * rz, 0.0)) * attenuation;
+
+            red += colors[i3] * (diff * baseR + spec);
+            green += colors[i3 + 1] * (diff * baseG + spec);
+            blue += colors[i3 + 2] * (diff * baseB + spec);
+        }
+
+        return pack(red, green, blue);
+    }
+
+    // Тун-шейдинг: ступенчатая интенсивность по углу падения
+    public int toon(int baseRgb, double nx, double ny, double nz, double px, double py, double pz) {
+        double intensity = 0.2; // Минимум света (тень)
+
+        for (int i = 0, i3 = 0; i < count; i++, i3 += 3) {
+            double lx, ly, lz;
+            if (directional[i]) {
+                lx = vectors[i3];
+                ly = vectors[i3 + 1];
+                lz = vectors[i3 + 2];
+            } else {
+                lx = vectors[i3] - px;
+                ly = vectors[i3 + 1] - py;
+                lz = vectors[i3 + 2] - pz;
+                double length = Math.sqrt(lx * lx + ly * ly + lz * lz);
+                if (length > 0) {
+                    lx /= length;
+                    ly /= length;
+                    lz /= length;
+                }
+            }
+
+            double dot = Math.max(nx * lx + ny * ly + nz * lz, 0.0);
+
+            // Квантование (ступенчатая функция)
+            if (dot > 0.95) intensity += 0.8;      // Яркий блик
+            else if (dot > 0.5) intensity += 0.5;  // Освещенная часть
+            else if (dot > 0.25) intensity += 0.3; // Полутень
+        }
+
+        intensity = Math.min(1.0, intensity);
+
+        int r = clampChannel((int) (((baseRgb >> 16) & 0xFF) * intensity));
+        int g = clampChannel((int) (((baseRgb >> 8) & 0xFF) * intensity));
+        int b = clampChannel((int) ((baseRgb & 0xFF) * intensity));
+        return 0xFF000000 | (r << 16) | (g << 8) | b;
+    }
+
+    // x^32 пятью возведениями в квадрат вместо Math.pow
+    private static double pow32(double x) {
+        x *= x;
+        x *= x;
+        x *= x;
+        x *= x;
+        return x * x;
+    }
+
+    private static int pack(double red, double green, double blue) {
+        int r = (int) (Math.min(1.0, Math.max(0.0, red)) * 255);
+        int g = (int) (Math.min(1.0, Math.max(0.0, green)) * 255);
+        int b = (int) (Math.min(1.0, Math.max(0.0, blue)) * 255);
+        return 0xFF000000 | (r << 16) | (g << 8) | b;
+    }
+
+    private static int clampChannel(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+}
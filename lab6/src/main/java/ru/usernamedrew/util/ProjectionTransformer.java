@@ -4,12 +4,16 @@ package ru.usernamedrew.util;
 import ru.usernamedrew.model.Camera;
 import ru.usernamedrew.model.Point3D;
 import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.List;
 
 public class ProjectionTransformer {
     private final Camera camera;
     private String projectionType;
     private double scale;
     private int centerX, centerY;
+    private Matrix4 legacyMatrix; // матрица проекции без камеры, строится при первом обращении
+    private final double[] clip = new double[3]; // рабочий массив projectView; проекция идет в потоке отрисовки
 
     public ProjectionTransformer(Camera camera, double scale, int centerX, int centerY) {
         this.camera = camera;
@@ -36,14 +40,53 @@ public class ProjectionTransformer {
     }
 
     private Point2D projectWithCamera(Point3D point3d) {
-        double[][] viewMatrix = camera.getViewMatrix();
-        double[][] projMatrix = camera.getPerspectiveMatrix();
+        // World → Clip space одной матрицей
+        Point3D clipSpace = camera.getViewProjectionMatrix().transform(point3d);
 
-        // World → View space
-        Point3D viewSpace = point3d.transform(viewMatrix);
+        int screenX = centerX + (int) (clipSpace.x() * scale);
+        int screenY = centerY - (int) (clipSpace.y() * scale);
+
+        return new Point2D.Double(screenX, screenY);
+    }
+
+    // Проекция массива точек xyz: экранные координаты в outXY (x, y подряд),
+    // глубина (расстояние вдоль взгляда камеры или -z без камеры) в outDepth, если он не null
+    public void projectAll(double[] xyz, double[] outXY, double[] outDepth) {
+        projectAll(xyz, xyz.length / 3, outXY, outDepth);
+    }
+
+    public void projectAll(double[] xyz, int count, double[] outXY, double[] outDepth) {
+        double[] clip = new double[3];
+
+        if (camera != null) {
+            Matrix4 viewProjection = camera.getViewProjectionMatrix();
+            Matrix4 view = camera.getViewMatrix();
+            for (int i = 0, i2 = 0, i3 = 0; i < count; i++, i2 += 2, i3 += 3) {
+                double x = xyz[i3], y = xyz[i3 + 1], z = xyz[i3 + 2];
+                viewProjection.transform(x, y, z, clip, 0);
+                outXY[i2] = centerX + (int) (clip[0] * scale);
+                outXY[i2 + 1] = centerY - (int) (clip[1] * scale);
+                if (outDepth != null) outDepth[i] = -view.transformZ(x, y, z);
+            }
+            return;
+        }
+
+        Matrix4 matrix = getLegacyMatrix();
+        for (int i = 0, i2 = 0, i3 = 0; i < count; i++, i2 += 2, i3 += 3) {
+            double x = xyz[i3], y = xyz[i3 + 1], z = xyz[i3 + 2];
+            matrix.transform(x * scale, y * scale, z * scale, clip, 0);
+            outXY[i2] = centerX + clip[0];
+            outXY[i2 + 1] = centerY - clip[1];
+            if (outDepth != null) outDepth[i] = -z;
+        }
+    }
+
+    // Проекция точки, уже переведенной в пространство камеры (только для режима камеры)
+    public Point2D projectView(Point3D viewSpace) {
+        Matrix4 projMatrix = camera.getPerspectiveMatrix();
 
         // View → Clip space
-        Point3D clipSpace = viewSpace.transform(projMatrix);
+        Point3D clipSpace = projMatrix.transform(viewSpace);
 
         int screenX = centerX + (int) (clipSpace.x() * scale);
         int screenY = centerY - (int) (clipSpace.y() * scale);
@@ -51,20 +94,134 @@ public class ProjectionTransformer {
         return new Point2D.Double(screenX, screenY);
     }
 
-    private Point2D projectLegacy(Point3D point3d) {
-        Point3D scaled = new Point3D(point3d.x() * scale, point3d.y() * scale, point3d.z() * scale);
+    // То же без выделения памяти: экранные x, y в outXY[offset], outXY[offset + 1]
+    public void projectView(double x, double y, double z, double[] outXY, int offset) {
+        camera.getPerspectiveMatrix().transform(x, y, z, clip, 0);
+        outXY[offset] = centerX + (int) (clip[0] * scale);
+        outXY[offset + 1] = centerY - (int) (clip[1] * scale);
+    }
 
-        double[][] matrix;
+    public Camera getCamera() {
+        return camera;
+    }
 
-        if ("perspective".equals(projectionType)) {
-            double distance = 500.0; // можно сделать параметром, но пока фиксировано
-            matrix = AffineTransform.createPerspectiveProjectionMatrix(distance);
-        } else {
-            double angle = Math.PI / 6; // 30 градусов — стандартная аксонометрия
-            matrix = AffineTransform.createAxonometricProjectionMatrix(angle);
+    // Пирамида видимости в пространстве камеры для экрана width x height; null без камеры.
+    // Боковые плоскости соответствуют краям экрана с запасом guard пикселей
+    public Frustum createViewFrustum(int width, int height, double guard) {
+        if (camera == null) return null;
+
+        Matrix4 projMatrix = camera.getPerspectiveMatrix();
+        // Экранная координата = центр + k * (x / -z), где k определяется матрицей проекции и масштабом
+        double kx = scale * projMatrix.get(0, 0) / -projMatrix.get(3, 2);
+        double ky = scale * projMatrix.get(1, 1) / -projMatrix.get(3, 2);
+
+        double uMin = (-guard - centerX) / kx;
+        double uMax = (width + guard - centerX) / kx;
+        double vMin = (centerY - height - guard) / ky;
+        double vMax = (centerY + guard) / ky;
+
+        return new Frustum(new double[][]{
+                {1, 0, uMin, 0},                // x / -z >= uMin
+                {-1, 0, -uMax, 0},              // x / -z <= uMax
+                {0, 1, vMin, 0},                // y / -z >= vMin
+                {0, -1, -vMax, 0},              // y / -z <= vMax
+                {0, 0, -1, -camera.getNear()},  // z <= -near
+                {0, 0, 1, camera.getFar()}      // z >= -far
+        });
+    }
+
+    // Пирамида видимости в мировых координатах для отсечения целых объектов и групп граней; null, если ее нет.
+    // Без камеры экранная координата равна центру плюс (строка матрицы * scale * p) / w - условия попадания
+    // в экран с запасом guard линейны по p, так что это тоже плоскости
+    public Frustum createWorldFrustum(int width, int height, double guard) {
+        if (camera != null) {
+            return createViewFrustum(width, height, guard).toLocal(camera.getViewMatrix());
         }
 
-        Point3D projected = scaled.transform(matrix);
+        Matrix4 matrix = getLegacyMatrix();
+        double[] x = legacyRow(matrix, 0), y = legacyRow(matrix, 1), w = legacyRow(matrix, 3);
+        List<double[]> planes = new ArrayList<>(List.of(
+                combine(x, 1, w, centerX + guard),              // X / w >= -guard - centerX
+                combine(x, -1, w, width + guard - centerX),     // X / w <= width + guard - centerX
+                combine(y, -1, w, centerY + guard),             // Y / w <= centerY + guard
+                combine(y, 1, w, height + guard - centerY)      // Y / w >= centerY - height - guard
+        ));
+        if (!matrix.isAffine()) {
+            planes.add(w); // точки за наблюдателем (w <= 0) не видны
+        }
+        return new Frustum(planes.toArray(new double[0][]));
+    }
+
+    // Луч из точки экрана в глубину сцены: все его точки проецируются в (screenX, screenY),
+    // параметр t - глубина в смысле z-буфера. null, если проекция вырождена
+    public Ray createPickRay(double screenX, double screenY) {
+        if (camera != null) {
+            Matrix4 projMatrix = camera.getPerspectiveMatrix();
+            double kx = scale * projMatrix.get(0, 0) / -projMatrix.get(3, 2);
+            double ky = scale * projMatrix.get(1, 1) / -projMatrix.get(3, 2);
+            Matrix4 inverseView = new Matrix4();
+            if (!camera.getViewMatrix().invert(inverseView)) return null;
+
+            // В пространстве камеры луч (u, v, -1) * t, t - расстояние вдоль взгляда
+            double u = (screenX - centerX) / kx, v = (centerY - screenY) / ky;
+            Point3D origin = inverseView.transform(new Point3D(0, 0, 0));
+            Point3D direction = inverseView.transform(new Point3D(u, v, -1)).subtract(origin);
+            return new Ray(origin, direction, camera.getNear(), camera.getFar());
+        }
+
+        // Без камеры: пересечение плоскостей X - sx * w = 0 и Y - sy * w = 0, глубина z-буфера равна -z
+        Matrix4 matrix = getLegacyMatrix();
+        double[] w = legacyRow(matrix, 3);
+        double[] a = combine(legacyRow(matrix, 0), 1, w, -(screenX - centerX));
+        double[] b = combine(legacyRow(matrix, 1), 1, w, -(centerY - screenY));
+        double det = a[0] * b[1] - a[1] * b[0]; // z-компонента a x b
+        if (Math.abs(det) < 1e-12) return null;
+
+        Point3D direction = new Point3D(a[1] * b[2] - a[2] * b[1], a[2] * b[0] - a[0] * b[2], det).multiply(-1 / det);
+        Point3D origin = new Point3D((-a[3] * b[1] + b[3] * a[1]) / det, (-b[3] * a[0] + a[3] * b[0]) / det, 0);
+
+        // w(t) = w0 + t * w1 должно быть > 0
+        double w0 = w[0] * origin.x() + w[1] * origin.y() + w[2] * origin.z() + w[3];
+        double w1 = w[0] * direction.x() + w[1] * direction.y() + w[2] * direction.z();
+        double tMin = Double.NEGATIVE_INFINITY, tMax = Double.POSITIVE_INFINITY;
+        if (w1 > 0) tMin = -w0 / w1;
+        if (w1 < 0) tMax = -w0 / w1;
+        return new Ray(origin, direction, tMin, tMax);
+    }
+
+    // Сколько пикселей экрана занимает единица длины мира в ближайшей к наблюдателю точке шара (center, radius);
+    // бесконечность, если шар задевает ближнюю плоскость камеры или наблюдателя без камеры
+    public double pixelsPerUnit(Point3D center, double radius) {
+        if (camera != null) {
+            Matrix4 projMatrix = camera.getPerspectiveMatrix();
+            double k = scale * Math.max(projMatrix.get(0, 0), projMatrix.get(1, 1)) / -projMatrix.get(3, 2);
+            double depth = -camera.getViewMatrix().transformZ(center.x(), center.y(), center.z()) - radius;
+            return depth > camera.getNear() ? k / depth : Double.POSITIVE_INFINITY;
+        }
+
+        // Без камеры: наибольшее растяжение экранных строк матрицы, деленное на наименьшее w в шаре
+        Matrix4 matrix = getLegacyMatrix();
+        double[] x = legacyRow(matrix, 0), y = legacyRow(matrix, 1), w = legacyRow(matrix, 3);
+        double stretch = Math.max(Math.sqrt(x[0] * x[0] + x[1] * x[1] + x[2] * x[2]),
+                Math.sqrt(y[0] * y[0] + y[1] * y[1] + y[2] * y[2]));
+        double minW = w[0] * center.x() + w[1] * center.y() + w[2] * center.z() + w[3]
+                - radius * Math.sqrt(w[0] * w[0] + w[1] * w[1] + w[2] * w[2]);
+        return minW > 0 ? stretch / minW : Double.POSITIVE_INFINITY;
+    }
+
+    // Строка матрицы проекции без камеры как плоскость по исходной точке (матрица применяется к p * scale)
+    private double[] legacyRow(Matrix4 matrix, int row) {
+        return new double[]{matrix.get(row, 0) * scale, matrix.get(row, 1) * scale, matrix.get(row, 2) * scale, matrix.get(row, 3)};
+    }
+
+    private static double[] combine(double[] a, double ka, double[] b, double kb) {
+        return new double[]{a[0] * ka + b[0] * kb, a[1] * ka + b[1] * kb, a[2] * ka + b[2] * kb, a[3] * ka + b[3] * kb};
+    }
+
+    private Point2D projectLegacy(Point3D point3d) {
+        Point3D scaled = new Point3D(point3d.x() * scale, point3d.y() * scale, point3d.z() * scale);
+
+        Point3D projected = getLegacyMatrix().transform(scaled);
 
         return new Point2D.Double(
                 centerX + projected.x(),
@@ -72,9 +229,23 @@ public class ProjectionTransformer {
         );
     }
 
+    private Matrix4 getLegacyMatrix() {
+        if (legacyMatrix == null) {
+            if ("perspective".equals(projectionType)) {
+                double distance = 500.0; // можно сделать параметром, но пока фиксировано
+                legacyMatrix = AffineTransform.createPerspectiveProjectionMatrix(distance);
+            } else {
+                double angle = Math.PI / 6; // 30 градусов — стандартная аксонометрия
+                legacyMatrix = AffineTransform.createAxonometricProjectionMatrix(angle);
+            }
+        }
+        return legacyMatrix;
+    }
+
     // Геттеры и сеттеры
     public void setProjectionType(String projectionType) {
         this.projectionType = projectionType;
+        legacyMatrix = null;
     }
 
     public void setScale(double scale) {
@@ -0,0 +1,12 @@
+package ru.usernamedrew.util;
+
+import ru.usernamedrew.model.Point3D;
+
+// Луч origin + t * direction, t в [tMin, tMax]. Параметр t растет вместе с глубиной z-буфера,
+// поэтому ближайшее к зрителю пересечение - с наименьшим t
+public record Ray(Point3D origin, Point3D direction, double tMin, double tMax) {
+
+    public Point3D at(double t) {
+        return origin.add(direction.multiply(t));
+    }
+}
@@ -0,0 +1,499 @@
+package ru.usernamedrew.util;
+
+import ru.usernamedrew.model.Polyhedron;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Динамическая иерархия ограничивающих параллелепипедов над объектами сцены, в мировых координатах.
+// Лист хранит точный параллелепипед объекта и расширенный на MARGIN от его размера: пока объект двигается
+// внутри расширенного, дерево не меняется, иначе лист вынимается и вставляется заново.
+// Вставка - к соседу с наименьшим приростом площади поверхности, баланс - поворотами по высоте (как в Box2D).
+// Внутри объекта отсечение и пересечение с лучом идут по его FaceBvh
+public class SceneBvh {
+    private static final int NULL = -1;
+    private static final double MARGIN = 0.1;
+
+    private double[] fat;   // по 6 чисел на узел: у листа - расширенный параллелепипед, у внутреннего - объединение
+    private double[] tight; // точный параллелепипед объекта, только у листьев
+    private int[] parent;   // у свободного узла - следующий свободный
+    private int[] child1;
+    private int[] child2;   // у листа child1 = NULL
+    private int[] height;
+    private Polyhedron[] objects;
+    private int[] versions; // версия объекта, по которой посчитан tight
+    private int[] sequence; // порядок добавления: в нем объекты и рисуются
+
+    private int capacity;
+    private int root = NULL;
+    private int freeList = NULL;
+    private int nextSequence;
+    private final Map<Polyhedron, Integer> leaves = new IdentityHashMap<>();
+
+    public SceneBvh() {
+        allocate(16);
+    }
+
+    public int size() {
+        return leaves.size();
+    }
+
+    public boolean contains(Polyhedron polyhedron) {
+        return leaves.containsKey(polyhedron);
+    }
+
+    public void add(Polyhedron polyhedron) {
+        if (polyhedron == null || leaves.containsKey(polyhedron)) return;
+
+        int leaf = allocateNode();
+        objects[leaf] = polyhedron;
+        sequence[leaf] = nextSequence++;
+        computeBounds(leaf);
+        insertLeaf(leaf);
+        leaves.put(polyhedron, leaf);
+    }
+
+    public void remove(Polyhedron polyhedron) {
+        Integer leaf = leaves.remove(polyhedron);
+        if (leaf == null) return;
+
+        removeLeaf(leaf);
+        freeNode(leaf);
+    }
+
+    // Замена объекта с сохранением его места в порядке добавления
+    public void replace(Polyhedron old, Polyhedron polyhedron) {
+        if (old == polyhedron) return;
+        Integer leaf = leaves.get(old);
+        if (leaf == null) {
+            add(polyhedron);
+            return;
+        }
+
+        int order = sequence[leaf];
+        remove(old);
+        if (polyhedron == null || leaves.containsKey(polyhedron)) return;
+        add(polyhedron);
+        sequence[leaves.get(polyhedron)] = order;
+    }
+
+    public void clear() {
+        leaves.clear();
+        allocate(16);
+        root = NULL;
+        freeList = NULL;
+        nextSequence = 0;
+    }
+
+    // Пересчет параллелепипедов объектов, изменившихся с прошлого вызова (сравнение версий - O(n)).
+    // Лист переставляется, только если объект вышел за свой расширенный параллелепипед
+    public void update() {
+        for (int leaf : leaves.values()) {
+            if (objects[leaf].getVersion() == versions[leaf]) continue;
+
+            computeTight(leaf);
+            int b = leaf * 6;
+            if (fat[b] <= tight[b] && fat[b + 1] <= tight[b + 1] && fat[b + 2] <= tight[b + 2]
+                    && fat[b + 3] >= tight[b + 3] && fat[b + 4] >= tight[b + 4] && fat[b + 5] >= tight[b + 5]) {
+                continue;
+            }
+            removeLeaf(leaf);
+            computeFat(leaf);
+            insertLeaf(leaf);
+        }
+    }
+
+    // Объекты, чьи параллелепипеды пересекают пирамиду (в мировых координатах), в порядке добавления;
+    // null - все объекты
+    public List<Polyhedron> collectVisible(Frustum frustum) {
+        int[] found = new int[Math.max(1, leaves.size())];
+        int count = 0;
+        if (root != NULL && frustum == null) {
+            count = collectSubtree(root, found, count);
+        } else if (root != NULL) {
+            int[] stack = new int[64];
+            int top = 0;
+            stack[top++] = root;
+            while (top > 0) {
+                int node = stack[--top];
+                if (child1[node] == NULL) {
+                    if (classify(frustum, tight, node * 6) != Frustum.OUTSIDE) found[count++] = node;
+                    continue;
+                }
+                int position = classify(frustum, fat, node * 6);
+                if (position == Frustum.OUTSIDE) continue;
+                if (position == Frustum.INSIDE) {
+                    count = collectSubtree(node, found, count);
+                    continue;
+                }
+                if (top + 2 > stack.length) stack = Arrays.copyOf(stack, stack.length * 2);
+                stack[top++] = child2[node];
+                stack[top++] = child1[node];
+            }
+        }
+
+        // Порядок добавления важен при одинаковой глубине: z-буфер оставляет первый нарисованный пиксель
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = (long) sequence[found[i]] << 32 | found[i];
+        }
+        Arrays.sort(keys);
+        List<Polyhedron> result = new ArrayList<>(count);
+        for (long key : keys) {
+            result.add(objects[(int) key]);
+        }
+        return result;
+    }
+
+    // Ближайший к зрителю объект, который пересекает луч, или null. Луч переводится в локальные координаты
+    // объекта обратной матрицей модели (параметр t при этом не меняется); объекты с неаффинной
+    // или вырожденной матрицей модели не выбираются
+    public Polyhedron pick(Ray ray) {
+        if (ray == null || root == NULL) return null;
+
+        double ox = ray.origin().x(), oy = ray.origin().y(), oz = ray.origin().z();
+        double dx = ray.direction().x(), dy = ray.direction().y(), dz = ray.direction().z();
+        double ix = FaceBvh.inverse(dx), iy = FaceBvh.inverse(dy), iz = FaceBvh.inverse(dz);
+        double tMin = ray.tMin();
+
+        Matrix4 inverse = new Matrix4();
+        double best = ray.tMax();
+        Polyhedron hit = null;
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = root;
+        while (top > 0) {
+            int node = stack[--top];
+            if (child1[node] == NULL) {
+                if (Double.isNaN(FaceBvh.slab(tight, node * 6, ox, oy, oz, ix, iy, iz, tMin, best))) continue;
+
+                Polyhedron polyhedron = objects[node];
+                double t;
+                if (!polyhedron.hasModelTransform()) {
+                    t = polyhedron.getFaceBvh().intersectRay(polyhedron, ox, oy, oz, dx, dy, dz, tMin, best);
+                } else {
+                    Matrix4 model = polyhedron.getModelMatrix();
+                    if (!model.isAffine() || !model.invert(inverse)) continue;
+                    // Направление - без переноса
+                    double lox = inverse.get(0, 0) * ox + inverse.get(0, 1) * oy + inverse.get(0, 2) * oz + inverse.get(0, 3);
+                    double loy = inverse.get(1, 0) * ox + inverse.get(1, 1) * oy + inverse.get(1, 2) * oz + inverse.get(1, 3);
+                    double loz = inverse.get(2, 0) * ox + inverse.get(2, 1) * oy + inverse.get(2, 2) * oz + inverse.get(2, 3);
+                    double ldx = inverse.get(0, 0) * dx + inverse.get(0, 1) * dy + inverse.get(0, 2) * dz;
+                    double ldy = inverse.get(1, 0) * dx + inverse.get(1, 1) * dy + inverse.get(1, 2) * dz;
+                    double ldz = inverse.get(2, 0) * dx + inverse.get(2, 1) * dy + inverse.get(2, 2) * dz;
+                    t = polyhedron.getFaceBvh().intersectRay(polyhedron, lox, loy, loz, ldx, ldy, ldz, tMin, best);
+                }
+                if (t < best) {
+                    best = t;
+                    hit = polyhedron;
+                }
+                continue;
+            }
+
+            if (Double.isNaN(FaceBvh.slab(fat, node * 6, ox, oy, oz, ix, iy, iz, tMin, best))) continue;
+            // Ближний потомок кладется последним, чтобы обойти его первым
+            int near = child1[node], far = child2[node];
+            double nearEntry = FaceBvh.slab(fat, near * 6, ox, oy, oz, ix, iy, iz, tMin, best);
+            double farEntry = FaceBvh.slab(fat, far * 6, ox, oy, oz, ix, iy, iz, tMin, best);
+            if (farEntry < nearEntry || Double.isNaN(nearEntry)) {
+                int t = near;
+                near = far;
+                far = t;
+            }
+            if (top + 2 > stack.length) stack = Arrays.copyOf(stack, stack.length * 2);
+            stack[top++] = far;
+            stack[top++] = near;
+        }
+        return hit;
+    }
+
+    private int collectSubtree(int node, int[] found, int count) {
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = node;
+        while (top > 0) {
+            int n = stack[--top];
+            if (child1[n] == NULL) {
+                found[count++] = n;
+                continue;
+            }
+            if (top + 2 > stack.length) stack = Arrays.copyOf(stack, stack.length * 2);
+            stack[top++] = child2[n];
+            stack[top++] = child1[n];
+        }
+        return count;
+    }
+
+    private static int classify(Frustum frustum, double[] box, int b) {
+        return frustum.classifyBox(box[b], box[b + 1], box[b + 2], box[b + 3], box[b + 4], box[b + 5]);
+    }
+
+    private void computeBounds(int leaf) {
+        computeTight(leaf);
+        computeFat(leaf);
+    }
+
+    // Аффинная матрица модели переносит параллелепипед сетки по Арво: для каждой оси результата
+    // складываются наименьшие и наибольшие вклады столбцов. При неаффинной - по мировым вершинам
+    private void computeTight(int leaf) {
+        Polyhedron polyhedron = objects[leaf];
+        versions[leaf] = polyhedron.getVersion();
+        int b = leaf * 6;
+        if (polyhedron.getFaceCount() == 0) {
+            // Пустой объект - точка в начале координат, чтобы не получить бесконечностей в площадях
+            Arrays.fill(tight, b, b + 6, 0);
+            return;
+        }
+
+        double[] local = new double[6];
+        polyhedron.getFaceBvh().getBounds(local, 0);
+        if (!polyhedron.hasModelTransform()) {
+            System.arraycopy(local, 0, tight, b, 6);
+            return;
+        }
+
+        Matrix4 model = polyhedron.getModelMatrix();
+        if (model.isAffine()) {
+            for (int i = 0; i < 3; i++) {
+                double min = model.get(i, 3), max = min;
+                for (int j = 0; j < 3; j++) {
+                    double lo = model.get(i, j) * local[j], hi = model.get(i, j) * local[j + 3];
+                    min += Math.min(lo, hi);
+                    max += Math.max(lo, hi);
+                }
+                tight[b + i] = min;
+                tight[b + 3 + i] = max;
+            }
+            return;
+        }
+
+        double[] world = new double[polyhedron.getVertexCount() * 3];
+        polyhedron.getWorldPositions(world);
+        FaceBvh.emptyBox(tight, b);
+        for (int i3 = 0; i3 < world.length; i3 += 3) {
+            FaceBvh.include(tight, b, world[i3], world[i3 + 1], world[i3 + 2]);
+        }
+    }
+
+    private void computeFat(int leaf) {
+        int b = leaf * 6;
+        double margin = MARGIN * Math.max(tight[b + 3] - tight[b], Math.max(tight[b + 4] - tight[b + 1], tight[b + 5] - tight[b + 2]));
+        for (int axis = 0; axis < 3; axis++) {
+            fat[b + axis] = tight[b + axis] - margin;
+            fat[b + 3 + axis] = tight[b + 3 + axis] + margin;
+        }
+    }
+
+    private void insertLeaf(int leaf) {
+        if (root == NULL) {
+            root = leaf;
+            parent[leaf] = NULL;
+            return;
+        }
+
+        // Спуск к соседу: дальше вниз, пока это дешевле, чем сделать соседом текущий узел
+        int lb = leaf * 6;
+        int index = root;
+        while (child1[index] != NULL) {
+            int c1 = child1[index], c2 = child2[index];
+            double area = area(fat, index * 6);
+            double combinedArea = unionArea(fat, index * 6, fat, lb);
+            double cost = 2 * combinedArea;
+            double inheritance = 2 * (combinedArea - area);
+            double cost1 = descendCost(c1, lb) + inheritance;
+            double cost2 = descendCost(c2, lb) + inheritance;
+            if (cost < cost1 && cost < cost2) break;
+            index = cost1 < cost2 ? c1 : c2;
+        }
+
+        int sibling = index;
+        int oldParent = parent[sibling];
+        int newParent = allocateNode();
+        parent[newParent] = oldParent;
+        objects[newParent] = null;
+        union(fat, newParent * 6, sibling * 6, leaf * 6);
+        height[newParent] = height[sibling] + 1;
+        child1[newParent] = sibling;
+        child2[newParent] = leaf;
+        parent[sibling] = newParent;
+        parent[leaf] = newParent;
+        if (oldParent == NULL) {
+            root = newParent;
+        } else if (child1[oldParent] == sibling) {
+            child1[oldParent] = newParent;
+        } else {
+            child2[oldParent] = newParent;
+        }
+
+        refit(parent[leaf]);
+    }
+
+    private double descendCost(int child, int lb) {
+        double combined = unionArea(fat, child * 6, fat, lb);
+        return child1[child] == NULL ? combined : combined - area(fat, child * 6);
+    }
+
+    private void removeLeaf(int leaf) {
+        if (leaf == root) {
+            root = NULL;
+            return;
+        }
+
+        int oldParent = parent[leaf];
+        int grandParent = parent[oldParent];
+        int sibling = child1[oldParent] == leaf ? child2[oldParent] : child1[oldParent];
+        freeNode(oldParent);
+        if (grandParent == NULL) {
+            root = sibling;
+            parent[sibling] = NULL;
+            return;
+        }
+        if (child1[grandParent] == oldParent) {
+            child1[grandParent] = sibling;
+        } else {
+            child2[grandParent] = sibling;
+        }
+        parent[sibling] = grandParent;
+        refit(grandParent);
+    }
+
+    // Подъем к корню с балансировкой и пересчетом параллелепипедов и высот
+    private void refit(int index) {
+        while (index != NULL) {
+            index = balance(index);
+            int c1 = child1[index], c2 = child2[index];
+            height[index] = 1 + Math.max(height[c1], height[c2]);
+            union(fat, index * 6, c1 * 6, c2 * 6);
+            index = parent[index];
+        }
+    }
+
+    // Если высоты потомков a отличаются больше чем на 1, более высокий поднимается на место a.
+    // Возвращает узел, оказавшийся на месте a
+    private int balance(int a) {
+        if (child1[a] == NULL || height[a] < 2) return a;
+
+        int b = child1[a], c = child2[a];
+        int difference = height[c] - height[b];
+        if (difference > 1) {
+            rotateUp(a, c, b, true);
+            return c;
+        }
+        if (difference < -1) {
+            rotateUp(a, b, c, false);
+            return b;
+        }
+        return a;
+    }
+
+    // up - потомок a, который встает на его место; other - второй потомок a. Из двух потомков up
+    // более высокий остается у up, более низкий переходит к a
+    private void rotateUp(int a, int up, int other, boolean upIsSecond) {
+        int f = child1[up], g = child2[up];
+
+        child1[up] = a;
+        parent[up] = parent[a];
+        parent[a] = up;
+        if (parent[up] == NULL) {
+            root = up;
+        } else if (child1[parent[up]] == a) {
+            child1[parent[up]] = up;
+        } else {
+            child2[parent[up]] = up;
+        }
+
+        int keep = height[f] > height[g] ? f : g;
+        int give = keep == f ? g : f;
+        child2[up] = keep;
+        if (upIsSecond) {
+            child2[a] = give;
+        } else {
+            child1[a] = give;
+        }
+        parent[give] = a;
+
+        union(fat, a * 6, other * 6, give * 6);
+        union(fat, up * 6, a * 6, keep * 6);
+        height[a] = 1 + Math.max(height[other], height[give]);
+        height[up] = 1 + Math.max(height[a], height[keep]);
+    }
+
+    private int allocateNode() {
+        if (freeList == NULL) {
+            int old = capacity;
+            grow(capacity * 2);
+            for (int i = old; i < capacity; i++) {
+                parent[i] = i + 1 < capacity ? i + 1 : NULL;
+            }
+            freeList = old;
+        }
+        int node = freeList;
+        freeList = parent[node];
+        parent[node] = NULL;
+        child1[node] = NULL;
+        child2[node] = NULL;
+        height[node] = 0;
+        return node;
+    }
+
+    private void freeNode(int node) {
+        objects[node] = null;
+        parent[node] = freeList;
+        height[node] = -1;
+        freeList = node;
+    }
+
+    private void allocate(int size) {
+        capacity = 0;
+        fat = new double[0];
+        tight = new double[0];
+        parent = new int[0];
+        child1 = new int[0];
+        child2 = new int[0];
+        height = new int[0];
+        objects = new Polyhedron[0];
+        versions = new int[0];
+        sequence = new int[0];
+        grow(size);
+        for (int i = 0; i < size; i++) {
+            parent[i] = i + 1 < size ? i + 1 : NULL;
+        }
+        freeList = 0;
+    }
+
+    private void grow(int size) {
+        fat = Arrays.copyOf(fat, size * 6);
+        tight = Arrays.copyOf(tight, size * 6);
+        parent = Arrays.copyOf(parent, size);
+        child1 = Arrays.copyOf(child1, size);
+        child2 = Arrays.copyOf(child2, size);
+        height = Arrays.copyOf(height, size);
+        objects = Arrays.copyOf(objects, size);
+        versions = Arrays.copyOf(versions, size);
+        sequence = Arrays.copyOf(sequence, size);
+        capacity = size;
+    }
+
+    private void union(double[] box, int out, int a, int b) {
+        for (int axis = 0; axis < 3; axis++) {
+            box[out + axis] = Math.min(box[a + axis], box[b + axis]);
+            box[out + 3 + axis] = Math.max(box[a + 3 + axis], box[b + 3 + axis]);
+        }
+    }
+
+    // Половина площади поверхности - для сравнения стоимостей множитель не важен
+    private static double area(double[] box, int b) {
+        double x = box[b + 3] - box[b], y = box[b + 4] - box[b + 1], z = box[b + 5] - box[b + 2];
+        return x * y + y * z + z * x;
+    }
+
+    private static double unionArea(double[] a, int ia, double[] b, int ib) {
+        double x = Math.max(a[ia + 3], b[ib + 3]) - Math.min(a[ia], b[ib]);
+        double y = Math.max(a[ia + 4], b[ib + 4]) - Math.min(a[ia + 1], b[ib + 1]);
+        double z = Math.max(a[ia + 5], b[ib + 5]) - Math.min(a[ia + 2], b[ib + 2]);
+        return x * y + y * z + z * x;
+    }
+}
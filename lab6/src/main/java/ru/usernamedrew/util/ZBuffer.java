@@ -3,9 +3,12 @@ package ru.usernamedrew.util;
 import ru.usernamedrew.model.*;
 
 import java.awt.*;
-import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.stream.IntStream;
 
 public class ZBuffer {
     // Перечисление режимов закрашивания
@@ -15,21 +18,123 @@ public class ZBuffer {
         PHONG_TOON      // Фонг + Тун-шейдинг
     }
 
-    private double[][] zBuffer;
-    private Color[][] frameBuffer;
+    // Пустой пиксель кадра (полностью прозрачный)
+    private static final int EMPTY_PIXEL = 0;
+
+    // Субпиксельная точность растеризатора: 4 бита дробной части
+    private static final int SUBPIXEL_BITS = 4;
+    private static final long SUBPIXEL_ONE = 1L << SUBPIXEL_BITS;
+    private static final double MAX_COORDINATE = 1 << 24;
+
+    // Размер экранного тайла для многопоточной растеризации
+    private static final int TILE_SIZE = 64;
+
+    // Запас боковых плоскостей пирамиды видимости за краями экрана, пикселей
+    private static final double FRUSTUM_GUARD = 2;
+
+    // Плоские буферы в построчном порядке: индекс пикселя = y * width + x
+    private final float[] depthBuffer;
+    private final int[] frameBuffer; // ARGB, данные растра image
+    private final BufferedImage image;
     private final int width;
     private final int height;
 
     private Camera camera = null;
+    private Matrix4 viewMatrix = null;
+    // Отсечение в пространстве камеры проектора (null для проекций без камеры)
+    private Frustum frustum = null;
     private List<Light> lights = new ArrayList<>();
     private Color ambientLight = new Color(50, 50, 50);
+    private PreparedLights preparedLights;
 
     private ShadingMode currentShadingMode = ShadingMode.DEFAULT;
 
+    // Многопоточный режим: треугольники раскладываются по тайлам,
+    // каждый тайл растеризуется отдельной задачей ForkJoinPool и владеет своей областью буферов
+    private boolean parallelRendering = false;
+    private final int tilesX;
+    private final int tilesY;
+    // Отложенные треугольники: по три номера вершин вершинного буфера и базовый цвет
+    private int[] triangleVertices = new int[256 * 3];
+    private int[] triangleColors = new int[256];
+    private int triangleCount = 0;
+
+    // Мировые координаты и нормали объекта с матрицей модели; буферы переиспользуются между объектами и кадрами
+    private double[] worldPositions = new double[0];
+    private double[] worldNormals = new double[0];
+    // Экранные x, y вершин объекта в режиме без камеры
+    private double[] screenPositions = new double[0];
+    // Вершинный буфер: подготовленные вершины и вершины, созданные отсечением, лежат подряд,
+    // треугольники ссылаются на них по номеру. Без отложенной растеризации буфер заполняется заново
+    // для каждого объекта, иначе - один раз за кадр
+    private int preparedCount = 0;
+    private double[] screenXY = new double[0];    // x, y экрана
+    private double[] depths = new double[0];      // глубина для z-буфера
+    private double[] viewXYZ = new double[0];     // координаты в пространстве камеры (только в режиме камеры)
+    private double[] positionXYZ = new double[0]; // мировые координаты для освещения
+    private double[] normalXYZ = new double[0];
+    private int[] colors = new int[0];            // цвет вершины для Гуро
+    private int[] outcodes = new int[0];          // биты плоскостей Frustum, снаружи которых лежит вершина
+    // Вершины объекта, на которые ссылаются грани, прошедшие отсечение
+    private boolean[] used = new boolean[0];
+    // Многоугольник грани при отсечении ближней и дальней плоскостью
+    private int[] polygon = new int[16];
+    private int[] clippedPolygon = new int[16];
+    // Номера граней объекта, прошедших отсечение по его FaceBvh
+    private int[] culledFaces = new int[0];
+    private final int[][] tileBins;
+    private final int[] tileCounts;
+
+    // Отложенное освещение (Фонг и тун): первый проход пишет глубину и атрибуты в G-буфер,
+    // второй освещает каждый видимый пиксель ровно один раз
+    private boolean deferredShading = false;
+    private float[] normalBuffer;   // xyz на пиксель
+    private float[] positionBuffer; // xyz на пиксель
+    private int[] baseColorBuffer;
+
+    // Отсечение перекрытой геометрии: предварительный проход только по глубине
+    // и иерархический z-буфер по блокам 8x8. В буфер владельцев пишется номер треугольника,
+    // победившего в тесте глубины, цветовой проход закрашивает только его пиксели
+    private boolean occlusionCulling = false;
+    private int[] ownerBuffer;
+    private DepthPyramid depthPyramid;
+    private int[] objectStarts = new int[16];
+    private int objectCount = 0;
+    // Рабочие массивы прохода по глубине, растут вместе с objectStarts:
+    // экранные прямоугольники объектов по 5 чисел (см. screenBounds) и ключи сортировки объектов
+    private double[] objectBounds = new double[16 * 5];
+    private long[] objectOrder = new long[16];
+    private final double[] triangleBounds = new double[5];
+    private boolean[] culledTriangles = new boolean[256];
+    private int culledTriangleCount = 0;
+    private RasterPass rasterPass = RasterPass.COLOR;
+
+    private enum RasterPass {
+        COLOR,          // обычный тест глубины и закраска
+        DEPTH_ONLY,     // только глубина и владелец пикселя
+        VISIBLE_ONLY    // закраска пикселей, которыми владеет треугольник
+    }
+
+    // Объект рисуется уровнем своей LodChain, выбранным по размеру на экране
+    private boolean levelOfDetail = false;
+
+    // Счетчик времени кадра (растеризация + вывод)
+    private long frameStartNanos;
+    private long lastFrameNanos;
+    private double averageFrameNanos;
+
     public ZBuffer(int width, int height) {
         this.width = width;
         this.height = height;
-        initializeBuffers();
+        this.depthBuffer = new float[width * height];
+        // Растеризатор пишет прямо в DataBufferInt изображения
+        this.image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        this.frameBuffer = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        this.tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+        this.tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+        this.tileBins = new int[tilesX * tilesY][16];
+        this.tileCounts = new int[tilesX * tilesY];
+        clear();
         setupDefaultLighting();
     }
 
@@ -37,6 +142,58 @@ public class ZBuffer {
         this.currentShadingMode = mode;
     }
 
+    public void setParallelRendering(boolean parallelRendering) {
+        this.parallelRendering = parallelRendering;
+    }
+
+    public boolean isParallelRendering() {
+        return parallelRendering;
+    }
+
+    public void setDeferredShading(boolean deferredShading) {
+        this.deferredShading = deferredShading;
+        if (deferredShading && normalBuffer == null) {
+            // G-буфер выделяется один раз при первом включении режима
+            normalBuffer = new float[width * height * 3];
+            positionBuffer = new float[width * height * 3];
+            baseColorBuffer = new int[width * height];
+        }
+    }
+
+    public boolean isDeferredShading() {
+        return deferredShading;
+    }
+
+    public void setOcclusionCulling(boolean occlusionCulling) {
+        this.occlusionCulling = occlusionCulling;
+        if (occlusionCulling && ownerBuffer == null) {
+            ownerBuffer = new int[width * height];
+            depthPyramid = new DepthPyramid(width, height);
+        }
+    }
+
+    public void setLevelOfDetail(boolean levelOfDetail) {
+        this.levelOfDetail = levelOfDetail;
+    }
+
+    public boolean isLevelOfDetail() {
+        return levelOfDetail;
+    }
+
+    public boolean isOcclusionCulling() {
+        return occlusionCulling;
+    }
+
+    // Количество треугольников, отброшенных иерархическим z-буфером в последнем кадре
+    public int getCulledTriangleCount() {
+        return culledTriangleCount;
+    }
+
+    // Отложенный режим имеет смысл только для попиксельного освещения
+    private boolean isDeferredPass() {
+        return deferredShading && currentShadingMode != ShadingMode.GOURAUD_LAMBERT;
+    }
+
     private void setupDefaultLighting() {
         // Окружающий свет
         lights.add(new Light(new Color(255, 255, 255), 0.3));
@@ -44,278 +201,728 @@ public class ZBuffer {
         lights.add(new Light(new Point3D(1, 1, -1), new Color(255, 255, 255), 0.7));
     }
 
-    private void initializeBuffers() {
-        zBuffer = new double[width][height];
-        frameBuffer = new Color[width][height];
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                zBuffer[x][y] = Double.MAX_VALUE;
-                frameBuffer[x][y] = null;
-            }
+    // Буферы переиспользуются между кадрами, очистка без выделения памяти
+    public void clear() {
+        frameStartNanos = System.nanoTime();
+        Arrays.fill(depthBuffer, Float.POSITIVE_INFINITY);
+        Arrays.fill(frameBuffer, EMPTY_PIXEL);
+        if (ownerBuffer != null) {
+            Arrays.fill(ownerBuffer, Integer.MAX_VALUE);
         }
     }
 
-    public void clear() {
-        initializeBuffers();
+    // Кадр по иерархии сцены: объекты вне пирамиды видимости не перебираются,
+    // у видимых растеризуются только грани, чьи параллелепипеды ее пересекают
+    public void renderScene(SceneBvh scene, ProjectionTransformer projector) {
+        Frustum worldFrustum = projector.createWorldFrustum(width, height, FRUSTUM_GUARD);
+        scene.update();
+        render(scene.collectVisible(worldFrustum), worldFrustum, projector);
     }
 
     public void renderScene(List<Polyhedron> scene, ProjectionTransformer projector) {
+        render(scene, null, projector);
+    }
+
+    // worldFrustum != null - объекты уже отобраны по ней, грани отбираются по FaceBvh объекта
+    private void render(List<Polyhedron> scene, Frustum worldFrustum, ProjectionTransformer projector) {
+        // Матрица вида и пирамида видимости берутся один раз на кадр.
+        // Пирамида задана в пространстве камеры проектора, поэтому с ней и матрица вида берется оттуда
+        frustum = projector.createViewFrustum(width, height, FRUSTUM_GUARD);
+        Camera viewCamera = (frustum != null) ? projector.getCamera() : camera;
+        viewMatrix = (viewCamera != null) ? viewCamera.getViewMatrix() : null;
+        preparedCount = 0;
+        preparedLights = new PreparedLights(lights, ambientLight, camera);
+        objectCount = 0;
         for (Polyhedron p : scene) {
-            renderPolyhedron(p, projector);
+            if (occlusionCulling) {
+                beginObject();
+            }
+            // Пока уровни строятся в фоне, объект рисуется целиком
+            LodChain chain = (levelOfDetail && p != null) ? p.getLodChainIfReady() : null;
+            renderPolyhedron((chain != null) ? chain.select(p, projector) : p, worldFrustum, projector);
+        }
+        if (occlusionCulling) {
+            renderWithOcclusionCulling();
+        } else if (parallelRendering) {
+            rasterizeTiles();
+        }
+        if (isDeferredPass()) {
+            shadeGBuffer();
         }
     }
 
-    private void renderPolyhedron(Polyhedron polyhedron, ProjectionTransformer projector) {
-        if (polyhedron == null) return;
-        for (Face face : polyhedron.getFaces()) {
-            rasterizeFace(face, polyhedron, projector);
+    // Второй проход отложенного освещения: по одному расчету освещения на видимый пиксель
+    private void shadeGBuffer() {
+        IntStream rows = IntStream.range(0, height);
+        if (parallelRendering) {
+            rows = rows.parallel();
         }
+        rows.forEach(this::shadeGBufferRow);
     }
 
-    private void rasterizeFace(Face face, Polyhedron polyhedron, ProjectionTransformer projector) {
-        List<Point3D> vertices = face.getVertices();
-        if (vertices.size() < 3) return;
+    private void shadeGBufferRow(int y) {
+        for (int index = y * width, end = index + width; index < end; index++) {
+            if (depthBuffer[index] == Float.POSITIVE_INFINITY) continue;
 
-        VertexData[] vertexData = new VertexData[vertices.size()];
-        for (int i = 0; i < vertices.size(); i++) {
-            Point3D v = vertices.get(i);
-            Point2D p2d = projector.project(v);
+            int i3 = index * 3;
+            frameBuffer[index] = shadePixel(baseColorBuffer[index],
+                    normalBuffer[i3], normalBuffer[i3 + 1], normalBuffer[i3 + 2],
+                    positionBuffer[i3], positionBuffer[i3 + 1], positionBuffer[i3 + 2]);
+        }
+    }
 
-            double depth = (camera != null) ?
-                    -v.transform(camera.getViewMatrix()).z() : -v.z();
+    private void beginObject() {
+        if (objectCount == objectStarts.length) {
+            objectStarts = Arrays.copyOf(objectStarts, objectCount * 2);
+        }
+        objectStarts[objectCount++] = triangleCount;
+    }
 
-            Point3D normal = polyhedron.getVertexNormal(v);
+    // Кадр с отсечением перекрытой геометрии:
+    // 1. проход по глубине, объекты от ближнего к дальнему, с проверкой по иерархическому z-буферу;
+    // 2. цветовой проход только по уцелевшим треугольникам и только по их собственным пикселям.
+    // При равной глубине владельцем остается треугольник с меньшим номером,
+    // поэтому результат совпадает с обычной растеризацией в порядке подачи
+    private void renderWithOcclusionCulling() {
+        if (culledTriangles.length < triangleCount) {
+            culledTriangles = new boolean[Math.max(triangleCount, culledTriangles.length * 2)];
+        }
+        Arrays.fill(culledTriangles, 0, triangleCount, false);
+        culledTriangleCount = 0;
+        depthPyramid.clear();
+
+        // Ближайшая глубина каждого объекта для сортировки от ближнего к дальнему.
+        // Ключ - биты глубины, упорядоченные как числа (старшая половина), и номер объекта (младшая),
+        // так что при равной глубине порядок подачи сохраняется
+        if (objectOrder.length < objectCount) {
+            objectOrder = new long[objectStarts.length];
+            objectBounds = new double[objectStarts.length * 5];
+        }
+        for (int o = 0; o < objectCount; o++) {
+            screenBounds(objectStarts[o], objectEnd(o), objectBounds, o * 5);
+            int bits = Float.floatToIntBits((float) objectBounds[o * 5 + 4]);
+            int sortable = bits ^ ((bits >> 31) & 0x7FFFFFFF);
+            objectOrder[o] = ((long) sortable << 32) | o;
+        }
+        Arrays.sort(objectOrder, 0, objectCount);
+
+        rasterPass = RasterPass.DEPTH_ONLY;
+        double[] tb = triangleBounds;
+        for (int i = 0; i < objectCount; i++) {
+            int o = (int) objectOrder[i];
+            int start = objectStarts[o];
+            int end = objectEnd(o);
+            int b = o * 5;
+            double[] bounds = objectBounds;
+
+            // Объект целиком позади уже нарисованного
+            if (depthPyramid.isOccluded(bounds[b], bounds[b + 1], bounds[b + 2], bounds[b + 3], conservativeDepth(bounds[b + 4]))) {
+                Arrays.fill(culledTriangles, start, end, true);
+                culledTriangleCount += end - start;
+                continue;
+            }
 
-            //Для Гуро вычисляем цвет заранее в каждой вершине
-            Color vertexColor = null;
-            if (currentShadingMode == ShadingMode.GOURAUD_LAMBERT) {
-                vertexColor = calculateLambertVertexColor(polyhedron.getColor(), normal, v);
+            for (int id = start; id < end; id++) {
+                screenBounds(id, id + 1, tb, 0);
+                if (depthPyramid.isOccluded(tb[0], tb[1], tb[2], tb[3], conservativeDepth(tb[4]))) {
+                    culledTriangles[id] = true;
+                    culledTriangleCount++;
+                    continue;
+                }
+                drawTriangle(id, 0, 0, width - 1, height - 1);
             }
 
-            vertexData[i] = new VertexData(p2d.getX(), p2d.getY(), depth, normal, v, vertexColor);
+            depthPyramid.update(depthBuffer, (int) Math.floor(bounds[b]), (int) Math.floor(bounds[b + 1]),
+                    (int) Math.ceil(bounds[b + 2]), (int) Math.ceil(bounds[b + 3]));
         }
 
-        for (int i = 1; i < vertices.size() - 1; i++) {
-            drawTriangle(vertexData[0], vertexData[i], vertexData[i + 1], polyhedron.getColor());
+        rasterPass = RasterPass.VISIBLE_ONLY;
+        if (parallelRendering) {
+            for (int id = 0; id < triangleCount; id++) {
+                if (!culledTriangles[id]) {
+                    binTriangle(id);
+                }
+            }
+            rasterizeTiles();
+        } else {
+            for (int id = 0; id < triangleCount; id++) {
+                if (culledTriangles[id]) continue;
+                drawTriangle(id, 0, 0, width - 1, height - 1);
+            }
+            triangleCount = 0;
         }
+        rasterPass = RasterPass.COLOR;
     }
 
-    private void drawTriangle(VertexData v1, VertexData v2, VertexData v3, Color baseColor) {
-        int minX = (int) Math.max(0, Math.min(v1.x, Math.min(v2.x, v3.x)));
-        int maxX = (int) Math.min(width - 1, Math.ceil(Math.max(v1.x, Math.max(v2.x, v3.x))));
-        int minY = (int) Math.max(0, Math.min(v1.y, Math.min(v2.y, v3.y)));
-        int maxY = (int) Math.min(height - 1, Math.ceil(Math.max(v1.y, Math.max(v2.y, v3.y))));
+    private int objectEnd(int object) {
+        return object + 1 < objectCount ? objectStarts[object + 1] : triangleCount;
+    }
 
-        for (int y = minY; y <= maxY; y++) {
-            for (int x = minX; x <= maxX; x++) {
-                Point3D bary = barycentric(v1, v2, v3, new Point2D.Double(x, y));
-                if (bary.x() >= 0 && bary.y() >= 0 && bary.z() >= 0) {
-                    double depth = bary.x() * v1.z + bary.y() * v2.z + bary.z() * v3.z;
-                    if (depth < zBuffer[x][y]) {
-                        Color finalColor;
+    // Экранный прямоугольник и ближайшая глубина диапазона треугольников
+    // в bounds[offset .. offset + 4]: minX, minY, maxX, maxY, minDepth
+    private void screenBounds(int start, int end, double[] bounds, int offset) {
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        double minDepth = Double.MAX_VALUE;
+        for (int k = start * 3; k < end * 3; k++) {
+            int v = triangleVertices[k];
+            double x = screenXY[v * 2], y = screenXY[v * 2 + 1];
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+            minDepth = Math.min(minDepth, depths[v]);
+        }
+        bounds[offset] = minX;
+        bounds[offset + 1] = minY;
+        bounds[offset + 2] = maxX;
+        bounds[offset + 3] = maxY;
+        bounds[offset + 4] = minDepth;
+    }
 
-                        if (currentShadingMode == ShadingMode.GOURAUD_LAMBERT) {
-                            // Интерполяция уже вычисленного цвета (Гуро)
-                            finalColor = interpolateColor(v1.color, v2.color, v3.color, bary);
-                        } else {
-                            // Интерполяция атрибутов для попиксельного освещения
-                            Point3D normal = interpolateNormal(v1, v2, v3, bary);
-                            Point3D position = interpolatePosition(v1, v2, v3, bary);
+    // Интерполированная глубина пикселя не меньше минимальной по вершинам с точностью до округления:
+    // приведение к float может округлить вверх, поэтому берется соседнее меньшее значение float
+    private static float conservativeDepth(double minDepth) {
+        return Math.nextDown((float) minDepth);
+    }
 
-                            if (currentShadingMode == ShadingMode.PHONG_TOON) {
-                                // Тун-шейдинг на основе интерполированной нормали (Фонг)
-                                finalColor = calculateToonPixelColor(baseColor, normal, position);
-                            } else {
-                                // Стандартный (существующий) метод
-                                finalColor = calculateLighting(baseColor, normal, position);
-                            }
-                        }
+    // Треугольник после подготовки вершин; в многопоточном режиме растеризация откладывается
+    private void submitTriangle(int v1, int v2, int v3, int baseRgb) {
+        if (!parallelRendering && !occlusionCulling) {
+            drawTriangle(v1, v2, v3, baseRgb, -1, 0, 0, width - 1, height - 1);
+            return;
+        }
 
-                        zBuffer[x][y] = depth;
-                        frameBuffer[x][y] = finalColor;
-                    }
+        if (triangleCount == triangleColors.length) {
+            triangleVertices = Arrays.copyOf(triangleVertices, triangleCount * 6);
+            triangleColors = Arrays.copyOf(triangleColors, triangleCount * 2);
+        }
+        triangleVertices[triangleCount * 3] = v1;
+        triangleVertices[triangleCount * 3 + 1] = v2;
+        triangleVertices[triangleCount * 3 + 2] = v3;
+        triangleColors[triangleCount] = baseRgb;
+        triangleCount++;
+        if (!occlusionCulling) {
+            binTriangle(triangleCount - 1);
+        }
+    }
+
+    // Отложенный треугольник по номеру
+    private void drawTriangle(int id, int clipMinX, int clipMinY, int clipMaxX, int clipMaxY) {
+        drawTriangle(triangleVertices[id * 3], triangleVertices[id * 3 + 1], triangleVertices[id * 3 + 2],
+                triangleColors[id], id, clipMinX, clipMinY, clipMaxX, clipMaxY);
+    }
+
+    private void binTriangle(int id) {
+        int v1 = triangleVertices[id * 3] * 2, v2 = triangleVertices[id * 3 + 1] * 2, v3 = triangleVertices[id * 3 + 2] * 2;
+
+        // Консервативный экранный прямоугольник треугольника
+        double minX = Math.min(screenXY[v1], Math.min(screenXY[v2], screenXY[v3]));
+        double maxX = Math.max(screenXY[v1], Math.max(screenXY[v2], screenXY[v3]));
+        double minY = Math.min(screenXY[v1 + 1], Math.min(screenXY[v2 + 1], screenXY[v3 + 1]));
+        double maxY = Math.max(screenXY[v1 + 1], Math.max(screenXY[v2 + 1], screenXY[v3 + 1]));
+        if (maxX < 0 || maxY < 0 || minX >= width || minY >= height) return;
+
+        int tileMinX = Math.max(0, (int) Math.floor(minX) / TILE_SIZE);
+        int tileMaxX = Math.min(tilesX - 1, (int) Math.ceil(Math.min(maxX, width - 1)) / TILE_SIZE);
+        int tileMinY = Math.max(0, (int) Math.floor(minY) / TILE_SIZE);
+        int tileMaxY = Math.min(tilesY - 1, (int) Math.ceil(Math.min(maxY, height - 1)) / TILE_SIZE);
+
+        for (int ty = tileMinY; ty <= tileMaxY; ty++) {
+            for (int tx = tileMinX; tx <= tileMaxX; tx++) {
+                int tile = ty * tilesX + tx;
+                int count = tileCounts[tile];
+                if (count == tileBins[tile].length) {
+                    tileBins[tile] = Arrays.copyOf(tileBins[tile], count * 2);
                 }
+                tileBins[tile][count] = id;
+                tileCounts[tile] = count + 1;
             }
         }
     }
 
-    // Расчет цвета вершины по модели Ламберта (Diff = N * L)
-    private Color calculateLambertVertexColor(Color baseColor, Point3D normal, Point3D position) {
-        double red = ambientLight.getRed() * baseColor.getRed() / 255.0 / 255.0;
-        double green = ambientLight.getGreen() * baseColor.getGreen() / 255.0 / 255.0;
-        double blue = ambientLight.getBlue() * baseColor.getBlue() / 255.0 / 255.0;
+    // Тайлы не пересекаются, поэтому запись в буферы не требует синхронизации.
+    // Внутри тайла треугольники идут в порядке подачи, результат совпадает с последовательным
+    private void rasterizeTiles() {
+        IntStream.range(0, tilesX * tilesY).parallel().forEach(this::rasterizeTile);
+
+        triangleCount = 0;
+        Arrays.fill(tileCounts, 0);
+    }
+
+    private void rasterizeTile(int tile) {
+        int count = tileCounts[tile];
+        if (count == 0) return;
 
-        for (Light light : lights) {
-            Point3D lightDir;
-            double attenuation = 1.0;
+        int clipMinX = (tile % tilesX) * TILE_SIZE;
+        int clipMinY = (tile / tilesX) * TILE_SIZE;
+        int clipMaxX = Math.min(width, clipMinX + TILE_SIZE) - 1;
+        int clipMaxY = Math.min(height, clipMinY + TILE_SIZE) - 1;
 
-            if (light.getType() == Light.LightType.DIRECTIONAL) {
-                lightDir = light.getDirection().multiply(-1);
-            } else if (light.getType() == Light.LightType.POINT) {
-                lightDir = light.getPosition().subtract(position).normalize();
-                double distance = light.getPosition().distanceTo(position);
-                attenuation = 1.0 / (1.0 + 0.05 * distance); // Небольшое затухание
-            } else {
-                continue;
+        int[] bin = tileBins[tile];
+        for (int i = 0; i < count; i++) {
+            drawTriangle(bin[i], clipMinX, clipMinY, clipMaxX, clipMaxY);
+        }
+    }
+
+    private void renderPolyhedron(Polyhedron polyhedron, Frustum worldFrustum, ProjectionTransformer projector) {
+        if (polyhedron == null) return;
+
+        int[] visibleFaces = null;
+        int visibleCount = polyhedron.getFaceCount();
+        if (worldFrustum != null) {
+            if (culledFaces.length < visibleCount) {
+                culledFaces = new int[visibleCount];
+            }
+            int count = FaceBvh.cullFaces(polyhedron, worldFrustum, culledFaces);
+            if (count == 0) return;
+            if (count > 0) {
+                visibleFaces = culledFaces;
+                visibleCount = count;
             }
+        }
 
-            // Только диффузная составляющая (Ламберт)
-            double diff = Math.max(normal.dot(lightDir), 0.0);
+        // Матрица модели применяется здесь, один раз на вершину; сама модель не меняется
+        int vertexCount = polyhedron.getVertexCount();
+        double[] positions = polyhedron.getPositions();
+        double[] normals = polyhedron.getNormals();
+        if (polyhedron.hasModelTransform()) {
+            if (worldPositions.length < vertexCount * 3) {
+                worldPositions = new double[vertexCount * 3];
+                worldNormals = new double[vertexCount * 3];
+            }
+            polyhedron.getWorldPositions(worldPositions);
+            polyhedron.getWorldNormals(worldNormals);
+            positions = worldPositions;
+            normals = worldNormals;
+        }
 
-            red += diff * light.getIntensity() * light.getColor().getRed() * baseColor.getRed() / 65025.0 * attenuation;
-            green += diff * light.getIntensity() * light.getColor().getGreen() * baseColor.getGreen() / 65025.0 * attenuation;
-            blue += diff * light.getIntensity() * light.getColor().getBlue() * baseColor.getBlue() / 65025.0 * attenuation;
+        if (worldFrustum == null && frustum != null && !isInsideFrustum(positions, vertexCount)) return;
+
+        int[] faceIndices = polyhedron.getFaceIndices();
+        int[] faceOffsets = polyhedron.getFaceOffsets();
+        // Вершины отброшенных граней не готовятся
+        if (visibleFaces != null) {
+            if (used.length < vertexCount) {
+                used = new boolean[vertexCount];
+            }
+            Arrays.fill(used, 0, vertexCount, false);
+            for (int i = 0; i < visibleCount; i++) {
+                int f = visibleFaces[i];
+                for (int k = faceOffsets[f]; k < faceOffsets[f + 1]; k++) {
+                    used[faceIndices[k]] = true;
+                }
+            }
         }
 
-        return clampColor(red, green, blue);
+        // Треугольники рисуются сразу - вершины прошлого объекта больше не нужны
+        if (!parallelRendering && !occlusionCulling) {
+            preparedCount = 0;
+        }
+        int base = preparedCount;
+        ensureVertexCapacity(base + vertexCount);
+        preparedCount = base + vertexCount;
+
+        transformVertices(positions, normals, vertexCount, visibleFaces != null, base, polyhedron, projector);
+        int baseRgb = polyhedron.getColor().getRGB();
+        for (int i = 0; i < visibleCount; i++) {
+            int f = (visibleFaces != null) ? visibleFaces[i] : i;
+            rasterizeFace(faceIndices, faceOffsets[f], faceOffsets[f + 1], base, baseRgb, projector);
+        }
     }
 
-    // Билинейная (барицентрическая) интерполяция цвета
-    private Color interpolateColor(Color c1, Color c2, Color c3, Point3D bary) {
-        int r = (int)(c1.getRed() * bary.x() + c2.getRed() * bary.y() + c3.getRed() * bary.z());
-        int g = (int)(c1.getGreen() * bary.x() + c2.getGreen() * bary.y() + c3.getGreen() * bary.z());
-        int b = (int)(c1.getBlue() * bary.x() + c2.getBlue() * bary.y() + c3.getBlue() * bary.z());
+    // Отсечение объекта целиком по ограничивающей сфере
+    private boolean isInsideFrustum(double[] positions, int vertexCount) {
+        if (vertexCount == 0) return false;
 
-        // Clamping на всякий случай
-        r = Math.max(0, Math.min(255, r));
-        g = Math.max(0, Math.min(255, g));
-        b = Math.max(0, Math.min(255, b));
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, minZ = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE, maxZ = -Double.MAX_VALUE;
+        for (int i3 = 0; i3 < vertexCount * 3; i3 += 3) {
+            minX = Math.min(minX, positions[i3]); maxX = Math.max(maxX, positions[i3]);
+            minY = Math.min(minY, positions[i3 + 1]); maxY = Math.max(maxY, positions[i3 + 1]);
+            minZ = Math.min(minZ, positions[i3 + 2]); maxZ = Math.max(maxZ, positions[i3 + 2]);
+        }
+        double cx = (minX + maxX) / 2, cy = (minY + maxY) / 2, cz = (minZ + maxZ) / 2;
+        double radiusSquared = 0;
+        for (int i3 = 0; i3 < vertexCount * 3; i3 += 3) {
+            double dx = positions[i3] - cx, dy = positions[i3 + 1] - cy, dz = positions[i3 + 2] - cz;
+            radiusSquared = Math.max(radiusSquared, dx * dx + dy * dy + dz * dz);
+        }
 
-        return new Color(r, g, b);
+        Point3D viewCenter = viewMatrix.transform(new Point3D(cx, cy, cz));
+        return frustum.intersectsSphere(viewCenter.x(), viewCenter.y(), viewCenter.z(), Math.sqrt(radiusSquared));
     }
 
-    //Фонг + Тун-шейдинг
-    private Color calculateToonPixelColor(Color baseColor, Point3D normal, Point3D position) {
-        // Базовый цвет (окружающий)
-        double intensity = 0.2; // Минимум света (тень)
+    // Вершинная стадия: каждая уникальная вершина проецируется, получает нормаль
+    // и (для Гуро) цвет один раз за кадр и ложится в вершинный буфер под номером base + i.
+    // culled - готовятся только вершины, отмеченные в used
+    private void transformVertices(double[] positions, double[] normals, int vertexCount, boolean culled, int base,
+                                   Polyhedron polyhedron, ProjectionTransformer projector) {
+        // Без камеры экранные координаты всех вершин считаются одним вызовом
+        if (frustum == null) {
+            if (screenPositions.length < vertexCount * 2) {
+                screenPositions = new double[vertexCount * 2];
+            }
+            projector.projectAll(positions, vertexCount, screenPositions, null);
+        }
 
-        // Находим самый сильный источник света для расчета "ступенек"
-        // (Тун-шейдинг обычно работает с основным направленным светом)
-        for (Light light : lights) {
-            if (light.getType() == Light.LightType.AMBIENT) continue;
+        boolean gouraud = currentShadingMode == ShadingMode.GOURAUD_LAMBERT;
+        int baseRgb = polyhedron.getColor().getRGB();
+        for (int i = 0, i3 = 0; i < vertexCount; i++, i3 += 3) {
+            if (culled && !used[i]) continue;
+
+            int v = base + i, v2 = v * 2, v3 = v * 3;
+            double x = positions[i3], y = positions[i3 + 1], z = positions[i3 + 2];
+            double nx = normals[i3], ny = normals[i3 + 1], nz = normals[i3 + 2];
+            positionXYZ[v3] = x;
+            positionXYZ[v3 + 1] = y;
+            positionXYZ[v3 + 2] = z;
+            normalXYZ[v3] = nx;
+            normalXYZ[v3 + 1] = ny;
+            normalXYZ[v3 + 2] = nz;
+            depths[v] = (viewMatrix != null) ? -viewMatrix.transformZ(x, y, z) : -z;
+            //Для Гуро вычисляем цвет заранее в каждой вершине
+            colors[v] = gouraud ? preparedLights.lambert(baseRgb, nx, ny, nz, x, y, z) : 0;
 
-            Point3D lightDir;
-            if (light.getType() == Light.LightType.DIRECTIONAL) {
-                lightDir = light.getDirection().multiply(-1);
-            } else {
-                lightDir = light.getPosition().subtract(position).normalize();
+            if (frustum == null) {
+                screenXY[v2] = screenPositions[i * 2];
+                screenXY[v2 + 1] = screenPositions[i * 2 + 1];
+                outcodes[v] = screenOutcode(screenXY[v2], screenXY[v2 + 1]);
+                continue;
             }
 
-            // Cos угла падения
-            double dot = Math.max(normal.dot(lightDir), 0.0);
+            // Режим камеры: координаты в пространстве камеры нужны для отсечения
+            viewMatrix.transform(x, y, z, viewXYZ, v3);
+            projector.projectView(viewXYZ[v3], viewXYZ[v3 + 1], viewXYZ[v3 + 2], screenXY, v2);
+            outcodes[v] = frustum.outcode(viewXYZ[v3], viewXYZ[v3 + 1], viewXYZ[v3 + 2]);
+        }
+    }
 
-            // Квантование (ступенчатая функция)
-            if (dot > 0.95) intensity += 0.8;      // Яркий блик
-            else if (dot > 0.5) intensity += 0.5;  // Освещенная часть
-            else if (dot > 0.25) intensity += 0.3; // Полутень
-            // иначе остается в глубокой тени
+    // Массивы вершинного буфера растут вдвое, содержимое сохраняется
+    private void ensureVertexCapacity(int capacity) {
+        if (capacity <= depths.length) return;
+
+        int size = Math.max(capacity, depths.length * 2);
+        screenXY = Arrays.copyOf(screenXY, size * 2);
+        depths = Arrays.copyOf(depths, size);
+        viewXYZ = Arrays.copyOf(viewXYZ, size * 3);
+        positionXYZ = Arrays.copyOf(positionXYZ, size * 3);
+        normalXYZ = Arrays.copyOf(normalXYZ, size * 3);
+        colors = Arrays.copyOf(colors, size);
+        outcodes = Arrays.copyOf(outcodes, size);
+    }
+
+    // Код отсечения по краям экрана для проекций без камеры (биты как у Frustum)
+    private int screenOutcode(double x, double y) {
+        int code = 0;
+        if (x < 0) code |= 1 << Frustum.LEFT;
+        if (x > width - 1) code |= 1 << Frustum.RIGHT;
+        if (y > height - 1) code |= 1 << Frustum.BOTTOM;
+        if (y < 0) code |= 1 << Frustum.TOP;
+        return code;
+    }
+
+    // Грань задана диапазоном [start, end) буфера индексов многогранника; вершина k грани лежит
+    // в вершинном буфере под номером base + faceIndices[k]
+    private void rasterizeFace(int[] faceIndices, int start, int end, int base, int baseRgb,
+                               ProjectionTransformer projector) {
+        if (end - start < 3) return;
+
+        int outsideAll = ~0;
+        int outsideAny = 0;
+        for (int k = start; k < end; k++) {
+            int code = outcodes[base + faceIndices[k]];
+            outsideAll &= code;
+            outsideAny |= code;
         }
 
-        // Ограничиваем интенсивность 1.0
-        intensity = Math.min(1.0, intensity);
+        // Все вершины снаружи одной плоскости - грань не видна
+        if (outsideAll != 0) return;
+
+        int first = base + faceIndices[start];
+        if ((outsideAny & (Frustum.NEAR_BIT | Frustum.FAR_BIT)) == 0) {
+            for (int k = start + 1; k + 1 < end; k++) {
+                submitTriangle(first, base + faceIndices[k], base + faceIndices[k + 1], baseRgb);
+            }
+            return;
+        }
 
-        int r = (int)(baseColor.getRed() * intensity);
-        int g = (int)(baseColor.getGreen() * intensity);
-        int b = (int)(baseColor.getBlue() * intensity);
+        // Грань пересекает ближнюю или дальнюю плоскость - отсекаем в пространстве камеры.
+        // Боковые плоскости не отсекаются: растеризатор сам ограничивает треугольник экраном.
+        // Каждая плоскость добавляет не больше вершин, чем было в многоугольнике
+        int count = end - start;
+        if (polygon.length < count * 4) {
+            polygon = new int[count * 4];
+            clippedPolygon = new int[count * 4];
+        }
+        for (int k = start; k < end; k++) {
+            polygon[k - start] = base + faceIndices[k];
+        }
+        count = clipPolygon(polygon, count, clippedPolygon, Frustum.NEAR, projector);
+        count = clipPolygon(clippedPolygon, count, polygon, Frustum.FAR, projector);
+        if (count < 3) return;
 
-        return new Color(
-                Math.max(0, Math.min(255, r)),
-                Math.max(0, Math.min(255, g)),
-                Math.max(0, Math.min(255, b))
-        );
+        for (int i = 1; i < count - 1; i++) {
+            submitTriangle(polygon[0], polygon[i], polygon[i + 1], baseRgb);
+        }
     }
 
-    // Вспомогательный метод для ограничения цвета
-    private Color clampColor(double r, double g, double b) {
-        return new Color(
-                (int) Math.min(255, Math.max(0, r * 255)),
-                (int) Math.min(255, Math.max(0, g * 255)),
-                (int) Math.min(255, Math.max(0, b * 255))
-        );
+    // Отсечение многоугольника плоскостью (Сазерленд - Ходжмен): номера вершин из in в out, возвращает их число
+    private int clipPolygon(int[] in, int count, int[] out, int plane, ProjectionTransformer projector) {
+        int result = 0;
+        for (int i = 0; i < count; i++) {
+            int current = in[i];
+            int next = in[(i + 1) % count];
+            double dc = frustum.distance(plane, viewXYZ[current * 3], viewXYZ[current * 3 + 1], viewXYZ[current * 3 + 2]);
+            double dn = frustum.distance(plane, viewXYZ[next * 3], viewXYZ[next * 3 + 1], viewXYZ[next * 3 + 2]);
+
+            if (dc >= 0) {
+                out[result++] = current;
+            }
+            if ((dc >= 0) != (dn >= 0)) {
+                out[result++] = interpolateVertex(current, next, dc / (dc - dn), projector);
+            }
+        }
+        return result;
     }
 
-    private Point3D barycentric(VertexData A, VertexData B, VertexData C, Point2D P) {
-        Point3D v0 = new Point3D(B.x - A.x, C.x - A.x, A.x - P.getX());
-        Point3D v1 = new Point3D(B.y - A.y, C.y - A.y, A.y - P.getY());
-        Point3D u = v0.cross(v1);
+    // Новая вершина на отрезке a-b в конце вершинного буфера; атрибуты интерполируются в пространстве камеры
+    private int interpolateVertex(int a, int b, double t, ProjectionTransformer projector) {
+        int v = preparedCount;
+        ensureVertexCapacity(v + 1);
+        preparedCount++;
+
+        int a3 = a * 3, b3 = b * 3, v3 = v * 3;
+        for (int k = 0; k < 3; k++) {
+            viewXYZ[v3 + k] = viewXYZ[a3 + k] + (viewXYZ[b3 + k] - viewXYZ[a3 + k]) * t;
+            positionXYZ[v3 + k] = positionXYZ[a3 + k] + (positionXYZ[b3 + k] - positionXYZ[a3 + k]) * t;
+            normalXYZ[v3 + k] = normalXYZ[a3 + k] + (normalXYZ[b3 + k] - normalXYZ[a3 + k]) * t;
+        }
+        double length = Math.sqrt(normalXYZ[v3] * normalXYZ[v3] + normalXYZ[v3 + 1] * normalXYZ[v3 + 1]
+                + normalXYZ[v3 + 2] * normalXYZ[v3 + 2]);
+        if (length != 0) {
+            normalXYZ[v3] /= length;
+            normalXYZ[v3 + 1] /= length;
+            normalXYZ[v3 + 2] /= length;
+        }
+
+        colors[v] = interpolateColor(colors[a], colors[b], colors[b], 1 - t, t, 0);
+        depths[v] = (viewMatrix != null)
+                ? -viewMatrix.transformZ(positionXYZ[v3], positionXYZ[v3 + 1], positionXYZ[v3 + 2])
+                : -viewXYZ[v3 + 2];
+        projector.projectView(viewXYZ[v3], viewXYZ[v3 + 1], viewXYZ[v3 + 2], screenXY, v * 2);
+        outcodes[v] = frustum.outcode(viewXYZ[v3], viewXYZ[v3 + 1], viewXYZ[v3 + 2]);
+        return v;
+    }
 
-        if (Math.abs(u.z()) < 1e-2) {
-            return new Point3D(-1, 1, 1);
+    // Растеризация треугольника через целочисленные реберные функции.
+    // Координаты вершин переводятся в фиксированную точку (SUBPIXEL_BITS бит дробной части),
+    // значения реберных функций шагают инкрементально вдоль строки, а на каждой строке
+    // точно вычисляется отрезок покрытия, поэтому пустая часть описывающего прямоугольника не обходится.
+    // Правило заполнения top-left: пиксель на общем ребре соседних треугольников веера рисуется ровно один раз.
+    // Растеризуются только пиксели внутри отсекающего прямоугольника [clipMinX, clipMaxX] x [clipMinY, clipMaxY].
+    // triangleId - номер треугольника для буфера владельцев (проходы DEPTH_ONLY и VISIBLE_ONLY)
+    private void drawTriangle(int v1, int v2, int v3, int baseRgb, int triangleId,
+                              int clipMinX, int clipMinY, int clipMaxX, int clipMaxY) {
+        long x0 = toFixed(screenXY[v1 * 2]), y0 = toFixed(screenXY[v1 * 2 + 1]);
+        long x1 = toFixed(screenXY[v2 * 2]), y1 = toFixed(screenXY[v2 * 2 + 1]);
+        long x2 = toFixed(screenXY[v3 * 2]), y2 = toFixed(screenXY[v3 * 2 + 1]);
+
+        long area = (x1 - x0) * (y2 - y0) - (y1 - y0) * (x2 - x0);
+        if (area == 0) return;
+        if (area < 0) {
+            // Приводим обход к одной ориентации, чтобы правило top-left работало одинаково
+            int tv = v2; v2 = v3; v3 = tv;
+            long t = x1; x1 = x2; x2 = t;
+            t = y1; y1 = y2; y2 = t;
+            area = -area;
         }
 
-        double w = 1.0 - (u.x() + u.y()) / u.z();
-        double v = u.y() / u.z();
-        double t = u.x() / u.z();
-        return new Point3D(w, t, v);
+        int minX = (int) Math.max(clipMinX, ceilDiv(Math.min(x0, Math.min(x1, x2)), SUBPIXEL_ONE));
+        int maxX = (int) Math.min(clipMaxX, Math.floorDiv(Math.max(x0, Math.max(x1, x2)), SUBPIXEL_ONE));
+        int minY = (int) Math.max(clipMinY, ceilDiv(Math.min(y0, Math.min(y1, y2)), SUBPIXEL_ONE));
+        int maxY = (int) Math.min(clipMaxY, Math.floorDiv(Math.max(y0, Math.max(y1, y2)), SUBPIXEL_ONE));
+        if (minX > maxX || minY > maxY) return;
+
+        // Приращения реберных функций на один пиксель по x и по y
+        long a12 = (y1 - y2) * SUBPIXEL_ONE, b12 = (x2 - x1) * SUBPIXEL_ONE;
+        long a20 = (y2 - y0) * SUBPIXEL_ONE, b20 = (x0 - x2) * SUBPIXEL_ONE;
+        long a01 = (y0 - y1) * SUBPIXEL_ONE, b01 = (x1 - x0) * SUBPIXEL_ONE;
+
+        // Смещения top-left: на ребрах, не являющихся верхними или левыми, граница не включается
+        long bias12 = isTopLeft(x1, y1, x2, y2) ? 0 : -1;
+        long bias20 = isTopLeft(x2, y2, x0, y0) ? 0 : -1;
+        long bias01 = isTopLeft(x0, y0, x1, y1) ? 0 : -1;
+
+        long startX = (long) minX * SUBPIXEL_ONE;
+        long startY = (long) minY * SUBPIXEL_ONE;
+        long row12 = edge(x1, y1, x2, y2, startX, startY) + bias12;
+        long row20 = edge(x2, y2, x0, y0, startX, startY) + bias20;
+        long row01 = edge(x0, y0, x1, y1, startX, startY) + bias01;
+
+        // Атрибуты вершин из вершинного буфера
+        double z1 = depths[v1], z2 = depths[v2], z3 = depths[v3];
+        int rgb1 = colors[v1], rgb2 = colors[v2], rgb3 = colors[v3];
+        int a1 = v1 * 3, a2 = v2 * 3, a3 = v3 * 3;
+        double[] normal = normalXYZ, position = positionXYZ;
+
+        double invArea = 1.0 / area;
+        boolean gouraud = currentShadingMode == ShadingMode.GOURAUD_LAMBERT;
+        boolean deferred = isDeferredPass();
+        RasterPass pass = rasterPass;
+
+        for (int y = minY; y <= maxY; y++, row12 += b12, row20 += b20, row01 += b01) {
+            // Отрезок строки, где все три реберные функции неотрицательны
+            int spanStart = minX;
+            int spanEnd = maxX;
+            spanStart = Math.max(spanStart, minX + spanStartOffset(row12, a12));
+            spanStart = Math.max(spanStart, minX + spanStartOffset(row20, a20));
+            spanStart = Math.max(spanStart, minX + spanStartOffset(row01, a01));
+            spanEnd = Math.min(spanEnd, minX + spanEndOffset(row12, a12, maxX - minX));
+            spanEnd = Math.min(spanEnd, minX + spanEndOffset(row20, a20, maxX - minX));
+            spanEnd = Math.min(spanEnd, minX + spanEndOffset(row01, a01, maxX - minX));
+            if (spanStart > spanEnd) continue;
+
+            int skip = spanStart - minX;
+            long w0 = row12 + a12 * skip - bias12;
+            long w1 = row20 + a20 * skip - bias20;
+            long w2 = row01 + a01 * skip - bias01;
+
+            int index = y * width + spanStart;
+            for (int x = spanStart; x <= spanEnd; x++, index++, w0 += a12, w1 += a20, w2 += a01) {
+                double b0 = w0 * invArea;
+                double b1 = w1 * invArea;
+                double b2 = w2 * invArea;
+
+                float depth = (float) (b0 * z1 + b1 * z2 + b2 * z3);
+                if (pass == RasterPass.DEPTH_ONLY) {
+                    float stored = depthBuffer[index];
+                    if (depth < stored || (depth == stored && triangleId < ownerBuffer[index])) {
+                        depthBuffer[index] = depth;
+                        ownerBuffer[index] = triangleId;
+                    }
+                    continue;
+                }
+                if (pass == RasterPass.VISIBLE_ONLY) {
+                    if (ownerBuffer[index] != triangleId) continue;
+                } else if (depth >= depthBuffer[index]) {
+                    continue;
+                }
+
+                int argb;
+                if (gouraud) {
+                    // Интерполяция уже вычисленного цвета (Гуро)
+                    argb = interpolateColor(rgb1, rgb2, rgb3, b0, b1, b2);
+                } else {
+                    // Интерполяция атрибутов для попиксельного освещения
+                    double nx = b0 * normal[a1] + b1 * normal[a2] + b2 * normal[a3];
+                    double ny = b0 * normal[a1 + 1] + b1 * normal[a2 + 1] + b2 * normal[a3 + 1];
+                    double nz = b0 * normal[a1 + 2] + b1 * normal[a2 + 2] + b2 * normal[a3 + 2];
+                    double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+                    if (length > 0) {
+                        nx /= length;
+                        ny /= length;
+                        nz /= length;
+                    }
+                    double px = b0 * position[a1] + b1 * position[a2] + b2 * position[a3];
+                    double py = b0 * position[a1 + 1] + b1 * position[a2 + 1] + b2 * position[a3 + 1];
+                    double pz = b0 * position[a1 + 2] + b1 * position[a2 + 2] + b2 * position[a3 + 2];
+
+                    if (deferred) {
+                        // Только запись в G-буфер, освещение во втором проходе
+                        int i3 = index * 3;
+                        normalBuffer[i3] = (float) nx;
+                        normalBuffer[i3 + 1] = (float) ny;
+                        normalBuffer[i3 + 2] = (float) nz;
+                        positionBuffer[i3] = (float) px;
+                        positionBuffer[i3 + 1] = (float) py;
+                        positionBuffer[i3 + 2] = (float) pz;
+                        baseColorBuffer[index] = baseRgb;
+                        depthBuffer[index] = depth;
+                        continue;
+                    }
+                    argb = shadePixel(baseRgb, nx, ny, nz, px, py, pz);
+                }
+
+                depthBuffer[index] = depth;
+                frameBuffer[index] = argb;
+            }
+        }
     }
 
-    private Point3D interpolateNormal(VertexData v1, VertexData v2, VertexData v3, Point3D bary) {
-        Point3D n1 = v1.normal.multiply(bary.x());
-        Point3D n2 = v2.normal.multiply(bary.y());
-        Point3D n3 = v3.normal.multiply(bary.z());
-        return n1.add(n2).add(n3).normalize();
+    // Попиксельное освещение для режимов Фонга
+    private int shadePixel(int baseRgb, double nx, double ny, double nz, double px, double py, double pz) {
+        if (currentShadingMode == ShadingMode.PHONG_TOON) {
+            // Тун-шейдинг на основе интерполированной нормали (Фонг)
+            return preparedLights.toon(baseRgb, nx, ny, nz, px, py, pz);
+        }
+        // Стандартный (существующий) метод
+        return preparedLights.phong(baseRgb, nx, ny, nz, px, py, pz);
     }
 
-    private Point3D interpolatePosition(VertexData v1, VertexData v2, VertexData v3, Point3D bary) {
-        Point3D p1 = v1.position.multiply(bary.x());
-        Point3D p2 = v2.position.multiply(bary.y());
-        Point3D p3 = v3.position.multiply(bary.z());
-        return p1.add(p2).add(p3);
+    private static long toFixed(double coordinate) {
+        // Ограничиваем диапазон, чтобы произведения в реберных функциях не переполняли long
+        double clamped = Math.max(-MAX_COORDINATE, Math.min(MAX_COORDINATE, coordinate));
+        return Math.round(clamped * SUBPIXEL_ONE);
     }
 
-    private Color calculateLighting(Color baseColor, Point3D normal, Point3D position) {
-        Point3D viewDir = (camera != null) ?
-                camera.getPosition().subtract(position).normalize() :
-                new Point3D(0, 0, -1);
+    private static long ceilDiv(long a, long b) {
+        return -Math.floorDiv(-a, b);
+    }
 
-        double red = ambientLight.getRed() * baseColor.getRed() / 255.0 / 255.0;
-        double green = ambientLight.getGreen() * baseColor.getGreen() / 255.0 / 255.0;
-        double blue = ambientLight.getBlue() * baseColor.getBlue() / 255.0 / 255.0;
+    // Реберная функция ребра (ax, ay) -> (bx, by) в точке (px, py)
+    private static long edge(long ax, long ay, long bx, long by, long px, long py) {
+        return (bx - ax) * (py - ay) - (by - ay) * (px - ax);
+    }
 
-        for (Light light : lights) {
-            Point3D lightDir;
-            double attenuation = 1.0;
+    // Экранная ось y направлена вниз: верхнее ребро горизонтально и идет вправо, левое идет вверх
+    private static boolean isTopLeft(long ax, long ay, long bx, long by) {
+        return (ay == by && bx > ax) || by < ay;
+    }
 
-            if (light.getType() == Light.LightType.DIRECTIONAL) {
-                lightDir = light.getDirection().multiply(-1);
-            } else if (light.getType() == Light.LightType.POINT) {
-                lightDir = light.getPosition().subtract(position).normalize();
-                double distance = light.getPosition().distanceTo(position);
-                attenuation = 1.0 / (1.0 + 0.1 * distance);
-            } else {
-                continue; // Ambient уже обработан
-            }
+    // Первое смещение по x, при котором value + step * dx >= 0
+    private static int spanStartOffset(long value, long step) {
+        if (value >= 0) return 0;
+        if (step <= 0) return Integer.MAX_VALUE / 2;
+        return (int) Math.min(Integer.MAX_VALUE / 2, ceilDiv(-value, step));
+    }
 
-            // Диффузная составляющая
-            double diff = Math.max(normal.dot(lightDir), 0.0);
-            red += diff * light.getIntensity() * light.getColor().getRed() * baseColor.getRed() / 255.0 / 255.0 * attenuation;
-            green += diff * light.getIntensity() * light.getColor().getGreen() * baseColor.getGreen() / 255.0 / 255.0 * attenuation;
-            blue += diff * light.getIntensity() * light.getColor().getBlue() * baseColor.getBlue() / 255.0 / 255.0 * attenuation;
+    // Последнее смещение по x, при котором value + step * dx >= 0
+    private static int spanEndOffset(long value, long step, int maxOffset) {
+        if (step >= 0) return value >= 0 || step > 0 ? maxOffset : -1;
+        if (value < 0) return -1;
+        return (int) Math.min(maxOffset, Math.floorDiv(value, -step));
+    }
 
-            // Зеркальная составляющая
-            Point3D reflectDir = lightDir.reflect(normal);
-            double spec = Math.pow(Math.max(viewDir.dot(reflectDir), 0.0), 32);
-            red += spec * light.getIntensity() * light.getColor().getRed() / 255.0 * attenuation;
-            green += spec * light.getIntensity() * light.getColor().getGreen() / 255.0 * attenuation;
-            blue += spec * light.getIntensity() * light.getColor().getBlue() / 255.0 * attenuation;
-        }
+    // Барицентрическая интерполяция упакованного цвета
+    private static int interpolateColor(int c1, int c2, int c3, double b0, double b1, double b2) {
+        int r = (int) (((c1 >> 16) & 0xFF) * b0 + ((c2 >> 16) & 0xFF) * b1 + ((c3 >> 16) & 0xFF) * b2);
+        int g = (int) (((c1 >> 8) & 0xFF) * b0 + ((c2 >> 8) & 0xFF) * b1 + ((c3 >> 8) & 0xFF) * b2);
+        int b = (int) ((c1 & 0xFF) * b0 + (c2 & 0xFF) * b1 + (c3 & 0xFF) * b2);
 
-        red = Math.min(1.0, Math.max(0.0, red));
-        green = Math.min(1.0, Math.max(0.0, green));
-        blue = Math.min(1.0, Math.max(0.0, blue));
+        // Clamping на всякий случай
+        r = Math.max(0, Math.min(255, r));
+        g = Math.max(0, Math.min(255, g));
+        b = Math.max(0, Math.min(255, b));
 
-        return new Color((int)(red * 255), (int)(green * 255), (int)(blue * 255));
+        return 0xFF000000 | (r << 16) | (g << 8) | b;
     }
 
     public void display(Graphics2D g2d, Color backgroundColor) {
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                if (frameBuffer[x][y] != null) {
-                    g2d.setColor(frameBuffer[x][y]);
-                    g2d.drawLine(x, y, x, y);
-                }
-            }
-        }
+        g2d.drawImage(image, 0, 0, null);
+
+        lastFrameNanos = System.nanoTime() - frameStartNanos;
+        averageFrameNanos = averageFrameNanos == 0 ? lastFrameNanos
+                : averageFrameNanos * 0.9 + lastFrameNanos * 0.1;
+    }
+
+    // Время последнего кадра от clear() до display(), мс
+    public double getLastFrameTimeMillis() {
+        return lastFrameNanos / 1_000_000.0;
+    }
+
+    // Сглаженное среднее время кадра, мс
+    public double getAverageFrameTimeMillis() {
+        return averageFrameNanos / 1_000_000.0;
     }
 
     public void setCamera(Camera camera) {
@@ -341,24 +948,4 @@ public class ZBuffer {
     public int getHeight() {
         return height;
     }
-
-    private static class VertexData {
-        double x, y, z;
-        Point3D normal;
-        Point3D position;
-        Color color;
-
-        VertexData(double x, double y, double z, Point3D normal, Point3D position) {
-            this(x, y, z, normal, position, null);
-        }
-
-        VertexData(double x, double y, double z, Point3D normal, Point3D position,  Color color) {
-            this.x = x;
-            this.y = y;
-            this.z = z;
-            this.normal = normal;
-            this.position = position;
-            this.color = color;
-        }
-    }
-}
\ No newline at end of file
+}